@@ -0,0 +1,131 @@
+package nadutkin.app;
+
+import nadutkin.app.impl.ServiceImpl;
+import nadutkin.utils.ServiceConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Quorum GET (ack=2, from=3) of one value on a local three node cluster with and without digest reads.
+ * Bytes of replica answers received by the coordinator are printed per GET after the trial.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class DigestReadBenchmark {
+    private static final String KEY = "digest-benchmark";
+
+    @Param({"1024", "16384", "65000"})
+    public int valueSize;
+
+    @Param({"true", "false"})
+    public boolean digestReads;
+
+    private final List<Service> services = new ArrayList<>();
+    private final List<Path> directories = new ArrayList<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private String coordinator;
+    private HttpRequest get;
+    private long gets;
+    private long bytesBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                urls.add("http://localhost:" + socket.getLocalPort());
+            }
+        }
+        for (String url : urls) {
+            Path directory = Files.createTempDirectory("digest");
+            directories.add(directory);
+            int port = URI.create(url).getPort();
+            Service service = new ServiceImpl(new ServiceConfig(port, url, urls, directory), digestReads);
+            service.start().get(10, TimeUnit.SECONDS);
+            services.add(service);
+        }
+        coordinator = urls.get(0);
+
+        byte[] value = new byte[valueSize];
+        new Random(42).nextBytes(value);
+        HttpResponse<byte[]> put = client.send(HttpRequest.newBuilder(entity(3))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(value)).build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (put.statusCode() != 201) {
+            throw new IllegalStateException("PUT failed: " + put.statusCode());
+        }
+        get = HttpRequest.newBuilder(entity(2)).GET().build();
+        bytesBefore = responseBytes();
+    }
+
+    private URI entity(int ack) {
+        return URI.create(coordinator + "/v0/entity?id=" + KEY + "&ack=" + ack + "&from=3");
+    }
+
+    private long responseBytes() throws IOException, InterruptedException {
+        String stats = client.send(HttpRequest.newBuilder(URI.create(coordinator + "/v0/stats")).GET().build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).body();
+        return stats.lines()
+                .filter(line -> line.startsWith("replicas.responseBytes="))
+                .mapToLong(line -> Long.parseLong(line.substring(line.indexOf('=') + 1)))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.printf("%nreplica response bytes per GET: %d%n", (responseBytes() - bytesBefore) / gets);
+        for (Service service : services) {
+            service.stop().get(10, TimeUnit.SECONDS);
+        }
+        for (Path directory : directories) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException, InterruptedException {
+        gets++;
+        HttpResponse<byte[]> response = client.send(get, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200 || response.body().length != valueSize) {
+            throw new IllegalStateException("GET failed: " + response.statusCode());
+        }
+        return response.body();
+    }
+}
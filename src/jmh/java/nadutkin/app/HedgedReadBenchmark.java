@@ -0,0 +1,153 @@
+package nadutkin.app;
+
+import nadutkin.app.impl.ServiceImpl;
+import nadutkin.utils.ServiceConfig;
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Quorum GET (ack=2, from=3) on a local three node cluster, where one replica answers
+ * 10% of requests 20 ms later, as in a GC pause or a compaction.
+ * Hedged reads are compared with the fan out to all replicas, replica requests per GET are printed after the trial.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class HedgedReadBenchmark {
+    private static final String KEY = "hedged-benchmark";
+    private static final double SLOW_CHANCE = 0.1;
+    private static final long SLOW_MILLIS = 20;
+
+    @Param({"true", "false"})
+    public boolean hedgedReads;
+
+    private final List<Service> services = new ArrayList<>();
+    private final List<Path> directories = new ArrayList<>();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private String coordinator;
+    private HttpRequest get;
+    private long gets;
+    private long requestsBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                urls.add("http://localhost:" + socket.getLocalPort());
+            }
+        }
+        for (int i = 0; i < urls.size(); i++) {
+            Path directory = Files.createTempDirectory("hedged");
+            directories.add(directory);
+            String url = urls.get(i);
+            ServiceConfig config = new ServiceConfig(URI.create(url).getPort(), url, urls, directory);
+            Service service = i == urls.size() - 1
+                    ? new SlowService(config, hedgedReads)
+                    : new ServiceImpl(config, false, hedgedReads);
+            service.start().get(10, TimeUnit.SECONDS);
+            services.add(service);
+        }
+        coordinator = urls.get(0);
+
+        HttpResponse<byte[]> put = client.send(HttpRequest.newBuilder(entity(3))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(new byte[256])).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (put.statusCode() != 201) {
+            throw new IllegalStateException("PUT failed: " + put.statusCode());
+        }
+        get = HttpRequest.newBuilder(entity(2)).GET().build();
+        requestsBefore = replicaRequests();
+    }
+
+    private URI entity(int ack) {
+        return URI.create(coordinator + "/v0/entity?id=" + KEY + "&ack=" + ack + "&from=3");
+    }
+
+    private long replicaRequests() throws IOException, InterruptedException {
+        String stats = client.send(HttpRequest.newBuilder(URI.create(coordinator + "/v0/stats")).GET().build(),
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).body();
+        return stats.lines()
+                .filter(line -> line.startsWith("replicas.requests="))
+                .mapToLong(line -> Long.parseLong(line.substring(line.indexOf('=') + 1)))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.printf("%nremote replica requests per GET: %.3f%n",
+                (double) (replicaRequests() - requestsBefore) / gets);
+        for (Service service : services) {
+            service.stop().get(10, TimeUnit.SECONDS);
+        }
+        for (Path directory : directories) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] get() throws IOException, InterruptedException {
+        gets++;
+        HttpResponse<byte[]> response = client.send(get, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET failed: " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static final class SlowService extends ServiceImpl {
+        SlowService(ServiceConfig config, boolean hedgedReads) {
+            super(config, false, hedgedReads);
+        }
+
+        @Override
+        protected CompletableFuture<Response> handleV1Async(String id, Request request) {
+            if (ThreadLocalRandom.current().nextDouble() >= SLOW_CHANCE) {
+                return super.handleV1Async(id, request);
+            }
+            return CompletableFuture.supplyAsync(() -> null,
+                            CompletableFuture.delayedExecutor(SLOW_MILLIS, TimeUnit.MILLISECONDS))
+                    .thenCompose(ignored -> super.handleV1Async(id, request));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probe of the prefix filter bits with the same positions as PrefixFilter: one by one and all at once with vectors.
+ * Filter is in the heap here, so that vectors can gather words.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign,jdk.incubator.vector"})
+public class BloomProbeBenchmark {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_512;
+    private static final int HASHES = (int) Constants.PREFIX_FILTER_HASHES;
+    private static final int KEYS = 1 << 20;
+    private static final int QUERIES = 1 << 16;
+
+    private final int[] wordIndexes = new int[SPECIES.length()];
+    private long[] bits;
+    private long bitsCount;
+    private long[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bitsCount = KEYS * Constants.PREFIX_FILTER_BITS_PER_KEY;
+        bits = new long[(int) ((bitsCount + Long.SIZE - 1) / Long.SIZE)];
+        bitsCount = (long) bits.length * Long.SIZE;
+        Random random = new Random(42);
+        for (int i = 0; i < KEYS; i++) {
+            long hash = random.nextLong();
+            long delta = Long.rotateRight(hash, 17) | 1;
+            for (int j = 0; j < HASHES; j++) {
+                long bit = Long.remainderUnsigned(hash, bitsCount);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+                hash += delta;
+            }
+        }
+        // half of queries are absent
+        queries = new long[QUERIES];
+        Random queryRandom = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = i % 2 == 0 ? queryRandom.nextLong() : random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public boolean scalar() {
+        long hash = queries[next++ & (QUERIES - 1)];
+        long delta = Long.rotateRight(hash, 17) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Long.remainderUnsigned(hash, bitsCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += delta;
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean vector() {
+        long hash = queries[next++ & (QUERIES - 1)];
+        long delta = Long.rotateRight(hash, 17) | 1;
+        VectorMask<Long> lanes = SPECIES.indexInRange(0, HASHES);
+        LongVector hashes = LongVector.broadcast(SPECIES, hash)
+                .add(LongVector.zero(SPECIES).addIndex(1).mul(delta));
+        // unsigned remainder from the signed one of the half, bitsCount < 2^62
+        LongVector half = hashes.lanewise(VectorOperators.LSHR, 1);
+        LongVector remainder = half.sub(half.div(bitsCount).mul(bitsCount))
+                .mul(2).add(hashes.and(1));
+        remainder = remainder.sub(bitsCount, remainder.compare(VectorOperators.GE, bitsCount));
+        LongVector words = remainder.lanewise(VectorOperators.LSHR, 6);
+        for (int i = 0; i < HASHES; i++) {
+            wordIndexes[i] = (int) words.lane(i);
+        }
+        LongVector gathered = LongVector.fromArray(SPECIES, bits, 0, wordIndexes, 0, lanes);
+        LongVector masks = LongVector.broadcast(SPECIES, 1).lanewise(VectorOperators.LSHL, remainder.and(63));
+        return !gathered.and(masks).compare(VectorOperators.EQ, 0, lanes).anyTrue();
+    }
+}
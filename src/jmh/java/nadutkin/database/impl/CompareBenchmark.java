@@ -0,0 +1,104 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of keys, which differ in the last byte, in native memory as in files:
+ * by words in unrolled blocks, by JDK mismatch of slices and by vectors.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign,jdk.incubator.vector"})
+public class CompareBenchmark {
+    private static final int PAIRS = 1024;
+
+    @Param({"8", "16", "32", "64", "128", "256"})
+    public int keyLength;
+
+    private ResourceScope scope;
+    private MemorySegment keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scope = ResourceScope.newConfinedScope();
+        keys = MemorySegment.allocateNative(2L * PAIRS * keyLength, scope);
+        Random random = new Random(42);
+        for (int pair = 0; pair < PAIRS; pair++) {
+            long first = 2L * pair * keyLength;
+            for (int i = 0; i < keyLength; i++) {
+                byte value = (byte) random.nextInt();
+                MemoryAccess.setByteAtOffset(keys, first + i, value);
+                MemoryAccess.setByteAtOffset(keys, first + keyLength + i, value);
+            }
+            MemoryAccess.setByteAtOffset(keys, first + 2L * keyLength - 1, (byte) random.nextInt());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scope.close();
+    }
+
+    private long nextPair() {
+        next = (next + 1) & (PAIRS - 1);
+        return 2L * next * keyLength;
+    }
+
+    @Benchmark
+    public int words() {
+        long first = nextPair();
+        int compared = MemorySegmentComparator.compareWords(keys, first, keys, first + keyLength, keyLength);
+        return compared != 0 ? compared : Long.compare(keyLength, keyLength);
+    }
+
+    @Benchmark
+    public int mismatch() {
+        long first = nextPair();
+        return MemorySegmentComparator.INSTANCE.compare(
+                keys.asSlice(first, keyLength), keys.asSlice(first + keyLength, keyLength));
+    }
+
+    @Benchmark
+    public int vector() {
+        long first = nextPair();
+        return VectorizedComparison.compare(keys, first, keyLength, keys, first + keyLength, keyLength);
+    }
+
+    // what is used by cursors and compaction
+    @Benchmark
+    public int selected() {
+        long first = nextPair();
+        return MemorySegmentComparator.compare(keys, first, keyLength, keys, first + keyLength, keyLength);
+    }
+
+    // what is used by lookups
+    @Benchmark
+    public int lookup() {
+        long first = nextPair();
+        return MemorySegmentComparator.compareLookup(keys, first, keyLength, keys, first + keyLength, keyLength);
+    }
+}
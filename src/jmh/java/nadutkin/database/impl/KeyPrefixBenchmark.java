@@ -0,0 +1,131 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups in one SSTable with and without cached key prefixes.
+ * Without them the section is hidden by changing its tag, so the file is the same otherwise.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class KeyPrefixBenchmark {
+    private static final int KEYS = 1_000_000;
+    private static final int QUERIES = 1 << 16;
+    private static final long UNKNOWN_TAG = Long.MAX_VALUE;
+
+    @Param({"hex", "prefixed", "long"})
+    public String distribution;
+
+    @Param({"false", "true"})
+    public boolean keyPrefixes;
+
+    private Path directory;
+    private Storage storage;
+    private MemorySegment[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        TreeSet<String> keys = new TreeSet<>();
+        while (keys.size() < KEYS) {
+            String key = switch (distribution) {
+                case "hex" -> Long.toHexString(random.nextLong());
+                // the same table and the number of the row
+                case "prefixed" -> String.format("user:%012d", Math.floorMod(random.nextLong(), 1_000_000_000_000L));
+                // composite keys, which differ in the end
+                default -> "tenant-0042/collection-0007/" + "0".repeat(24) + Long.toHexString(random.nextLong());
+            };
+            keys.add(key);
+        }
+
+        List<Entry<MemorySegment>> entries = new ArrayList<>(KEYS);
+        for (String key : keys) {
+            entries.add(new BaseEntry<>(segment(key), segment("value" + key)));
+        }
+
+        directory = Files.createTempDirectory("key-prefixes");
+        Config config = new Config(directory, Long.MAX_VALUE);
+        StorageMethods.save(config, StorageMethods.load(config), entries);
+        if (!keyPrefixes) {
+            hideKeyPrefixes(directory.resolve(Constants.FILE_NAME + 0 + Constants.FILE_EXT));
+        }
+        storage = StorageMethods.load(config);
+
+        queries = new MemorySegment[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = entries.get(random.nextInt(KEYS)).key();
+        }
+    }
+
+    private static void hideKeyPrefixes(Path file) throws IOException {
+        try (ResourceScope scope = ResourceScope.newConfinedScope();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemorySegment segment = MemorySegment.mapFile(file, 0, channel.size(), FileChannel.MapMode.READ_WRITE,
+                    scope);
+            long metaEnd = segment.byteSize() - Long.BYTES;
+            long offset = MemoryAccess.getLongAtOffset(segment, metaEnd);
+            while (offset < metaEnd) {
+                if (MemoryAccess.getLongAtOffset(segment, offset) == Constants.META_KEY_PREFIXES) {
+                    MemoryAccess.setLongAtOffset(segment, offset, UNKNOWN_TAG);
+                }
+                offset += 2L * Long.BYTES + MemoryAccess.getLongAtOffset(segment, offset + Long.BYTES);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public Entry<MemorySegment> get() {
+        return storage.get(queries[next++ & (QUERIES - 1)]);
+    }
+
+    private static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
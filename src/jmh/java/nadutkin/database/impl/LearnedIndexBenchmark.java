@@ -0,0 +1,105 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups in one SSTable with binary search and with learned index.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class LearnedIndexBenchmark {
+    private static final int KEYS = 500_000;
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"sequential", "numeric", "hex"})
+    public String distribution;
+
+    @Param({"false", "true"})
+    public boolean learnedIndex;
+
+    private Path directory;
+    private Storage storage;
+    private MemorySegment[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        TreeSet<String> keys = new TreeSet<>();
+        while (keys.size() < KEYS) {
+            String key = switch (distribution) {
+                // ids from the autoincrement with gaps
+                case "sequential" -> Long.toString(1_000_000_000L + keys.size() * 3L + random.nextInt(3));
+                case "numeric" -> Long.toString(Math.floorMod(random.nextLong(), 10_000_000_000_000L));
+                default -> Long.toHexString(random.nextLong());
+            };
+            keys.add(key);
+        }
+
+        List<Entry<MemorySegment>> entries = new ArrayList<>(KEYS);
+        for (String key : keys) {
+            entries.add(new BaseEntry<>(segment(key), segment("value" + key)));
+        }
+
+        directory = Files.createTempDirectory("learned-index");
+        Config config = new Config(directory, Long.MAX_VALUE, learnedIndex, 0);
+        StorageMethods.save(config, StorageMethods.load(config), entries);
+        storage = StorageMethods.load(config);
+
+        queries = new MemorySegment[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = entries.get(random.nextInt(KEYS)).key();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public Entry<MemorySegment> get() {
+        return storage.get(queries[next++ & (QUERIES - 1)]);
+    }
+
+    private static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
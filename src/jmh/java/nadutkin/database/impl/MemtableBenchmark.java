@@ -0,0 +1,101 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Filling memtable and reading it in order as flush does, with skip list and with append log.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class MemtableBenchmark {
+    private static final int KEYS = 100_000;
+    // share of keys swapped with a near neighbour in nearly sorted input
+    private static final int SWAPS_PERCENT = 5;
+    private static final MemorySegment VERY_FIRST_KEY = MemorySegment.ofArray(new byte[]{});
+
+    @Param({"false", "true"})
+    public boolean appendMemtable;
+
+    @Param({"sorted", "nearlySorted", "random"})
+    public String input;
+
+    private Entry<MemorySegment>[] entries;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        List<Integer> order = new ArrayList<>(IntStream.range(0, KEYS).boxed().toList());
+        Random random = new Random(42);
+        switch (input) {
+            case "sorted" -> {
+            }
+            case "nearlySorted" -> {
+                for (int i = 0; i < KEYS * SWAPS_PERCENT / 100; i++) {
+                    int index = random.nextInt(KEYS - 16);
+                    Collections.swap(order, index, index + 1 + random.nextInt(15));
+                }
+            }
+            default -> Collections.shuffle(order, random);
+        }
+        entries = new Entry[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            String key = String.format("key%010d", order.get(i));
+            entries[i] = new BaseEntry<>(segment(key), segment("value" + key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public DatabaseUtils.Memory insert() {
+        DatabaseUtils.Memory memory = new DatabaseUtils.Memory(Long.MAX_VALUE, null, appendMemtable);
+        for (Entry<MemorySegment> entry : entries) {
+            memory.put(entry.key(), entry);
+        }
+        return memory;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public void insertAndFlush(Blackhole blackhole) {
+        DatabaseUtils.Memory memory = insert();
+        Iterator<Entry<MemorySegment>> iterator = memory.get(VERY_FIRST_KEY, null);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    private static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
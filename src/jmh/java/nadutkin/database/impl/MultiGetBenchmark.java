@@ -0,0 +1,133 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches of point lookups in several SSTables with one multiGet and with get of every key, time is per key.
+ * Dense batches of 10k keys are swept by galloping cursors, sparse ones are looked for with the learned index.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class MultiGetBenchmark {
+    private static final int FILES = 4;
+    private static final int KEYS_PER_FILE = 18_000;
+    private static final int BATCH = 10_000;
+    private static final int SPARSE_BATCH = 512;
+    private static final int BATCHES = 8;
+
+    private Path directory;
+    private MemorySegmentDao dao;
+    private List<List<MemorySegment>> denseBatches;
+    private List<List<MemorySegment>> sparseBatches;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("multi-get");
+        Config config = new Config(directory, Long.MAX_VALUE, true, 0);
+        // every file covers the whole key range, so every key is looked for in all of them
+        long timestamp = 0;
+        for (int file = 0; file < FILES; file++) {
+            List<Entry<MemorySegment>> entries = new ArrayList<>(KEYS_PER_FILE);
+            for (int i = 0; i < KEYS_PER_FILE; i++) {
+                MemorySegment key = key(i * FILES + file);
+                entries.add(new BaseEntry<>(key, key, ++timestamp));
+            }
+            StorageMethods.save(config, StorageMethods.load(config), entries);
+        }
+        dao = new MemorySegmentDao(config);
+
+        Random random = new Random(42);
+        denseBatches = batches(random, BATCH);
+        sparseBatches = batches(random, SPARSE_BATCH);
+    }
+
+    // half of the keys are absent
+    private static List<List<MemorySegment>> batches(Random random, int size) {
+        List<List<MemorySegment>> batches = new ArrayList<>(BATCHES);
+        for (int b = 0; b < BATCHES; b++) {
+            List<MemorySegment> keys = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                keys.add(key(random.nextInt(2 * FILES * KEYS_PER_FILE)));
+            }
+            batches.add(keys);
+        }
+        return batches;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Entry<MemorySegment>> multiGetDense() {
+        return dao.multiGet(denseBatches.get(next++ & (BATCHES - 1)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void getDense(Blackhole blackhole) {
+        get(denseBatches.get(next++ & (BATCHES - 1)), blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPARSE_BATCH)
+    public List<Entry<MemorySegment>> multiGetSparse() {
+        return dao.multiGet(sparseBatches.get(next++ & (BATCHES - 1)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPARSE_BATCH)
+    public void getSparse(Blackhole blackhole) {
+        get(sparseBatches.get(next++ & (BATCHES - 1)), blackhole);
+    }
+
+    private void get(List<MemorySegment> keys, Blackhole blackhole) {
+        for (MemorySegment key : keys) {
+            blackhole.consume(dao.get(key));
+        }
+    }
+
+    private static MemorySegment key(int i) {
+        return MemorySegment.ofArray("key%09d".formatted(i).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,99 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scan of several files with iterators and with cursors, run with -prof gc to see allocation per entry.
+ * Long keys share a prefix longer than {@link Constants#VECTORIZED_COMPARE_MIN_BYTES}, so merges compare them whole.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign,jdk.incubator.vector"})
+public class ScanBenchmark {
+    private static final int FILES = 4;
+    private static final int KEYS_PER_FILE = 50_000;
+    private static final int ENTRIES = FILES * KEYS_PER_FILE;
+
+    @Param({"10", "160"})
+    public int keyLength;
+
+    private Path directory;
+    private MemorySegmentDao dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("scan");
+        dao = new MemorySegmentDao(new Config(directory, Long.MAX_VALUE / 2));
+        String prefix = "x".repeat(keyLength - 10);
+        for (int file = 0; file < FILES; file++) {
+            // files interleave, so every step of the merge changes the head
+            for (int i = 0; i < KEYS_PER_FILE; i++) {
+                String key = prefix + "key" + (1_000_000 + i * FILES + file);
+                dao.upsert(new BaseEntry<>(segment(key), segment("value" + key)));
+            }
+            dao.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        try (var files = Files.walk(directory)) {
+            for (Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void iterator(Blackhole blackhole) {
+        Iterator<Entry<MemorySegment>> iterator = dao.get(segment(""), null);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next().value().byteSize());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void cursor(Blackhole blackhole) {
+        Cursor cursor = dao.cursor(null, null);
+        while (cursor.next()) {
+            blackhole.consume(cursor.valueSize());
+        }
+    }
+
+    private static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,80 @@
+package nadutkin.utils;
+
+import nadutkin.app.replicas.StoredValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of stored values with Java serialization (the old format) and with the binary layout.
+ *
+ * @author Nadutkin Fedor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "--add-modules", "jdk.incubator.foreign"})
+public class StoredValueBenchmark {
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private StoredValue value;
+    private byte[] serialized;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] data = new byte[valueSize];
+        new Random(42).nextBytes(data);
+        value = new StoredValue(data, System.currentTimeMillis());
+        serialized = serialize(value);
+        binary = UtilsClass.valueToSegment(value);
+    }
+
+    private static byte[] serialize(StoredValue value) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            ObjectOutputStream out = new ObjectOutputStream(bos);
+            out.writeObject(value);
+            out.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() throws IOException {
+        return serialize(value);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return UtilsClass.valueToSegment(value);
+    }
+
+    // goes through the migration path
+    @Benchmark
+    public StoredValue decodeSerialized() throws IOException, ClassNotFoundException {
+        return UtilsClass.segmentToValue(serialized);
+    }
+
+    @Benchmark
+    public StoredValue decodeBinary() throws IOException, ClassNotFoundException {
+        return UtilsClass.segmentToValue(binary);
+    }
+}
@@ -0,0 +1,235 @@
+package nadutkin.app.cache;
+
+import nadutkin.utils.MemoryManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Segmented LRU cache of encoded responses with a budget in bytes.
+ * New rows get to the probation segment and are promoted to the protected one on the second hit,
+ * so one-time reads of a scan can't wash out popular rows.
+ * Rows take memory from the shared budget, and the cache shrinks when others need it.
+ */
+public class RowCache {
+    private static final int SHARDS = 16;
+    private static final long ROW_OVERHEAD = 64;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final MemoryManager.Reservation reservation;
+
+    public RowCache(long capacityBytes, MemoryManager memoryManager) {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacityBytes / SHARDS);
+        }
+        this.reservation = memoryManager.register("rowCache", this::shrink);
+    }
+
+    private Shard shard(String key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    public byte[] get(String key) {
+        byte[] value = shard(key).get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns stamp to be passed to put, so rows read before concurrent invalidation are not cached.
+     */
+    public long stamp(String key) {
+        return shard(key).stamp();
+    }
+
+    public void put(String key, byte[] value, long stamp) {
+        long weight = weight(key, value);
+        Shard shard = shard(key);
+        if (weight > shard.probationCapacity() || !reservation.tryAcquire(weight)) {
+            return;
+        }
+        shard.put(key, value, stamp);
+    }
+
+    private long shrink(long bytes) {
+        long released = 0;
+        long perShard = bytes / SHARDS + 1;
+        for (Shard shard : shards) {
+            released += shard.evict(perShard);
+        }
+        return released;
+    }
+
+    public void invalidate(String key) {
+        shard(key).invalidate(key);
+    }
+
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRatio() {
+        long hitsCount = hits();
+        long total = hitsCount + misses();
+        return total == 0 ? 0 : (double) hitsCount / total;
+    }
+
+    public long bytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.bytes();
+        }
+        return bytes;
+    }
+
+    private static long weight(String key, byte[] value) {
+        return ROW_OVERHEAD + 2L * key.length() + value.length;
+    }
+
+    private final class Shard {
+        private final LinkedHashMap<String, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, byte[]> protectedRows = new LinkedHashMap<>(16, 0.75f, true);
+        private final long capacity;
+        private final long protectedCapacity;
+        private long probationBytes;
+        private long protectedBytes;
+        private long invalidations;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 4 / 5;
+        }
+
+        synchronized byte[] get(String key) {
+            byte[] value = protectedRows.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = probation.remove(key);
+            if (value == null) {
+                return null;
+            }
+            long weight = weight(key, value);
+            probationBytes -= weight;
+            protectedRows.put(key, value);
+            protectedBytes += weight;
+
+            // demoted rows get one more chance in probation
+            Iterator<Map.Entry<String, byte[]>> iterator = protectedRows.entrySet().iterator();
+            while (protectedBytes > protectedCapacity && iterator.hasNext()) {
+                Map.Entry<String, byte[]> eldest = iterator.next();
+                iterator.remove();
+                long eldestWeight = weight(eldest.getKey(), eldest.getValue());
+                protectedBytes -= eldestWeight;
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationBytes += eldestWeight;
+            }
+            trim();
+            return value;
+        }
+
+        synchronized long stamp() {
+            return invalidations;
+        }
+
+        long probationCapacity() {
+            return capacity - protectedCapacity;
+        }
+
+        // memory for the row is already acquired
+        synchronized void put(String key, byte[] value, long stamp) {
+            long weight = weight(key, value);
+            if (stamp != invalidations) {
+                reservation.release(weight);
+                return;
+            }
+            remove(key);
+            probation.put(key, value);
+            probationBytes += weight;
+            trim();
+        }
+
+        synchronized void invalidate(String key) {
+            invalidations++;
+            remove(key);
+        }
+
+        synchronized void clear() {
+            invalidations++;
+            probation.clear();
+            protectedRows.clear();
+            reservation.release(probationBytes + protectedBytes);
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+
+        synchronized long evict(long bytes) {
+            long released = evict(probation, bytes);
+            probationBytes -= released;
+            long releasedProtected = evict(protectedRows, bytes - released);
+            protectedBytes -= releasedProtected;
+            return released + releasedProtected;
+        }
+
+        private long evict(LinkedHashMap<String, byte[]> rows, long bytes) {
+            long released = 0;
+            Iterator<Map.Entry<String, byte[]>> iterator = rows.entrySet().iterator();
+            while (released < bytes && iterator.hasNext()) {
+                Map.Entry<String, byte[]> eldest = iterator.next();
+                iterator.remove();
+                released += weight(eldest.getKey(), eldest.getValue());
+                evictions.increment();
+            }
+            reservation.release(released);
+            return released;
+        }
+
+        synchronized long bytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        private void remove(String key) {
+            byte[] value = probation.remove(key);
+            if (value != null) {
+                probationBytes -= weight(key, value);
+                reservation.release(weight(key, value));
+            }
+            value = protectedRows.remove(key);
+            if (value != null) {
+                protectedBytes -= weight(key, value);
+                reservation.release(weight(key, value));
+            }
+        }
+
+        private void trim() {
+            long overflow = probationBytes + protectedBytes - capacity;
+            if (overflow > 0) {
+                probationBytes -= evict(probation, overflow);
+            }
+        }
+    }
+}
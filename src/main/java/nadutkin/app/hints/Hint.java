@@ -0,0 +1,39 @@
+package nadutkin.app.hints;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Write, which is kept for a replica until it is reachable again.
+ * Stored as (createdAt long)(method int)(uriSize int)(uri)(bodySize int)(body).
+ * @param uri replica uri of the write
+ * @param body stored value
+ */
+public record Hint(long createdAt, int method, String uri, byte[] body) {
+    private static final int HEADER_SIZE = Long.BYTES + 3 * Integer.BYTES;
+
+    int size() {
+        return HEADER_SIZE + uri.getBytes(StandardCharsets.UTF_8).length + body.length;
+    }
+
+    ByteBuffer toBuffer() {
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + uriBytes.length + body.length);
+        buffer.putLong(createdAt).putInt(method);
+        buffer.putInt(uriBytes.length).put(uriBytes);
+        buffer.putInt(body.length).put(body);
+        return buffer.flip();
+    }
+
+    static Hint read(DataInput in) throws IOException {
+        long createdAt = in.readLong();
+        int method = in.readInt();
+        byte[] uri = new byte[in.readInt()];
+        in.readFully(uri);
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new Hint(createdAt, method, new String(uri, StandardCharsets.UTF_8), body);
+    }
+}
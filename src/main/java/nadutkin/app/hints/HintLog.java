@@ -0,0 +1,105 @@
+package nadutkin.app.hints;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Hints of one replica in segment files (sequence).hints, hints are appended to the last one.
+ * Segments are delivered and deleted whole, the active segment is sealed before delivery,
+ * so new hints don't wait for it.
+ * Segments are synced to disk when they are sealed, so hints of the active one are best-effort:
+ * they may be lost with the machine, then replicas are repaired by anti-entropy.
+ */
+final class HintLog {
+    private static final String SUFFIX = ".hints";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final List<Path> sealed = new ArrayList<>();
+    private FileChannel active;
+    private Path activePath;
+    private long activeBytes;
+    private long nextSequence;
+    private long bytes;
+
+    HintLog(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted().toList()) {
+                sealed.add(file);
+                bytes += Files.size(file);
+                nextSequence = Math.max(nextSequence, sequence(file) + 1);
+            }
+        }
+    }
+
+    private static long sequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    synchronized void append(Hint hint) throws IOException {
+        if (active == null || activeBytes >= segmentBytes) {
+            seal();
+            activePath = directory.resolve(String.format("%019d%s", nextSequence++, SUFFIX));
+            active = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+        ByteBuffer buffer = hint.toBuffer();
+        int size = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+        activeBytes += size;
+        bytes += size;
+    }
+
+    /**
+     * Returns segments, which are not being written, oldest first.
+     */
+    synchronized List<Path> sealed() {
+        return List.copyOf(sealed);
+    }
+
+    /**
+     * Syncs and closes the active segment and returns all segments, which are not being written, oldest first.
+     */
+    synchronized List<Path> seal() throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+            sealed.add(activePath);
+            active = null;
+            activePath = null;
+            activeBytes = 0;
+        }
+        return List.copyOf(sealed);
+    }
+
+    synchronized long delete(Path segment) throws IOException {
+        long size = Files.size(segment);
+        Files.delete(segment);
+        sealed.remove(segment);
+        bytes -= size;
+        return size;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    synchronized void close() throws IOException {
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+    }
+}
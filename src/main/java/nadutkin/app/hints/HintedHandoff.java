@@ -0,0 +1,267 @@
+package nadutkin.app.hints;
+
+import nadutkin.utils.Constants;
+import one.nio.http.Request;
+import one.nio.http.Response;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Keeps writes, which failed to reach a replica, in its local hint log and delivers them later.
+ * Delivery starts, when the replica answers any request again, and is retried periodically
+ * for replicas, which are not known to be down.
+ * Hints are sent in batches, a segment is deleted when all its hints are delivered or expired.
+ * Replicas keep the value with the greatest timestamp, so hints delivered twice or late change nothing.
+ */
+public class HintedHandoff implements AutoCloseable {
+    private final Path directory;
+    private final long maxBytes;
+    private final long windowMillis;
+    private final long replayIntervalMillis;
+    private final Predicate<String> available;
+    private final Sender sender;
+    private final Map<String, HintLog> logs = new ConcurrentHashMap<>();
+    // replicas, which are queued for delivery
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<String> deliveries = new LinkedBlockingQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread replayer;
+
+    public interface Sender {
+        CompletableFuture<Response> send(String url, Request request);
+    }
+
+    /**
+     * Opens hint logs of the directory and starts their delivery.
+     * @param available whether periodic delivery should try the replica
+     */
+    public HintedHandoff(Path directory, long maxBytes, long windowMillis, Predicate<String> available,
+                         Sender sender) throws IOException {
+        this(directory, maxBytes, windowMillis, Constants.HINT_REPLAY_INTERVAL_MILLIS, available, sender);
+    }
+
+    HintedHandoff(Path directory, long maxBytes, long windowMillis, long replayIntervalMillis,
+                  Predicate<String> available, Sender sender) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.windowMillis = windowMillis;
+        this.replayIntervalMillis = replayIntervalMillis;
+        this.available = available;
+        this.sender = sender;
+        Files.createDirectories(directory);
+        try (Stream<Path> nodes = Files.list(directory)) {
+            for (Path node : nodes.filter(Files::isDirectory).toList()) {
+                String url = URLDecoder.decode(node.getFileName().toString(), StandardCharsets.UTF_8);
+                HintLog log = new HintLog(node, Constants.HINT_SEGMENT_BYTES);
+                logs.put(url, log);
+                bytes.addAndGet(log.bytes());
+            }
+        }
+        this.replayer = new Thread(this::run, "HintReplay");
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+    private HintLog log(String url) {
+        return logs.computeIfAbsent(url, ignored -> {
+            try {
+                return new HintLog(directory.resolve(URLEncoder.encode(url, StandardCharsets.UTF_8)),
+                        Constants.HINT_SEGMENT_BYTES);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create hint log for " + url, e);
+            }
+        });
+    }
+
+    /**
+     * Stores the write for the replica, the write is dropped if hints take more than maxBytes.
+     * @param uri replica uri of the write
+     */
+    public void hint(String url, int method, String uri, byte[] body) {
+        Hint hint = new Hint(System.currentTimeMillis(), method, uri, body);
+        long size = hint.size();
+        if (bytes.addAndGet(size) > maxBytes) {
+            bytes.addAndGet(-size);
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            log(url).append(hint);
+            stored.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+            bytes.addAndGet(-size);
+            dropped.incrementAndGet();
+            Constants.LOG.error("Unable to store hint for {}", url, e);
+        }
+    }
+
+    // called on every answer of the replica, so it has to be cheap without hints
+    public void nodeIsUp(String url) {
+        HintLog log = logs.get(url);
+        if (log != null && log.bytes() > 0 && scheduled.add(url)) {
+            deliveries.add(url);
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                String url = deliveries.poll(replayIntervalMillis, TimeUnit.MILLISECONDS);
+                if (url == null) {
+                    // nothing was heard from replicas for a while, so all of them, which may be up, are tried
+                    for (String node : logs.keySet()) {
+                        if (available.test(node)) {
+                            replay(node);
+                        }
+                    }
+                } else {
+                    scheduled.remove(url);
+                    replay(url);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void replay(String url) throws InterruptedException {
+        HintLog log = logs.get(url);
+        if (log.bytes() == 0) {
+            return;
+        }
+        try {
+            // the active segment is sealed only when older ones are delivered, so new hints of a failing replica
+            // are not split into many small segments
+            if (replay(url, log, log.sealed())) {
+                replay(url, log, log.seal());
+            }
+        } catch (IOException e) {
+            Constants.LOG.error("Unable to replay hints for {}", url, e);
+        }
+    }
+
+    // false, if some segment is left for the next attempt
+    private boolean replay(String url, HintLog log, List<Path> segments) throws IOException, InterruptedException {
+        for (Path segment : segments) {
+            long expiresBefore = System.currentTimeMillis() - windowMillis;
+            if (Files.getLastModifiedTime(segment).toMillis() >= expiresBefore && !deliver(url, segment)) {
+                return false;
+            }
+            bytes.addAndGet(-log.delete(segment));
+        }
+        return true;
+    }
+
+    // false, if the replica didn't accept some hint, then hints of the segment are counted on the next attempt
+    private boolean deliver(String url, Path segment) throws IOException, InterruptedException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            List<CompletableFuture<Response>> batch = new ArrayList<>(Constants.HINT_BATCH);
+            long accepted = 0;
+            long outdated = 0;
+            while (true) {
+                Hint hint;
+                try {
+                    hint = Hint.read(in);
+                } catch (EOFException e) {
+                    // the last hint could be written partially before a crash
+                    break;
+                }
+                if (hint.createdAt() < System.currentTimeMillis() - windowMillis) {
+                    outdated++;
+                    continue;
+                }
+                Request request = new Request(hint.method(), hint.uri(), true);
+                request.setBody(hint.body());
+                batch.add(sender.send(url, request));
+                if (batch.size() == Constants.HINT_BATCH) {
+                    int sent = await(batch);
+                    if (sent < 0) {
+                        return false;
+                    }
+                    accepted += sent;
+                }
+            }
+            int sent = await(batch);
+            if (sent < 0) {
+                return false;
+            }
+            delivered.addAndGet(accepted + sent);
+            expired.addAndGet(outdated);
+            return true;
+        }
+    }
+
+    // the number of accepted hints, -1 if the replica didn't accept some of them
+    private int await(List<CompletableFuture<Response>> batch) throws InterruptedException {
+        boolean success = true;
+        for (CompletableFuture<Response> future : batch) {
+            try {
+                Response response = future.get(Constants.HINT_DELIVERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (response == null || response.getStatus() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    success = false;
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                success = false;
+            }
+        }
+        int size = batch.size();
+        batch.clear();
+        return success ? size : -1;
+    }
+
+    public long backlogBytes() {
+        return bytes.get();
+    }
+
+    public long stored() {
+        return stored.get();
+    }
+
+    public long delivered() {
+        return delivered.get();
+    }
+
+    public long expired() {
+        return expired.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        replayer.interrupt();
+        replayer.join();
+        for (HintLog log : logs.values()) {
+            log.close();
+        }
+    }
+}
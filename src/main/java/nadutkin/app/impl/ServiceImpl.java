@@ -2,12 +2,17 @@ package nadutkin.app.impl;
 
 import nadutkin.ServiceFactory;
 import nadutkin.app.Service;
+import nadutkin.app.hints.HintedHandoff;
+import nadutkin.app.replicas.AntiEntropy;
+import nadutkin.app.replicas.ReadRepairer;
 import nadutkin.app.replicas.ReplicaService;
 import nadutkin.app.replicas.ResponseProcessor;
 import nadutkin.app.replicas.StoredValue;
 import nadutkin.app.shards.CircuitBreaker;
 import nadutkin.app.shards.JumpHashSharder;
+import nadutkin.app.shards.LatencyTracker;
 import nadutkin.app.shards.Sharder;
+import nadutkin.database.impl.Keyspaces;
 import nadutkin.utils.Constants;
 import nadutkin.utils.ServiceConfig;
 import nadutkin.utils.UtilsClass;
@@ -24,16 +29,46 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ServiceImpl extends ReplicaService {
     private Sharder sharder;
     private HttpClient client;
     private CircuitBreaker breaker;
+    private ReadRepairer repairer;
+    private HintedHandoff handoff;
+    private AntiEntropy antiEntropy;
+    private LatencyTracker latencies;
+    // GET asks one replica for the value and the others only for digests of their versions
+    private final boolean digestReads;
+    private final boolean hedgedReads;
+    private final AtomicLong digestGets = new AtomicLong();
+    private final AtomicLong digestMismatches = new AtomicLong();
+    private final AtomicLong replicaResponseBytes = new AtomicLong();
+    private final AtomicLong replicaRequests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong cancelledRequests = new AtomicLong();
 
     public ServiceImpl(ServiceConfig config) {
+        this(config, Constants.DIGEST_READS);
+    }
+
+    public ServiceImpl(ServiceConfig config, boolean digestReads) {
+        this(config, digestReads, Constants.HEDGED_READS);
+    }
+
+    public ServiceImpl(ServiceConfig config, boolean digestReads, boolean hedgedReads) {
         super(config);
+        this.digestReads = digestReads;
+        this.hedgedReads = hedgedReads;
     }
 
     private byte[] getBytes(String message) {
@@ -45,14 +80,26 @@ public class ServiceImpl extends ReplicaService {
         this.sharder = new JumpHashSharder(config.clusterUrls());
         this.breaker = new CircuitBreaker(config.clusterUrls());
         this.client = HttpClient.newHttpClient();
-        return super.start();
+        this.latencies = new LatencyTracker(config.clusterUrls(), Constants.LATENCY_WINDOW);
+        this.repairer = new ReadRepairer(Constants.READ_REPAIR_QUEUE, Constants.READ_REPAIR_CHANCE,
+                Constants.READ_REPAIR_PER_SECOND, this::replicaRequest);
+        this.handoff = new HintedHandoff(config.workingDir().resolve(Constants.HINTS_DIR), Constants.HINTS_MAX_BYTES,
+                Constants.HINT_WINDOW_MILLIS, breaker::isWorking, (url, request) -> proxyRequest(url, request, false));
+        CompletableFuture<?> started = super.start();
+        this.antiEntropy = new AntiEntropy(dao, sharder, config.clusterUrls(), config.selfUrl(), this::replicaRequest);
+        return started;
     }
 
     @Override
     public CompletableFuture<?> stop() throws IOException {
-        server.stop();
-        dao.close();
-        return CompletableFuture.completedFuture(null);
+        try {
+            repairer.close();
+            handoff.close();
+            antiEntropy.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return super.stop();
     }
 
     private void fail(String url) {
@@ -60,16 +107,127 @@ public class ServiceImpl extends ReplicaService {
         Constants.LOG.error("Failed to request to shard {}", url);
     }
 
-    private void processResponse(Response response,
+    @Override
+    protected Map<String, Object> stats() {
+        Map<String, Object> stats = super.stats();
+        stats.put("digest.gets", digestGets.get());
+        stats.put("digest.mismatches", digestMismatches.get());
+        stats.put("replicas.responseBytes", replicaResponseBytes.get());
+        stats.put("replicas.requests", replicaRequests.get());
+        stats.put("hedge.requests", hedgedRequests.get());
+        stats.put("hedge.cancelled", cancelledRequests.get());
+        for (String url : config.clusterUrls()) {
+            stats.put("latency.averageMicros." + url, TimeUnit.NANOSECONDS.toMicros(latencies.average(url)));
+        }
+        stats.put("readRepair.issued", repairer.issued());
+        stats.put("readRepair.dropped", repairer.dropped());
+        stats.put("readRepair.failed", repairer.failed());
+        stats.put("readRepair.queued", repairer.queued());
+        stats.put("hints.backlogBytes", handoff.backlogBytes());
+        stats.put("hints.stored", handoff.stored());
+        stats.put("hints.delivered", handoff.delivered());
+        stats.put("hints.expired", handoff.expired());
+        stats.put("hints.dropped", handoff.dropped());
+        stats.put("antiEntropy.runs", antiEntropy.runs());
+        stats.put("antiEntropy.differingLeaves", antiEntropy.differingLeaves());
+        stats.put("antiEntropy.pulledEntries", antiEntropy.pulledEntries());
+        return stats;
+    }
+
+    private void sendResponse(HttpSession session, Response response) {
+        try {
+            session.sendResponse(response);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void processResponse(boolean ready,
+                                 String id,
+                                 Request request,
                                  HttpSession session,
                                  ResponseProcessor processor) {
-        if (processor.process(response)) {
+        if (!ready) {
+            return;
+        }
+        String url = processor.fullReadUrl();
+        if (url == null) {
+            sendResponse(session, processor.response());
+            readRepair(id, request, processor);
+            return;
+        }
+        // a digest is newer than the full answer, so the value is read once more from that replica
+        digestMismatches.incrementAndGet();
+        replicaRequest(url, id, request).whenComplete((response, throwable) -> {
+            processor.resolve(response);
+            sendResponse(session, processor.response());
+            readRepair(id, request, processor);
+        });
+    }
+
+    private void readRepair(String id, Request request, ResponseProcessor processor) {
+        List<String> lagging = processor.laggingReplicas();
+        if (!lagging.isEmpty()) {
+            String uri = request.getURI().replace(Constants.REQUEST_PATH, Constants.REPLICA_PATH);
+            repairer.repair(id, uri, processor.storedAnswer(), lagging);
+        }
+    }
+
+    private CompletableFuture<Response> replicaRequest(String url, String id, Request request) {
+        return url.equals(config.selfUrl()) ? handleV1Async(id, request) : proxyRequest(url, request, false);
+    }
+
+    // answers of anti-entropy are sent, when they are ready, the worker thread isn't blocked
+    private void sendWhenComplete(HttpSession session, CompletableFuture<Response> answer, String name) {
+        answer.whenComplete((response, throwable) -> {
             try {
-                session.sendResponse(processor.response());
+                if (throwable == null) {
+                    session.sendResponse(response);
+                } else {
+                    Constants.LOG.error("Failed to handle {}", name, throwable);
+                    session.sendResponse(new Response(Response.INTERNAL_ERROR, Response.EMPTY));
+                }
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                Constants.LOG.error("Unable to send response. Exception: {}", e.getMessage());
             }
+        });
+    }
+
+    @Path(Constants.ANTI_ENTROPY_TREE_PATH)
+    public void handleTreeLevel(@Param(value = "range") Integer range,
+                                @Param(value = "level") Integer level,
+                                Request request,
+                                HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_GET) {
+            session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet")));
+            return;
         }
+        sendWhenComplete(session, antiEntropy.treeLevel(range, level), "Merkle tree level");
+    }
+
+    @Path(Constants.ANTI_ENTROPY_ENTRIES_PATH)
+    public void handleRepairEntries(@Param(value = "pull") Long pull,
+                                    Request request,
+                                    HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_POST) {
+            session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet")));
+            return;
+        }
+        sendWhenComplete(session, antiEntropy.entries(pull, request.getBody()), "anti-entropy entries");
+    }
+
+    /**
+     * Runs anti-entropy repair with all nodes now and answers, when it is done.
+     */
+    @Path(Constants.REPAIR_PATH)
+    public void handleRepair(Request request, HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_POST) {
+            session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet")));
+            return;
+        }
+        sendWhenComplete(session, antiEntropy.repair().thenApply(ignored -> new Response(Response.OK,
+                getBytes("differingLeaves=%d%npulledEntries=%d%n".formatted(
+                        antiEntropy.differingLeaves(), antiEntropy.pulledEntries())))), "anti-entropy repair");
     }
 
     @Path(Constants.REQUEST_PATH)
@@ -77,11 +235,21 @@ public class ServiceImpl extends ReplicaService {
                               Request request,
                               @Param(value = "ack") Integer ack,
                               @Param(value = "from") Integer from,
+                              @Param(value = "ks") String keyspace,
                               HttpSession session) throws IOException {
         if (id == null || id.isEmpty()) {
             session.sendResponse(new Response(Response.BAD_REQUEST, getBytes("Id can not be null or empty!")));
             return;
         }
+        if (keyspace != null && !Keyspaces.isValidName(keyspace)) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, getBytes("Invalid keyspace name")));
+            return;
+        }
+        // keyspaces are created on every node, so the replicas don't know the keyspace either
+        if (keyspace != null && asyncDao(keyspaceOf(request)) == null) {
+            session.sendResponse(unknownKeyspace(keyspace));
+            return;
+        }
 
         int neighbours = from == null ? this.config.clusterUrls().size() : from;
         int quorum = ack == null ? neighbours / 2 + 1 : ack;
@@ -96,48 +264,178 @@ public class ServiceImpl extends ReplicaService {
         ResponseProcessor processor = new ResponseProcessor(request.getMethod(), quorum, neighbours);
         long timestamp = System.currentTimeMillis();
 
-        try {
-            byte[] body = request.getMethod() == Request.METHOD_PUT ? request.getBody() : null;
-            request.setBody(UtilsClass.valueToSegment(new StoredValue(body, timestamp)));
-        } catch (IOException e) {
-            session.sendResponse(new Response(Response.BAD_REQUEST,
-                    getBytes("Can't ask other replicas, %s$".formatted(e.getMessage()))));
+        byte[] body = request.getMethod() == Request.METHOD_PUT ? request.getBody() : null;
+        request.setBody(UtilsClass.valueToSegment(new StoredValue(body, timestamp)));
+
+        if (request.getMethod() == Request.METHOD_GET) {
+            new ReplicaRead(id, request, session, processor, urls, quorum).start();
             return;
         }
 
         boolean visitDB = false;
-
         for (final String url : urls) {
             if (url.equals(config.selfUrl())) {
                 visitDB = true;
             } else {
-                proxyRequest(url, request)
-                        .whenCompleteAsync((response, throwable) -> processResponse(response, session, processor));
+                proxyRequest(url, request, false).whenCompleteAsync((response, throwable) -> {
+                    if (response == null) {
+                        // the replica gets the write, when it is reachable again
+                        handoff.hint(url, request.getMethod(),
+                                request.getURI().replace(Constants.REQUEST_PATH, Constants.REPLICA_PATH),
+                                request.getBody());
+                    }
+                    processResponse(processor.process(response, url), id, request, session, processor);
+                });
             }
         }
 
         if (visitDB) {
-            processResponse(handleV1(id, request), session, processor);
+            String url = config.selfUrl();
+            handleV1Async(id, request).whenComplete((response, throwable) ->
+                    processResponse(processor.process(response, url), id, request, session, processor));
         }
     }
 
-    private CompletableFuture<Response> proxyRequest(String url, Request request) {
+    private CompletableFuture<Response> proxyRequest(String url, Request request, boolean digest) {
+        String uri = request.getURI().replace(Constants.REQUEST_PATH, Constants.REPLICA_PATH);
         HttpRequest proxyRequest = HttpRequest
-                .newBuilder(URI.create(url + request.getURI().replace(Constants.REQUEST_PATH, Constants.REPLICA_PATH)))
+                .newBuilder(URI.create(url + (digest ? uri + "&digest=true" : uri)))
                 .method(
                         request.getMethodName(),
                         HttpRequest.BodyPublishers.ofByteArray(request.getBody()))
                 .build();
-        return client.sendAsync(proxyRequest, HttpResponse.BodyHandlers.ofByteArray())
+        replicaRequests.incrementAndGet();
+        CompletableFuture<HttpResponse<byte[]>> sent = client.sendAsync(proxyRequest,
+                HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<Response> result = sent
                 .handleAsync((response, exception) -> {
+                    if (sent.isCancelled()) {
+                        // the answer isn't needed anymore, it is not a failure of the replica
+                        return null;
+                    }
                     if (exception != null || response.statusCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
                         fail(url);
                         Constants.LOG.error("Server caught an exception at url {}", url);
                         return null;
                     }
                     breaker.success(url);
+                    handoff.nodeIsUp(url);
+                    replicaResponseBytes.addAndGet(response.body().length);
                     return new Response(Integer.toString(response.statusCode()), response.body());
                 });
+        // cancellation of the answer aborts the exchange
+        result.whenComplete((response, exception) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * GET of one key from replicas. Without hedging all replicas are asked at once.
+     * With hedging ack replicas with the best recent latency are asked first, the next one is asked
+     * when the answers are later than the percentile of their latency or when a replica fails.
+     * Requests in flight are cancelled, when the quorum is reached.
+     */
+    private final class ReplicaRead {
+        private final String id;
+        private final Request request;
+        private final HttpSession session;
+        private final ResponseProcessor processor;
+        private final List<String> order;
+        private final int initial;
+        private final boolean digests;
+        // the local replica answers the full value without the network, the others answer digests
+        private final String fullUrl;
+        private final AtomicInteger next = new AtomicInteger();
+        private final Queue<CompletableFuture<Response>> inFlight = new ConcurrentLinkedQueue<>();
+
+        ReplicaRead(String id, Request request, HttpSession session, ResponseProcessor processor,
+                    List<String> urls, int quorum) {
+            this.id = id;
+            this.request = request;
+            this.session = session;
+            this.processor = processor;
+            boolean hedged = hedgedReads && urls.size() > quorum;
+            this.order = hedged ? fastestFirst(urls) : urls;
+            this.initial = hedged ? quorum : urls.size();
+            this.digests = digestReads && urls.size() > 1;
+            this.fullUrl = order.subList(0, initial).contains(config.selfUrl()) ? config.selfUrl() : order.get(0);
+        }
+
+        void start() {
+            if (digests) {
+                digestGets.incrementAndGet();
+            }
+            for (int i = 0; i < initial; i++) {
+                send();
+            }
+            if (initial < order.size()) {
+                scheduleHedge();
+            }
+        }
+
+        private void send() {
+            int index = next.getAndIncrement();
+            if (index >= order.size()) {
+                return;
+            }
+            String url = order.get(index);
+            boolean local = url.equals(config.selfUrl());
+            // the local replica always answers the full value, it could be asked instead of a failed one
+            boolean digest = digests && !local && !url.equals(fullUrl);
+            long start = System.nanoTime();
+            CompletableFuture<Response> future = local
+                    ? handleV1Async(id, request)
+                    : proxyRequest(url, request, digest);
+            inFlight.add(future);
+            future.whenCompleteAsync((response, throwable) -> {
+                // a failure can be fast, so it isn't a latency, a cancelled wait is only its lower bound
+                if (future.isCancelled()) {
+                    latencies.recordAtLeast(url, System.nanoTime() - start);
+                } else if (response != null) {
+                    latencies.record(url, System.nanoTime() - start);
+                }
+                boolean ready = digest ? processor.processDigest(response, url) : processor.process(response, url);
+                if (ready) {
+                    cancelInFlight();
+                } else if (response == null && !processor.isDone()) {
+                    // the failed replica is replaced without waiting for the delay
+                    send();
+                }
+                processResponse(ready, id, request, session, processor);
+            });
+        }
+
+        // replicas, which fail now, are asked the last
+        private List<String> fastestFirst(List<String> urls) {
+            List<String> result = latencies.fastestFirst(urls);
+            result.sort(Comparator.comparing(url -> !breaker.isWorking(url)));
+            return result;
+        }
+
+        private void scheduleHedge() {
+            long delay = TimeUnit.MICROSECONDS.toNanos(Constants.HEDGE_MIN_DELAY_MICROS);
+            for (String url : order.subList(0, Math.min(next.get(), order.size()))) {
+                delay = Math.max(delay, latencies.percentile(url, Constants.HEDGE_PERCENTILE));
+            }
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                if (!processor.isDone() && next.get() < order.size()) {
+                    hedgedRequests.incrementAndGet();
+                    send();
+                    scheduleHedge();
+                }
+            });
+        }
+
+        private void cancelInFlight() {
+            for (CompletableFuture<Response> future : inFlight) {
+                if (future.cancel(true)) {
+                    cancelledRequests.incrementAndGet();
+                }
+            }
+        }
     }
 
     @ServiceFactory(stage = 6, week = 6, bonuses = {"SingleNodeTest#respectFileFolder"})
@@ -0,0 +1,103 @@
+package nadutkin.app.range;
+
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.database.impl.Cursor;
+import nadutkin.utils.Constants;
+import nadutkin.utils.UtilsClass;
+import one.nio.http.HttpSession;
+import one.nio.http.Response;
+import one.nio.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes entries of the range to the session as chunks, asks for the next batch only after the previous one is sent.
+ * Entries come as the moved cursor, so only key and value bytes are copied.
+ * The status is sent with the first chunk, so a range, which fails before it, is answered with an error.
+ * A range, which fails later, is cut off without the last chunk, so the client doesn't take it as complete.
+ */
+public class RangeSubscriber implements Flow.Subscriber<Cursor> {
+    private static final int BATCH = 64;
+
+    private final HttpSession session;
+    private Flow.Subscription subscription;
+    private ChunkResponse response = new ChunkResponse(Response.OK);
+    private int received;
+    private boolean started;
+
+    public RangeSubscriber(HttpSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(BATCH);
+    }
+
+    @Override
+    public void onNext(Cursor cursor) {
+        try {
+            StoredValue value = UtilsClass.segmentToValue(
+                    cursor.valueSegment(), cursor.valueOffset(), cursor.valueSize());
+            byte[] data = new ByteArrayBuilder()
+                    .append(cursor.keySegment().asSlice(cursor.keyOffset(), cursor.keySize()).toByteArray())
+                    .append("\n")
+                    .append(value.value())
+                    .toBytes();
+
+            if (!response.append(data)) {
+                // the empty chunk would end the range, if the first entry doesn't fit into a chunk
+                if (response.length() > 0) {
+                    send(response);
+                }
+                response = new ChunkResponse(Response.OK, data);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+        if (++received == BATCH) {
+            received = 0;
+            subscription.request(BATCH);
+        }
+    }
+
+    private void send(ChunkResponse chunk) throws IOException {
+        if (!started) {
+            Response start = new Response(Response.OK, Response.EMPTY);
+            start.getHeaders()[1] = "Transfer-Encoding: chunked";
+            session.sendResponse(start);
+            started = true;
+        }
+        session.sendResponse(chunk);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Constants.LOG.error("Failed to read range. Exception: {}", throwable.getMessage());
+        if (started) {
+            session.close();
+            return;
+        }
+        try {
+            session.sendResponse(new Response(Response.INTERNAL_ERROR, Response.EMPTY));
+        } catch (IOException e) {
+            Constants.LOG.error("Unable to send error of range. Exception: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            if (response.length() > 0) {
+                send(response);
+            }
+            send(new ChunkResponse(Response.OK, Response.EMPTY));
+        } catch (IOException e) {
+            Constants.LOG.error("Unable to finish range. Exception: {}", e.getMessage());
+        }
+    }
+}
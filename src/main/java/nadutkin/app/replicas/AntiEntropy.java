@@ -0,0 +1,418 @@
+package nadutkin.app.replicas;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.app.shards.Sharder;
+import nadutkin.database.impl.Cursor;
+import nadutkin.database.impl.MemorySegmentDao;
+import nadutkin.database.impl.TooManyFlushesInBgException;
+import nadutkin.utils.Constants;
+import one.nio.http.Request;
+import one.nio.http.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Brings replicas of the default keyspace in sync in the background.
+ * Each run builds Merkle trees of the local data, compares them with the trees of every other node
+ * level by level and pulls entries of the differing leaves, only the newer ones are kept by the dao.
+ * Trees are built by a full throttled scan, but only the differing leaves are sent over the network and written.
+ * With the default from every node keeps every token range, so all ranges are compared.
+ * Entries of all differing leaves are pulled by one scan of the peer, it keeps the cursor between chunks.
+ * Other nodes are answered on their own thread, so nodes repairing with each other don't wait for each other.
+ */
+public class AntiEntropy implements AutoCloseable {
+    private final MemorySegmentDao dao;
+    private final Sharder sharder;
+    private final int ranges;
+    private final String selfUrl;
+    private final List<String> clusterUrls;
+    private final Sender sender;
+    private final ScheduledExecutorService executor;
+    private final ExecutorService answers;
+    // pulls of other nodes by their ids, they are accessed only by the answers thread
+    private final Map<Long, Pull> pulls = new HashMap<>();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong differingLeaves = new AtomicLong();
+    private final AtomicLong pulledEntries = new AtomicLong();
+    // trees answered to other nodes, they are reused for a while, so a peer reads all levels of the same trees
+    private MerkleTrees trees;
+
+    public interface Sender {
+        CompletableFuture<Response> send(String url, String id, Request request);
+    }
+
+    public AntiEntropy(MemorySegmentDao dao, Sharder sharder, List<String> clusterUrls, String selfUrl,
+                       Sender sender) {
+        this.dao = dao;
+        this.sharder = sharder;
+        this.ranges = clusterUrls.size();
+        this.clusterUrls = clusterUrls;
+        this.selfUrl = selfUrl;
+        this.sender = sender;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "AntiEntropy");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.answers = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "AntiEntropyAnswers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::repairQuietly, Constants.ANTI_ENTROPY_INTERVAL_MILLIS,
+                Constants.ANTI_ENTROPY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs repair with all nodes on the repair thread.
+     * @return future of the run
+     */
+    public CompletableFuture<Void> repair() {
+        return CompletableFuture.runAsync(this::repairQuietly, executor);
+    }
+
+    private void repairQuietly() {
+        for (String peer : clusterUrls) {
+            if (peer.equals(selfUrl)) {
+                continue;
+            }
+            try {
+                repairWith(peer);
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                Constants.LOG.error("Anti-entropy repair with {} failed", peer, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        runs.incrementAndGet();
+    }
+
+    private void repairWith(String peer)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        MerkleTrees local = trees();
+        // differing leaves of every range, null for equal ranges
+        List<List<Integer>> leaves = new ArrayList<>(Collections.nCopies(ranges, null));
+        for (int range = 0; range < ranges; range++) {
+            // differing nodes of the level, the root is compared first
+            List<Integer> differing = List.of(0);
+            for (int level = 0; level <= local.depth() && !differing.isEmpty(); level++) {
+                long[] own = local.level(range, level);
+                Request request = new Request(Request.METHOD_GET,
+                        Constants.ANTI_ENTROPY_TREE_PATH + "?range=" + range + "&level=" + level, true);
+                request.setBody(Response.EMPTY);
+                long[] remote = MerkleTrees.fromBytes(call(peer, request));
+                if (remote.length != own.length) {
+                    throw new IOException("Trees of " + peer + " have different depth");
+                }
+                List<Integer> next = new ArrayList<>();
+                for (int node : differing) {
+                    if (own[node] != remote[node]) {
+                        next.add(node);
+                    }
+                }
+                if (level == local.depth()) {
+                    differing = next;
+                    break;
+                }
+                differing = new ArrayList<>();
+                for (int node : next) {
+                    differing.add(2 * node);
+                    differing.add(2 * node + 1);
+                }
+            }
+            if (!differing.isEmpty()) {
+                differingLeaves.addAndGet(differing.size());
+                leaves.set(range, differing);
+            }
+        }
+        if (leaves.stream().anyMatch(Objects::nonNull)) {
+            pull(peer, leaves);
+        }
+    }
+
+    // request body (afterSize int)(after)(rangesCount int)((range int)(leavesCount int)(leaves int...))...,
+    // after is the last key already received, the peer continues the scan of the same pull
+    private void pull(String peer, List<List<Integer>> leaves)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        long id = ThreadLocalRandom.current().nextLong();
+        int rangesCount = 0;
+        int leavesSize = 0;
+        for (List<Integer> rangeLeaves : leaves) {
+            if (rangeLeaves != null) {
+                rangesCount++;
+                leavesSize += 2 * Integer.BYTES + Integer.BYTES * rangeLeaves.size();
+            }
+        }
+        byte[] after = new byte[0];
+        boolean more = true;
+        long start = System.nanoTime();
+        long pulled = 0;
+        while (more) {
+            ByteBuffer body = ByteBuffer.allocate(2 * Integer.BYTES + after.length + leavesSize);
+            body.putInt(after.length).put(after).putInt(rangesCount);
+            for (int range = 0; range < leaves.size(); range++) {
+                if (leaves.get(range) != null) {
+                    body.putInt(range).putInt(leaves.get(range).size());
+                    leaves.get(range).forEach(body::putInt);
+                }
+            }
+            Request request = new Request(Request.METHOD_POST,
+                    Constants.ANTI_ENTROPY_ENTRIES_PATH + "?pull=" + id, true);
+            request.setBody(body.array());
+            ByteBuffer entries = ByteBuffer.wrap(call(peer, request));
+            more = entries.get() != 0;
+            List<String> keys = new ArrayList<>();
+            List<Request> writes = new ArrayList<>();
+            List<CompletableFuture<Response>> answers = new ArrayList<>();
+            while (entries.hasRemaining()) {
+                byte[] key = new byte[entries.getInt()];
+                entries.get(key);
+                byte[] value = new byte[entries.getInt()];
+                entries.get(value);
+                Request write = new Request(Request.METHOD_PUT, Constants.REPLICA_PATH, true);
+                write.setBody(value);
+                keys.add(new String(key, StandardCharsets.UTF_8));
+                writes.add(write);
+                answers.add(sender.send(selfUrl, keys.get(keys.size() - 1), write));
+                after = key;
+                pace(++pulled, start);
+            }
+            for (int i = 0; i < writes.size(); i++) {
+                await(keys.get(i), writes.get(i), answers.get(i));
+            }
+            pulledEntries.addAndGet(writes.size());
+        }
+        synchronized (this) {
+            // the local data is changed
+            trees = null;
+        }
+    }
+
+    // pulled entries come faster than memtables are flushed, refused writes are repeated after the flush
+    private void await(String key, Request write, CompletableFuture<Response> answer)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.ANTI_ENTROPY_TIMEOUT_MILLIS);
+        CompletableFuture<Response> attempt = answer;
+        while (true) {
+            try {
+                attempt.get(Constants.ANTI_ENTROPY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                if (!(cause instanceof TooManyFlushesInBgException) || System.nanoTime() > deadline) {
+                    throw e;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(Constants.ANTI_ENTROPY_RETRY_MILLIS);
+            attempt = sender.send(selfUrl, key, write);
+        }
+    }
+
+    private byte[] call(String peer, Request request)
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        Response response = sender.send(peer, null, request)
+                .get(Constants.ANTI_ENTROPY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (response == null || response.getStatus() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected answer of " + peer + " to " + request.getURI());
+        }
+        return response.getBody();
+    }
+
+    private synchronized MerkleTrees trees() throws InterruptedException {
+        if (trees == null || trees.createdAt() < System.currentTimeMillis() - Constants.ANTI_ENTROPY_TREE_TTL_MILLIS) {
+            trees = build();
+        }
+        return trees;
+    }
+
+    private MerkleTrees build() throws InterruptedException {
+        MerkleTrees result = new MerkleTrees(ranges, Constants.ANTI_ENTROPY_TREE_DEPTH);
+        Cursor cursor = dao.cursor(null, null);
+        long start = System.nanoTime();
+        long count = 0;
+        while (cursor.next()) {
+            long keyHash = ValueDigest.hash(cursor.keySegment(), cursor.keyOffset(), cursor.keySize());
+            long valueHash = ValueDigest.hash(cursor.valueSegment(), cursor.valueOffset(), cursor.valueSize());
+            result.add(range(cursor), keyHash, valueHash);
+            pace(++count, start);
+        }
+        result.seal();
+        return result;
+    }
+
+    private int range(Cursor cursor) {
+        byte[] key = cursor.keySegment().asSlice(cursor.keyOffset(), cursor.keySize()).toByteArray();
+        return sharder.getShard(new String(key, StandardCharsets.UTF_8));
+    }
+
+    // keeps scans and writes under ANTI_ENTROPY_ENTRIES_PER_SECOND
+    private static void pace(long count, long startNanos) throws InterruptedException {
+        if (count % 1024 != 0) {
+            return;
+        }
+        long ahead = startNanos + count * TimeUnit.SECONDS.toNanos(1) / Constants.ANTI_ENTROPY_ENTRIES_PER_SECOND
+                - System.nanoTime();
+        if (ahead > 0) {
+            TimeUnit.NANOSECONDS.sleep(ahead);
+        }
+    }
+
+    /**
+     * Answers the level of the local tree of the range to another node on the answers thread.
+     * @return future of hashes of the level, big-endian longs
+     */
+    public CompletableFuture<Response> treeLevel(Integer range, Integer level) {
+        return CompletableFuture.supplyAsync(() -> answerTreeLevel(range, level), answers);
+    }
+
+    private Response answerTreeLevel(Integer range, Integer level) {
+        if (range == null || level == null || range < 0 || range >= ranges
+                || level < 0 || level > Constants.ANTI_ENTROPY_TREE_DEPTH) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        }
+        try {
+            return new Response(Response.OK, MerkleTrees.toBytes(trees().level(range, level)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        }
+    }
+
+    /**
+     * Answers entries of the leaves after the given key to another node on the answers thread.
+     * Answer is (more byte)(keySize int)(key)(valueSize int)(value)..., it is cut at ANTI_ENTROPY_CHUNK_BYTES.
+     * The scan stops at the cut and continues with the next request of the same pull.
+     * @param id id of the pull, it is the same for all chunks
+     * @return future of the answer
+     */
+    public CompletableFuture<Response> entries(Long id, byte[] body) {
+        return CompletableFuture.supplyAsync(() -> answerEntries(id, body), answers);
+    }
+
+    private Response answerEntries(Long id, byte[] body) {
+        if (id == null || body == null) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        }
+        long now = System.nanoTime();
+        pulls.values().removeIf(pull -> now - pull.touchedAt
+                > TimeUnit.MILLISECONDS.toNanos(Constants.ANTI_ENTROPY_TREE_TTL_MILLIS));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ByteBuffer request = ByteBuffer.wrap(body);
+            byte[] after = new byte[request.getInt()];
+            request.get(after);
+            BitSet[] leaves = new BitSet[ranges];
+            for (int i = request.getInt(); i > 0; i--) {
+                int range = request.getInt();
+                leaves[range] = new BitSet();
+                for (int j = request.getInt(); j > 0; j--) {
+                    leaves[range].set(request.getInt());
+                }
+            }
+            Pull pull = pulls.get(id);
+            if (pull == null || !Arrays.equals(pull.last, after)) {
+                // the first chunk or a retry, the smallest key greater than after
+                MemorySegment start = after.length == 0
+                        ? null
+                        : MemorySegment.ofArray(Arrays.copyOf(after, after.length + 1));
+                pull = new Pull(dao.cursor(start, null), now);
+                pulls.put(id, pull);
+            }
+            pull.touchedAt = now;
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(0);
+            Cursor cursor = pull.cursor;
+            while (cursor.next()) {
+                pace(++pull.scanned, pull.startedAt);
+                long keyHash = ValueDigest.hash(cursor.keySegment(), cursor.keyOffset(), cursor.keySize());
+                BitSet rangeLeaves = leaves[range(cursor)];
+                if (rangeLeaves == null
+                        || !rangeLeaves.get(MerkleTrees.leaf(keyHash, Constants.ANTI_ENTROPY_TREE_DEPTH))) {
+                    continue;
+                }
+                byte[] key = cursor.keySegment().asSlice(cursor.keyOffset(), cursor.keySize()).toByteArray();
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt((int) cursor.valueSize());
+                out.write(cursor.valueSegment().asSlice(cursor.valueOffset(), cursor.valueSize()).toByteArray());
+                if (bytes.size() >= Constants.ANTI_ENTROPY_CHUNK_BYTES) {
+                    pull.last = key;
+                    byte[] answer = bytes.toByteArray();
+                    answer[0] = 1;
+                    return new Response(Response.OK, answer);
+                }
+            }
+            pulls.remove(id);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        } catch (IOException e) {
+            pulls.remove(id);
+            Constants.LOG.error("Unable to answer entries of pull {}", id, e);
+            return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        }
+        return new Response(Response.OK, bytes.toByteArray());
+    }
+
+    // scan of one pull, the cursor is at the last sent entry
+    private static final class Pull {
+        private final Cursor cursor;
+        private final long startedAt;
+        private long touchedAt;
+        private long scanned;
+        private byte[] last;
+
+        Pull(Cursor cursor, long startedAt) {
+            this.cursor = cursor;
+            this.startedAt = startedAt;
+        }
+    }
+
+    public long runs() {
+        return runs.get();
+    }
+
+    public long differingLeaves() {
+        return differingLeaves.get();
+    }
+
+    public long pulledEntries() {
+        return pulledEntries.get();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdownNow();
+        answers.shutdownNow();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES) || !answers.awaitTermination(1, TimeUnit.MINUTES)) {
+            Constants.LOG.error("Anti-entropy repair did not stop");
+        }
+    }
+}
@@ -3,14 +3,18 @@ package nadutkin.app.replicas;
 public class ControllerStatus {
     public Long timestamp;
     public byte[] answer;
+    // the answer as the replica stores it, it is written to replicas with older versions
+    public byte[] stored;
 
     public ControllerStatus() {
         this.timestamp = -1L;
         this.answer = null;
+        this.stored = null;
     }
 
-    public ControllerStatus(Long timestamp, byte[] answer) {
+    public ControllerStatus(Long timestamp, byte[] answer, byte[] stored) {
         this.timestamp = timestamp;
         this.answer = answer == null ? null : answer.clone();
+        this.stored = stored;
     }
 }
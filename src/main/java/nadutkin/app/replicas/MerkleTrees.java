@@ -0,0 +1,62 @@
+package nadutkin.app.replicas;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Merkle tree of every token range: leaves split keys of the range by the first bits of the key hash.
+ * Leaf is the sum of hashes of its entries, so entries can be added in any order, the key order of the dao
+ * is fine. Nodes are kept as a heap: children of node i are 2i + 1 and 2i + 2, level l starts at 2^l - 1.
+ */
+final class MerkleTrees {
+    private final int depth;
+    private final long[][] nodes;
+    private final long createdAt = System.currentTimeMillis();
+
+    MerkleTrees(int ranges, int depth) {
+        this.depth = depth;
+        this.nodes = new long[ranges][(2 << depth) - 1];
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    long createdAt() {
+        return createdAt;
+    }
+
+    static int leaf(long keyHash, int depth) {
+        return (int) (keyHash >>> (Long.SIZE - depth));
+    }
+
+    void add(int range, long keyHash, long valueHash) {
+        long entryHash = ValueDigest.mix(keyHash * 0x9e3779b97f4a7c15L + valueHash);
+        nodes[range][(1 << depth) - 1 + leaf(keyHash, depth)] += entryHash;
+    }
+
+    // computes inner nodes after all entries are added
+    void seal() {
+        for (long[] tree : nodes) {
+            for (int i = (1 << depth) - 2; i >= 0; i--) {
+                tree[i] = ValueDigest.mix(tree[2 * i + 1] * 0x9e3779b97f4a7c15L + tree[2 * i + 2]);
+            }
+        }
+    }
+
+    long[] level(int range, int level) {
+        return Arrays.copyOfRange(nodes[range], (1 << level) - 1, (2 << level) - 1);
+    }
+
+    static byte[] toBytes(long[] level) {
+        ByteBuffer buffer = ByteBuffer.allocate(level.length * Long.BYTES);
+        buffer.asLongBuffer().put(level);
+        return buffer.array();
+    }
+
+    static long[] fromBytes(byte[] bytes) {
+        long[] level = new long[bytes.length / Long.BYTES];
+        ByteBuffer.wrap(bytes).asLongBuffer().get(level);
+        return level;
+    }
+}
@@ -0,0 +1,116 @@
+package nadutkin.app.replicas;
+
+import nadutkin.utils.Constants;
+import one.nio.http.Request;
+import one.nio.http.Response;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the answer of a quorum read to replicas, which answered an older version, after the answer is sent.
+ * Repairs wait in a bounded queue and one thread sends them not faster than the rate.
+ * Repairs, which don't fit into the queue, are dropped: the next read of the key finds the mismatch again.
+ * Replicas keep the value with the greatest timestamp, so a repair never overwrites a newer write.
+ */
+public class ReadRepairer implements AutoCloseable {
+    private final BlockingQueue<Repair> queue;
+    private final double chance;
+    private final long intervalNanos;
+    private final Sender sender;
+    private final Thread worker;
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public interface Sender {
+        CompletableFuture<Response> send(String url, String id, Request request);
+    }
+
+    private record Repair(String url, String id, Request request) {
+    }
+
+    /**
+     * Creates repairer with its thread.
+     * @param capacity repairs waiting to be sent
+     * @param chance probability to repair after a read with lagging replicas
+     * @param perSecond repairs sent per second at most
+     */
+    public ReadRepairer(int capacity, double chance, long perSecond, Sender sender) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.chance = chance;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        this.sender = sender;
+        this.worker = new Thread(this::run, "ReadRepair");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues writes of the stored answer to the replicas, if the read is chosen for repair.
+     * @param uri replica uri of the key
+     */
+    public void repair(String id, String uri, byte[] storedAnswer, Iterable<String> replicas) {
+        if (chance < 1 && ThreadLocalRandom.current().nextDouble() >= chance) {
+            return;
+        }
+        for (String url : replicas) {
+            Request request = new Request(Request.METHOD_PUT, uri, true);
+            request.setBody(storedAnswer);
+            if (!queue.offer(new Repair(url, id, request))) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Repair repair = queue.take();
+                long now = System.nanoTime();
+                if (next > now) {
+                    TimeUnit.NANOSECONDS.sleep(next - now);
+                }
+                next = Math.max(now, next) + intervalNanos;
+                issued.incrementAndGet();
+                sender.send(repair.url, repair.id, repair.request).whenComplete((response, throwable) -> {
+                    if (response == null || response.getStatus() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                        failed.incrementAndGet();
+                        Constants.LOG.error("Failed to repair id {} at {}", repair.id, repair.url);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long issued() {
+        return issued.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    // repairs still in the queue are dropped
+    @Override
+    public void close() throws InterruptedException {
+        worker.interrupt();
+        worker.join();
+    }
+}
@@ -2,13 +2,20 @@ package nadutkin.app.replicas;
 
 import jdk.incubator.foreign.MemorySegment;
 import nadutkin.app.Service;
-import nadutkin.app.range.ChunkResponse;
+import nadutkin.app.cache.RowCache;
+import nadutkin.app.range.RangeSubscriber;
 import nadutkin.app.server.HighLoadHttpServer;
 import nadutkin.database.BaseEntry;
 import nadutkin.database.Config;
 import nadutkin.database.Entry;
+import nadutkin.database.RangeEstimate;
+import nadutkin.database.impl.AsyncMemorySegmentDao;
+import nadutkin.database.impl.KeyRangeOverlapException;
+import nadutkin.database.impl.Keyspaces;
 import nadutkin.database.impl.MemorySegmentDao;
+import nadutkin.database.impl.SSTableBuilder;
 import nadutkin.utils.Constants;
+import nadutkin.utils.MemoryManager;
 import nadutkin.utils.ServiceConfig;
 import nadutkin.utils.UtilsClass;
 import one.nio.http.HttpServer;
@@ -17,12 +24,22 @@ import one.nio.http.Param;
 import one.nio.http.Path;
 import one.nio.http.Request;
 import one.nio.http.Response;
-import one.nio.util.ByteArrayBuilder;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static nadutkin.utils.UtilsClass.getBytes;
@@ -33,6 +50,12 @@ public class ReplicaService implements Service {
     protected final AtomicInteger storedData = new AtomicInteger(0);
     protected HttpServer server;
     protected MemorySegmentDao dao;
+    protected AsyncMemorySegmentDao asyncDao;
+    protected Keyspaces keyspaces;
+    protected ExecutorService ioPool;
+    private final Map<String, AsyncMemorySegmentDao> asyncKeyspaces = new ConcurrentHashMap<>();
+    protected RowCache rowCache;
+    protected MemoryManager memoryManager;
 
     public ReplicaService(ServiceConfig config) {
         this.config = config;
@@ -40,8 +63,15 @@ public class ReplicaService implements Service {
 
     @Override
     public CompletableFuture<?> start() throws IOException {
-        this.dao = new MemorySegmentDao(new Config(config.workingDir(), Constants.FLUSH_THRESHOLD_BYTES));
-        this.server = new HighLoadHttpServer(UtilsClass.createConfigFromPort(config.selfPort()));
+        this.memoryManager = new MemoryManager(Constants.MEMORY_BUDGET_BYTES);
+        this.rowCache = new RowCache(Constants.ROW_CACHE_BYTES, memoryManager);
+        this.keyspaces = new Keyspaces(new Config(config.workingDir(),
+                Constants.FLUSH_THRESHOLD_BYTES, Constants.LEARNED_INDEX, Constants.PREFIX_FILTER_LENGTH),
+                memoryManager);
+        this.dao = keyspaces.keyspace(Keyspaces.DEFAULT);
+        this.ioPool = AsyncMemorySegmentDao.newIoPool(Constants.DAO_IO_THREADS);
+        this.asyncDao = new AsyncMemorySegmentDao(dao, ioPool);
+        this.server = new HighLoadHttpServer(UtilsClass.createConfigFromPort(config.selfPort()), memoryManager);
         server.addRequestHandlers(this);
         server.start();
         return CompletableFuture.completedFuture(null);
@@ -50,92 +80,346 @@ public class ReplicaService implements Service {
     @Override
     public CompletableFuture<?> stop() throws IOException {
         this.server.stop();
-        this.dao.close();
+        UtilsClass.shutdownAndAwaitTermination(ioPool);
+        // they wrap daos and the pool of this run
+        asyncKeyspaces.clear();
+        this.keyspaces.close();
         return CompletableFuture.completedFuture(null);
     }
 
-    private Response upsert(MemorySegment key, @Nonnull byte[] body, String goodResponse) {
+    // the default keyspace is null, so it has one dao and one name in the row cache
+    protected static String keyspaceOf(Request request) {
+        String keyspace = request.getParameter("ks=");
+        return Keyspaces.DEFAULT.equals(keyspace) ? null : keyspace;
+    }
+
+    // null for the default keyspace, null result for keyspaces which were never created
+    protected AsyncMemorySegmentDao asyncDao(String keyspace) {
+        if (keyspace == null) {
+            return asyncDao;
+        }
+        return asyncKeyspaces.computeIfAbsent(keyspace, name -> {
+            MemorySegmentDao keyspaceDao = keyspaces.keyspace(name);
+            return keyspaceDao == null ? null : new AsyncMemorySegmentDao(keyspaceDao, ioPool);
+        });
+    }
+
+    protected static Response unknownKeyspace(String keyspace) {
+        return new Response(Response.NOT_FOUND, getBytes("Unknown keyspace %s".formatted(keyspace)));
+    }
+
+    private static String cacheKey(String keyspace, String id) {
+        return keyspace == null ? id : keyspace + '\0' + id;
+    }
+
+    // the dao keeps the value with the greatest timestamp, so late writes of older versions are ignored
+    private CompletableFuture<Response> upsert(String keyspace, String id, MemorySegment key, @Nonnull byte[] body,
+                                               String goodResponse) {
+        long timestamp;
+        try {
+            timestamp = UtilsClass.timestampOf(body);
+        } catch (IOException | ClassNotFoundException e) {
+            return CompletableFuture.completedFuture(new Response(Response.BAD_REQUEST,
+                    getBytes("Malformed value")));
+        }
         MemorySegment value = MemorySegment.ofArray(body);
-        Entry<MemorySegment> entry = new BaseEntry<>(key, value);
-        dao.upsert(entry);
-        return new Response(goodResponse, Response.EMPTY);
+        Entry<MemorySegment> entry = new BaseEntry<>(key, value, timestamp);
+        return asyncDao(keyspace).upsertAsync(entry).thenApply(ignored -> {
+            rowCache.invalidate(cacheKey(keyspace, id));
+            return new Response(goodResponse, Response.EMPTY);
+        });
+    }
+
+    private CompletableFuture<Response> get(String keyspace, String id, MemorySegment key) {
+        String cacheKey = cacheKey(keyspace, id);
+        byte[] cached = rowCache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(new Response(Response.OK, cached));
+        }
+        long stamp = rowCache.stamp(cacheKey);
+        return asyncDao(keyspace).getAsync(key).thenApply(value -> {
+            if (value == null) {
+                return new Response(Response.NOT_FOUND,
+                        getBytes("Can't find any value, for id %1$s".formatted(id)));
+            }
+            byte[] body = value.value().toByteArray();
+            rowCache.put(cacheKey, body, stamp);
+            return new Response(Response.OK, body);
+        });
+    }
+
+    // the coordinator already has the full value of another replica and needs only the version of this one
+    private CompletableFuture<Response> digest(String keyspace, String id, MemorySegment key) {
+        return get(keyspace, id, key).thenApply(response -> {
+            if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                return response;
+            }
+            try {
+                return new Response(Response.OK, ValueDigest.of(response.getBody()).toBytes());
+            } catch (IOException | ClassNotFoundException e) {
+                Constants.LOG.error("Malformed value for id {}", id, e);
+                return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+            }
+        });
+    }
+
+    protected Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rowCache.hits", rowCache.hits());
+        stats.put("rowCache.misses", rowCache.misses());
+        stats.put("rowCache.hitRatio", rowCache.hitRatio());
+        stats.put("rowCache.evictions", rowCache.evictions());
+        stats.put("rowCache.bytes", rowCache.bytes());
+        stats.put("readahead.loads", dao.readahead().loads());
+        stats.put("readahead.bytes", dao.readahead().loadedBytes());
+        stats.put("readahead.skipped", dao.readahead().skipped());
+        stats.put("memory.budget", memoryManager.budget());
+        stats.put("memory.used", memoryManager.used());
+        stats.put("keyspaces", String.join(",", new TreeSet<>(keyspaces.names())));
+        for (MemoryManager.Reservation reservation : memoryManager.reservations()) {
+            stats.put("memory." + reservation.name(), reservation.bytes());
+        }
+        return stats;
+    }
+
+    @Path(Constants.CHECKPOINT_PATH)
+    public Response handleCheckpoint(@Param(value = "name", required = true) String name,
+                                     Request request) {
+        if (request.getMethod() != Request.METHOD_POST) {
+            return new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet"));
+        }
+        if (!name.matches(Constants.CHECKPOINT_NAME_PATTERN)) {
+            return new Response(Response.BAD_REQUEST, getBytes("Name must consist of letters, digits, - and _"));
+        }
+        java.nio.file.Path target = config.workingDir().resolve(Constants.CHECKPOINTS_DIR).resolve(name);
+        try {
+            Files.createDirectories(target.getParent());
+            dao.checkpoint(target);
+        } catch (FileAlreadyExistsException e) {
+            return new Response(Response.CONFLICT, getBytes("Checkpoint %s already exists".formatted(name)));
+        } catch (IOException | RuntimeException e) {
+            Constants.LOG.error("Failed to make checkpoint {}", name, e);
+            return new Response(Response.INTERNAL_ERROR, getBytes("Failed to make checkpoint"));
+        }
+        return new Response(Response.CREATED, getBytes(target.toString()));
+    }
+
+    /**
+     * Loads sorted records (keyLength int)(key)(valueLength int)(value) of the body into a new file.
+     * Keys must be sorted and must not overlap with stored ones, values get the current timestamp.
+     */
+    @Path(Constants.BULK_PATH)
+    public Response handleBulkLoad(Request request) {
+        if (request.getMethod() != Request.METHOD_PUT) {
+            return new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet"));
+        }
+        java.nio.file.Path directory = config.workingDir().resolve(Constants.BULK_DIR);
+        java.nio.file.Path file = directory.resolve("upload" + System.nanoTime() + ".dat");
+        try {
+            Files.createDirectories(directory);
+            long timestamp = System.currentTimeMillis();
+            int count = 0;
+            try (SSTableBuilder builder = new SSTableBuilder(dao.config(), file)) {
+                ByteBuffer body = ByteBuffer.wrap(request.getBody() == null ? Response.EMPTY : request.getBody());
+                while (body.hasRemaining()) {
+                    byte[] key = new byte[body.getInt()];
+                    body.get(key);
+                    byte[] value = new byte[body.getInt()];
+                    body.get(value);
+                    builder.add(new BaseEntry<>(MemorySegment.ofArray(key),
+                            MemorySegment.ofArray(UtilsClass.valueToSegment(new StoredValue(value, timestamp))),
+                            timestamp));
+                    count++;
+                }
+                if (count == 0) {
+                    return new Response(Response.BAD_REQUEST, getBytes("Nothing to load"));
+                }
+                builder.build();
+            }
+            dao.ingest(List.of(file));
+            rowCache.clear();
+            return new Response(Response.CREATED, getBytes(Integer.toString(count)));
+        } catch (KeyRangeOverlapException e) {
+            return new Response(Response.CONFLICT, getBytes(e.getMessage()));
+        } catch (IllegalArgumentException | BufferUnderflowException | NegativeArraySizeException e) {
+            return new Response(Response.BAD_REQUEST, getBytes("Malformed or unsorted records"));
+        } catch (IOException e) {
+            Constants.LOG.error("Failed to load records", e);
+            return new Response(Response.INTERNAL_ERROR, getBytes("Failed to load records"));
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Constants.LOG.error("Unable to delete {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * PUT creates keyspace with the tuning of the parameters, absent ones are the default, GET returns its tuning.
+     * Entities of keyspaces, which were not created, are not found.
+     */
+    @Path(Constants.KEYSPACE_PATH)
+    public Response handleKeyspace(@Param(value = "name", required = true) String name,
+                                   @Param(value = "flushThresholdBytes") Long flushThresholdBytes,
+                                   @Param(value = "learnedIndex") Boolean learnedIndex,
+                                   @Param(value = "prefixLength") Long prefixLength,
+                                   @Param(value = "appendMemtable") Boolean appendMemtable,
+                                   Request request) {
+        if (!Keyspaces.isValidName(name)) {
+            return new Response(Response.BAD_REQUEST, getBytes("Invalid keyspace name"));
+        }
+        if (request.getMethod() == Request.METHOD_GET) {
+            Config stored = keyspaces.tuning(name);
+            return stored == null ? unknownKeyspace(name) : new Response(Response.OK, getBytes(describe(stored)));
+        }
+        if (request.getMethod() != Request.METHOD_PUT) {
+            return new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet"));
+        }
+        if ((flushThresholdBytes != null && flushThresholdBytes <= 0) || (prefixLength != null && prefixLength < 0)) {
+            return new Response(Response.BAD_REQUEST, getBytes("Invalid keyspace tuning"));
+        }
+        // absent parameters take the default tuning
+        Config defaults = dao.config();
+        Config tuning = new Config(defaults.basePath(),
+                flushThresholdBytes == null ? defaults.flushThresholdBytes() : flushThresholdBytes,
+                learnedIndex == null ? defaults.learnedIndex() : learnedIndex,
+                prefixLength == null ? defaults.prefixLength() : prefixLength,
+                appendMemtable == null ? defaults.appendMemtable() : appendMemtable);
+        Config stored = keyspaces.tuning(name);
+        if (stored != null) {
+            return stored.withBasePath(null).equals(tuning.withBasePath(null))
+                    ? new Response(Response.OK, Response.EMPTY)
+                    : new Response(Response.CONFLICT, getBytes("Keyspace exists with other tuning\n"
+                            + describe(stored)));
+        }
+        try {
+            keyspaces.create(name, tuning);
+        } catch (IllegalStateException e) {
+            return new Response(Response.CONFLICT, getBytes(e.getMessage()));
+        } catch (IOException | UncheckedIOException e) {
+            Constants.LOG.error("Failed to create keyspace {}", name, e);
+            return new Response(Response.INTERNAL_ERROR, getBytes("Failed to create keyspace"));
+        }
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    // tuning in the form of the parameters, which create the keyspace
+    private static String describe(Config tuning) {
+        return "flushThresholdBytes=" + tuning.flushThresholdBytes() + "\n"
+                + "learnedIndex=" + tuning.learnedIndex() + "\n"
+                + "prefixLength=" + tuning.prefixLength() + "\n"
+                + "appendMemtable=" + tuning.appendMemtable() + "\n";
+    }
+
+    @Path(Constants.STATS_PATH)
+    public Response handleStats() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Object> stat : stats().entrySet()) {
+            builder.append(stat.getKey()).append('=').append(stat.getValue()).append('\n');
+        }
+        return new Response(Response.OK, getBytes(builder.toString()));
     }
 
     @Path(Constants.REPLICA_PATH)
-    public Response handleV1(@Param(value = "id", required = true) String id,
-                             Request request) {
+    public void handleV1(@Param(value = "id", required = true) String id,
+                         Request request,
+                         HttpSession session) {
+        handleV1Async(id, request).whenComplete((response, throwable) -> {
+            try {
+                if (throwable == null) {
+                    session.sendResponse(response);
+                } else {
+                    Constants.LOG.error("Failed to handle replica request for id {}", id, throwable);
+                    session.sendResponse(new Response(Response.INTERNAL_ERROR, Response.EMPTY));
+                }
+            } catch (IOException e) {
+                Constants.LOG.error("Unable to send response. Exception: {}", e.getMessage());
+            }
+        });
+    }
+
+    protected CompletableFuture<Response> handleV1Async(String id, Request request) {
         MemorySegment key = getKey(id);
+        String keyspace = keyspaceOf(request);
+        if (keyspace != null && !Keyspaces.isValidName(keyspace)) {
+            return CompletableFuture.completedFuture(new Response(Response.BAD_REQUEST,
+                    getBytes("Invalid keyspace name")));
+        }
+        if (asyncDao(keyspace) == null) {
+            return CompletableFuture.completedFuture(unknownKeyspace(keyspace));
+        }
         switch (request.getMethod()) {
             case Request.METHOD_GET -> {
-                Entry<MemorySegment> value = dao.get(key);
-                if (value == null) {
-                    return new Response(Response.NOT_FOUND,
-                            getBytes("Can't find any value, for id %1$s".formatted(id)));
-                } else {
-                    return new Response(Response.OK, value.value().toByteArray());
+                if (request.getParameter("digest=") != null) {
+                    return digest(keyspace, id, key);
                 }
+                return get(keyspace, id, key);
             }
             case Request.METHOD_PUT -> {
                 storedData.getAndIncrement();
-                return upsert(key, request.getBody(), Response.CREATED);
+                return upsert(keyspace, id, key, request.getBody(), Response.CREATED);
             }
             case Request.METHOD_DELETE -> {
-                return upsert(key, request.getBody(), Response.ACCEPTED);
+                return upsert(keyspace, id, key, request.getBody(), Response.ACCEPTED);
             }
             default -> {
-                return new Response(Response.METHOD_NOT_ALLOWED,
-                        getBytes("Not implemented yet"));
+                return CompletableFuture.completedFuture(new Response(Response.METHOD_NOT_ALLOWED,
+                        getBytes("Not implemented yet")));
             }
         }
     }
 
+    @Path(Constants.ESTIMATE_PATH)
+    public Response handleEstimate(@Param(value = "start") String start,
+                                   @Param(value = "end") String end,
+                                   Request request) {
+        if (request.getMethod() != Request.METHOD_GET) {
+            return new Response(Response.METHOD_NOT_ALLOWED, getBytes("Not implemented yet"));
+        }
+        if (start == null || (end != null && start.compareTo(end) >= 0)) {
+            return new Response(Response.BAD_REQUEST, getBytes("Start must be less than end"));
+        }
+        RangeEstimate estimate = dao.estimate(getKey(start), end != null ? getKey(end) : null);
+        return new Response(Response.OK, getBytes(estimate.keys() + "\n" + estimate.bytes()));
+    }
+
     @Path(Constants.RANGE_PATH)
     public void handleRange(@Param(value = "start") String start,
                             @Param(value = "end") String end,
+                            @Param(value = "prefix") String prefix,
+                            @Param(value = "ks") String keyspace,
                             Request request,
                             @Param(value = "session", required = true) HttpSession session) throws IOException {
         if (request.getMethod() != Request.METHOD_GET) {
             session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED,
                     getBytes("Not implemented yet")));
+            return;
         }
-        if (start == null || (end != null && start.compareTo(end) >= 0)) {
+        if (prefix != null) {
+            if (prefix.isEmpty() || start != null || end != null) {
+                session.sendResponse(new Response(Response.BAD_REQUEST,
+                        getBytes("Prefix must be non empty and can't be used with start and end")));
+                return;
+            }
+        } else if (start == null || (end != null && start.compareTo(end) >= 0)) {
             session.sendResponse(new Response(Response.BAD_REQUEST, getBytes("Start must be less than end")));
             return;
         }
-        Response startResponse = new Response(Response.OK, Response.EMPTY);
-        startResponse.getHeaders()[1] = "Transfer-Encoding: chunked";
-        session.sendResponse(startResponse);
-
-        MemorySegment startKey = getKey(start);
-        MemorySegment endKey = end != null ? getKey(end) : null;
-
-        Iterator<Entry<MemorySegment>> iterator = dao.get(startKey, endKey);
-
-        ChunkResponse response = new ChunkResponse(Response.OK);
-
-        while (iterator.hasNext()) {
-            try {
-                Entry<MemorySegment> entry = iterator.next();
-                StoredValue value = UtilsClass.segmentToValue(entry.value().toByteArray());
-
-                byte[] data = new ByteArrayBuilder()
-                        .append(entry.key().toByteArray())
-                        .append("\n")
-                        .append(value.value())
-                        .toBytes();
-
-                if (!response.append(data)) {
-                    session.sendResponse(response);
-                    response = new ChunkResponse(Response.OK, data);
-                }
-            } catch (ClassNotFoundException e) {
-                break;
-            }
-
+        if (keyspace != null && !Keyspaces.isValidName(keyspace)) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, getBytes("Invalid keyspace name")));
+            return;
+        }
+        AsyncMemorySegmentDao rangeDao = asyncDao(Keyspaces.DEFAULT.equals(keyspace) ? null : keyspace);
+        if (rangeDao == null) {
+            session.sendResponse(unknownKeyspace(keyspace));
+            return;
         }
-        session.sendResponse(response);
-        if (response.length() > 0) {
-            session.sendResponse(new ChunkResponse(Response.OK, Response.EMPTY));
+        if (prefix != null) {
+            rangeDao.scanCursorWithPrefixAsync(getKey(prefix)).subscribe(new RangeSubscriber(session));
+        } else {
+            rangeDao.scanCursorAsync(getKey(start), end != null ? getKey(end) : null)
+                    .subscribe(new RangeSubscriber(session));
         }
     }
 }
@@ -8,6 +8,10 @@ import one.nio.http.Response;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -16,6 +20,12 @@ public class ResponseProcessor {
     private final Integer method;
     private final AtomicInteger need;
     private final AtomicInteger left;
+    // digest reads: body of the full answer and the greatest digest of the other replicas
+    private final AtomicReference<byte[]> fullBody = new AtomicReference<>();
+    private final AtomicReference<DigestAnswer> newestDigest = new AtomicReference<>();
+    private volatile boolean fullReadFailed;
+    // versions answered by replicas, -1 if the replica has no value
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
 
     public ResponseProcessor(Integer method, Integer ack, Integer from) {
         this.method = method;
@@ -24,15 +34,25 @@ public class ResponseProcessor {
         this.left = new AtomicInteger(from);
     }
 
-    public boolean process(Response response) {
+    public boolean process(Response response, String url) {
         if (response != null) {
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+                versions.put(url, -1L);
+            }
             if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                fullBody.set(response.getBody());
                 try {
-                    StoredValue value = UtilsClass.segmentToValue(response.getBody());
-                    ControllerStatus newStatus = new ControllerStatus(value.timestamp(), value.value());
+                    // only values newer than the current answer are decoded
+                    long timestamp = UtilsClass.timestampOf(response.getBody());
+                    versions.put(url, timestamp);
+                    ControllerStatus newStatus = null;
                     while (true) {
                         ControllerStatus currentStatus = status.get();
-                        if (newStatus.timestamp > currentStatus.timestamp) {
+                        if (timestamp > currentStatus.timestamp) {
+                            if (newStatus == null) {
+                                StoredValue value = UtilsClass.segmentToValue(response.getBody());
+                                newStatus = new ControllerStatus(value.timestamp(), value.value(), response.getBody());
+                            }
                             if (status.compareAndSet(currentStatus, newStatus)) {
                                 break;
                             }
@@ -51,8 +71,100 @@ public class ResponseProcessor {
         return left.decrementAndGet() == 0;
     }
 
+    /**
+     * Counts the answer of a replica, which was asked only for the digest of its value.
+     * @return true, if the answer can be sent or has to be completed with {@link #fullReadUrl()}
+     */
+    public boolean processDigest(Response response, String url) {
+        if (response != null) {
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+                versions.put(url, -1L);
+            }
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                try {
+                    DigestAnswer answer = new DigestAnswer(ValueDigest.fromBytes(response.getBody()), url);
+                    versions.put(url, answer.digest.timestamp());
+                    newestDigest.accumulateAndGet(answer,
+                            (current, next) -> current == null || next.digest.compareTo(current.digest) > 0
+                                    ? next : current);
+                } catch (IOException e) {
+                    Constants.LOG.error("Cannot get digest from response of {}", url);
+                }
+            }
+            if (need.decrementAndGet() == 0) {
+                return true;
+            }
+        }
+        return left.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns the replica to read the full value from, if some digest is newer than the full answer.
+     * @return url of the replica or null, if the answer is already the newest one
+     */
+    public String fullReadUrl() {
+        DigestAnswer newest = newestDigest.get();
+        if (method != Request.METHOD_GET || need.get() > 0 || newest == null) {
+            return null;
+        }
+        long timestamp = status.get().timestamp;
+        if (newest.digest.timestamp() != timestamp) {
+            return newest.digest.timestamp() > timestamp ? newest.url : null;
+        }
+        // the hash of the full answer is needed only for the conflict of equal timestamps
+        byte[] body = fullBody.get();
+        long hash = body == null ? 0 : ValueDigest.hash(body);
+        return Long.compareUnsigned(newest.digest.hash(), hash) > 0 ? newest.url : null;
+    }
+
+    /**
+     * Replaces the answer with the full value read from {@link #fullReadUrl()}.
+     */
+    public void resolve(Response response) {
+        if (response == null || response.getStatus() != HttpURLConnection.HTTP_OK) {
+            fullReadFailed = true;
+            return;
+        }
+        try {
+            StoredValue value = UtilsClass.segmentToValue(response.getBody());
+            status.set(new ControllerStatus(value.timestamp(), value.value(), response.getBody()));
+        } catch (IOException | ClassNotFoundException e) {
+            Constants.LOG.error("Cannot get value from response");
+            fullReadFailed = true;
+        }
+    }
+
+    /**
+     * Returns replicas, which answered a version older than the answer of the read.
+     * Replicas, which haven't answered yet, and conflicts of equal timestamps are not counted.
+     */
+    public List<String> laggingReplicas() {
+        ControllerStatus winner = status.get();
+        if (method != Request.METHOD_GET || need.get() > 0 || fullReadFailed || winner.stored == null) {
+            return List.of();
+        }
+        List<String> lagging = new ArrayList<>();
+        for (Map.Entry<String, Long> version : versions.entrySet()) {
+            if (version.getValue() < winner.timestamp) {
+                lagging.add(version.getKey());
+            }
+        }
+        return lagging;
+    }
+
+    // the stored bytes of the answer, to be written to lagging replicas
+    public byte[] storedAnswer() {
+        return status.get().stored;
+    }
+
+    // the answer is sent or is being completed, other answers change nothing
+    public boolean isDone() {
+        return need.get() <= 0;
+    }
+
     public Response response() {
-        if (need.get() > 0) {
+        // the quorum has seen a newer value, which can't be read, so the older one must not be returned
+        if (need.get() > 0 || fullReadFailed) {
             return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
         }
         switch (this.method) {
@@ -75,4 +187,7 @@ public class ResponseProcessor {
             }
         }
     }
+
+    private record DigestAnswer(ValueDigest digest, String url) {
+    }
 }
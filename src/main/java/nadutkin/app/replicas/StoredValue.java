@@ -2,5 +2,6 @@ package nadutkin.app.replicas;
 
 import java.io.Serializable;
 
+// stays Serializable to read values written before the binary layout, see UtilsClass.segmentToValue
 public record StoredValue(byte[] value, Long timestamp) implements Serializable {
 }
@@ -0,0 +1,72 @@
+package nadutkin.app.replicas;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.utils.UtilsClass;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * What a replica answers instead of the value for digest reads: (timestamp)(hash of the stored bytes), big-endian.
+ * Digests with the same timestamp and different hashes are ordered by the hash, so every coordinator
+ * picks the same value of such a conflict.
+ */
+public record ValueDigest(long timestamp, long hash) implements Comparable<ValueDigest> {
+    public static final int SIZE = 2 * Long.BYTES;
+
+    public static ValueDigest of(byte[] storedValue) throws IOException, ClassNotFoundException {
+        return new ValueDigest(UtilsClass.timestampOf(storedValue), hash(storedValue));
+    }
+
+    public static ValueDigest fromBytes(byte[] bytes) throws IOException {
+        if (bytes == null || bytes.length != SIZE) {
+            throw new IOException("Malformed digest");
+        }
+        MemorySegment segment = MemorySegment.ofArray(bytes);
+        return new ValueDigest(MemoryAccess.getLongAtOffset(segment, 0, ByteOrder.BIG_ENDIAN),
+                MemoryAccess.getLongAtOffset(segment, Long.BYTES, ByteOrder.BIG_ENDIAN));
+    }
+
+    public byte[] toBytes() {
+        byte[] result = new byte[SIZE];
+        MemorySegment segment = MemorySegment.ofArray(result);
+        MemoryAccess.setLongAtOffset(segment, 0, ByteOrder.BIG_ENDIAN, timestamp);
+        MemoryAccess.setLongAtOffset(segment, Long.BYTES, ByteOrder.BIG_ENDIAN, hash);
+        return result;
+    }
+
+    @Override
+    public int compareTo(ValueDigest other) {
+        int result = Long.compare(timestamp, other.timestamp);
+        return result != 0 ? result : Long.compareUnsigned(hash, other.hash);
+    }
+
+    static long hash(byte[] value) {
+        return hash(MemorySegment.ofArray(value), 0, value.length);
+    }
+
+    // 8 bytes per step with the murmur3 finalizer, byte-wise FNV is too slow for large values
+    public static long hash(MemorySegment segment, long offset, long size) {
+        long hash = 0x9e3779b97f4a7c15L ^ size;
+        long words = size & -Long.BYTES;
+        for (long i = 0; i < words; i += Long.BYTES) {
+            long word = MemoryAccess.getLongAtOffset(segment, offset + i, ByteOrder.BIG_ENDIAN) * 0x87c37b91114253d5L;
+            hash = Long.rotateLeft(hash ^ Long.rotateLeft(word, 31), 27) * 0x4cf5ad432745937fL;
+        }
+        for (long i = words; i < size; i++) {
+            hash = (hash ^ (MemoryAccess.getByteAtOffset(segment, offset + i) & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    public static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -2,6 +2,7 @@ package nadutkin.app.server;
 
 import nadutkin.app.range.ChunkResponse;
 import nadutkin.app.range.RangeQueueItem;
+import nadutkin.utils.MemoryManager;
 import one.nio.http.HttpServer;
 import one.nio.http.HttpServerConfig;
 import one.nio.http.HttpSession;
@@ -21,10 +22,16 @@ import static nadutkin.utils.UtilsClass.getBytes;
 import static nadutkin.utils.UtilsClass.shutdownAndAwaitTermination;
 
 public class HighLoadHttpServer extends HttpServer {
+    private static final long REQUEST_OVERHEAD_BYTES = 1024;
+
     private final ExecutorService executors;
+    private final MemoryManager.Reservation buffers;
 
-    public HighLoadHttpServer(HttpServerConfig config, Object... routers) throws IOException {
+    public HighLoadHttpServer(HttpServerConfig config,
+                              MemoryManager memoryManager,
+                              Object... routers) throws IOException {
         super(config, routers);
+        this.buffers = memoryManager.register("serverBuffers", null);
         final int maximumPoolSize = Runtime.getRuntime().availableProcessors();
         final int corePoolSize = Math.max(1, maximumPoolSize / 2);
         final long keepAliveTime = 1;
@@ -55,7 +62,14 @@ public class HighLoadHttpServer extends HttpServer {
     }
 
     @Override
-    public void handleRequest(Request request, HttpSession session) {
+    public void handleRequest(Request request, HttpSession session) throws IOException {
+        // requests hold their bodies until they are answered, so they are limited by the memory budget
+        long size = REQUEST_OVERHEAD_BYTES + (request.getBody() == null ? 0 : request.getBody().length);
+        if (!buffers.tryAcquire(size)) {
+            session.sendResponse(new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY));
+            return;
+        }
+        ((ServerSession) session).reserve(size);
         executors.execute(() -> {
             try {
                 super.handleRequest(request, session);
@@ -72,15 +86,51 @@ public class HighLoadHttpServer extends HttpServer {
 
     @Override
     public HttpSession createSession(Socket socket) {
-        return new HttpSession(socket, this) {
-            @Override
-            public synchronized void sendResponse(Response response) throws IOException {
-                if (response instanceof ChunkResponse) {
-                    super.write(new RangeQueueItem(response.getBody()));
-                } else {
-                    super.sendResponse(response);
+        return new ServerSession(socket);
+    }
+
+    /**
+     * Session, which keeps memory of the request until the request is answered.
+     * Handlers answer asynchronously, so the memory can't be released, when the handler returns.
+     * The session handles one request at a time, the next pipelined one is handled after the response is sent.
+     */
+    private final class ServerSession extends HttpSession {
+        private long reserved;
+
+        ServerSession(Socket socket) {
+            super(socket, HighLoadHttpServer.this);
+        }
+
+        synchronized void reserve(long size) {
+            reserved = size;
+        }
+
+        private void releaseReserved() {
+            buffers.release(reserved);
+            reserved = 0;
+        }
+
+        @Override
+        public synchronized void sendResponse(Response response) throws IOException {
+            if (response instanceof ChunkResponse chunk) {
+                // the empty chunk ends the range
+                if (chunk.length() == 0) {
+                    releaseReserved();
+                }
+                super.write(new RangeQueueItem(response.getBody()));
+            } else {
+                // the start of the range is followed by chunks
+                if (!"chunked".equals(response.getHeader("Transfer-Encoding: "))) {
+                    releaseReserved();
                 }
+                super.sendResponse(response);
             }
-        };
+        }
+
+        @Override
+        public synchronized void close() {
+            releaseReserved();
+            super.close();
+        }
     }
 }
@@ -0,0 +1,100 @@
+package nadutkin.app.shards;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Recent latencies of replicas: the last samples for percentiles and the moving average for ordering.
+ * Requests cancelled before the answer are recorded only when they took longer than the average,
+ * so a replica, which is too slow to be waited for, doesn't keep its old good average,
+ * and a fast replica, which just lost the race, doesn't get a better one.
+ */
+public class LatencyTracker {
+    private final Map<String, Window> windows;
+
+    public LatencyTracker(List<String> clusterUrls, int windowSize) {
+        this.windows = clusterUrls
+                .stream()
+                .collect(Collectors.toMap(Function.identity(), url -> new Window(windowSize)));
+    }
+
+    public void record(String url, long nanos) {
+        windows.get(url).record(nanos);
+    }
+
+    /**
+     * Records the time of a request without the answer, the latency is not less than it.
+     * @param nanos time from the request to the cancellation
+     */
+    public void recordAtLeast(String url, long nanos) {
+        windows.get(url).recordAtLeast(nanos);
+    }
+
+    /**
+     * Orders replicas by the moving average, replicas without samples go first to get them.
+     */
+    public List<String> fastestFirst(List<String> urls) {
+        List<String> result = new ArrayList<>(urls);
+        result.sort(Comparator.comparingLong(url -> windows.get(url).average()));
+        return result;
+    }
+
+    /**
+     * Returns the percentile of the recent samples.
+     * @param percentile from 0 to 1
+     * @return latency in nanoseconds, 0 if there are no samples
+     */
+    public long percentile(String url, double percentile) {
+        return windows.get(url).percentile(percentile);
+    }
+
+    public long average(String url) {
+        return windows.get(url).average();
+    }
+
+    private static final class Window {
+        private final long[] samples;
+        private int next;
+        private int count;
+        // weight of the new sample is 1/8, as in TCP round-trip estimation
+        private long average;
+
+        Window(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            average = count == 1 ? nanos : average + (nanos - average) / 8;
+        }
+
+        synchronized void recordAtLeast(long nanos) {
+            if (nanos > average) {
+                record(nanos);
+            }
+        }
+
+        synchronized long average() {
+            return average;
+        }
+
+        long percentile(double percentile) {
+            long[] sorted;
+            synchronized (this) {
+                if (count == 0) {
+                    return 0;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length - 1, (int) (percentile * sorted.length))];
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package nadutkin.database;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+public interface AsyncDao<D, E extends Entry<D>> extends Closeable {
+
+    /**
+     * Returns entry by key. Future is completed in the calling thread, if the entry is in memory.
+     * @param key entry`s key
+     * @return future of entry, null if there is no such entry
+     */
+    CompletableFuture<E> getAsync(D key);
+
+    /**
+     * Inserts of replaces entry.
+     * @param entry element to upsert
+     * @return future completed after the entry is visible to readers
+     */
+    CompletableFuture<Void> upsertAsync(E entry);
+
+    /**
+     * Returns ordered publisher of entries with keys between from (inclusive) and to (exclusive).
+     * Entries are read only when subscriber requests them.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return publisher of entries [from;to)
+     */
+    Flow.Publisher<E> scanAsync(D from, D to);
+}
@@ -1,8 +1,12 @@
 package nadutkin.database;
 
-public record BaseEntry<Data>(Data key, Data value) implements Entry<Data> {
+public record BaseEntry<Data>(Data key, Data value, long timestamp) implements Entry<Data> {
+    public BaseEntry(Data key, Data value) {
+        this(key, value, 0);
+    }
+
     @Override
     public String toString() {
-        return "{" + key + ":" + value + "}";
+        return "{" + key + ":" + value + "@" + timestamp + "}";
     }
 }
@@ -4,5 +4,23 @@ import java.nio.file.Path;
 
 public record Config(
         Path basePath,
-        long flushThresholdBytes) {
+        long flushThresholdBytes,
+        boolean learnedIndex,
+        long prefixLength,
+        boolean appendMemtable) {
+
+    // the memtable of sorted writes for configs, which don't choose it
+    private static final boolean APPEND_MEMTABLE = Boolean.getBoolean("nadutkin.appendMemtable");
+
+    public Config(Path basePath, long flushThresholdBytes) {
+        this(basePath, flushThresholdBytes, false, 0);
+    }
+
+    public Config(Path basePath, long flushThresholdBytes, boolean learnedIndex, long prefixLength) {
+        this(basePath, flushThresholdBytes, learnedIndex, prefixLength, APPEND_MEMTABLE);
+    }
+
+    public Config withBasePath(Path basePath) {
+        return new Config(basePath, flushThresholdBytes, learnedIndex, prefixLength, appendMemtable);
+    }
 }
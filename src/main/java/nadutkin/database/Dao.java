@@ -2,7 +2,12 @@ package nadutkin.database;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 public interface Dao<D, E extends Entry<D>> extends Closeable {
 
@@ -31,6 +36,19 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
         return null;
     }
 
+    /**
+     * Returns entries for several keys at once. Note: default implementation calls get for each key.
+     * @param keys keys in any order, duplicates are allowed
+     * @return entries in the order of keys, null for absent ones
+     */
+    default List<E> multiGet(List<D> keys) throws IOException {
+        List<E> result = new ArrayList<>(keys.size());
+        for (D key : keys) {
+            result.add(get(key));
+        }
+        return result;
+    }
+
     /**
      * Returns ordered iterator of all entries with keys from (inclusive).
      * @param from lower bound of range (inclusive)
@@ -57,6 +75,24 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
         return get(null, null);
     }
 
+    /**
+     * Returns approximate amount of entries and bytes with keys between from (inclusive) and to (exclusive).
+     * Entries overwritten in newer files and tombstones may be counted several times.
+     * Note: default implementation iterates through the whole range and doesn't know about bytes.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return estimate of entries [from;to)
+     */
+    default RangeEstimate estimate(D from, D to) throws IOException {
+        long keys = 0;
+        Iterator<E> iterator = get(from, to);
+        while (iterator.hasNext()) {
+            iterator.next();
+            keys++;
+        }
+        return new RangeEstimate(keys, 0);
+    }
+
     /**
      * Inserts of replaces entry.
      * @param entry element to upsert
@@ -71,10 +107,30 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
     }
 
     /**
-     * Compacts data (no-op by default).
+     * Compacts data, possibly in background (no-op by default).
+     * @return future of the compaction
      */
-    default void compact() {
-        // Do nothing
+    default Future<?> compact() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Makes consistent copy of persisted data in the target directory, writes are not stopped.
+     * Data upserted before the call is included.
+     * @param target directory to create, must not exist
+     * @throws UnsupportedOperationException by default
+     */
+    default void checkpoint(Path target) throws IOException {
+        throw new UnsupportedOperationException("Checkpoints are not supported");
+    }
+
+    /**
+     * Moves finished files into the storage, their keys must not overlap with each other and with stored files.
+     * @param files files built for this dao, they are moved, not copied, if possible
+     * @throws UnsupportedOperationException by default
+     */
+    default void ingest(List<Path> files) throws IOException {
+        throw new UnsupportedOperationException("Ingest is not supported");
     }
 
     /*
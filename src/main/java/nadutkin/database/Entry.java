@@ -5,6 +5,15 @@ public interface Entry<D> {
 
     D value();
 
+    /**
+     * Returns version of the entry, the one with the greater timestamp wins over others with the same key,
+     * the one written later wins, if they are equal.
+     * @return timestamp, 0 for entries without version
+     */
+    default long timestamp() {
+        return 0;
+    }
+
     default boolean isTombstone() {
         return value() == null;
     }
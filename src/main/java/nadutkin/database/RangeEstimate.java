@@ -0,0 +1,9 @@
+package nadutkin.database;
+
+public record RangeEstimate(long keys, long bytes) {
+    public static final RangeEstimate EMPTY = new RangeEstimate(0, 0);
+
+    public RangeEstimate plus(RangeEstimate other) {
+        return new RangeEstimate(keys + other.keys, bytes + other.bytes);
+    }
+}
@@ -0,0 +1,159 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes compacted file past the page cache in aligned blocks.
+ * Header with index and records are two sequential streams, the block where they meet is written last,
+ * when both parts of it are known. Without O_DIRECT writes are synced periodically,
+ * so dirty pages of a big compaction don't pile up.
+ */
+final class AlignedSSTableWriter implements SSTableWriter {
+    private final ResourceScope scope = ResourceScope.newConfinedScope();
+    private final PrivateIO io;
+    private final long fileSize;
+    private final Stream indexStream;
+    private final Stream dataStream;
+    // blocks with bytes of both streams or with the end of the file
+    private final Map<Long, MemorySegment> sharedBlocks = new TreeMap<>();
+    private long unsyncedBytes;
+
+    AlignedSSTableWriter(Path file, long dataStart, long fileSize) throws IOException {
+        this.io = PrivateIO.open(file, StandardOpenOption.WRITE);
+        this.fileSize = fileSize;
+        this.indexStream = new Stream(0, dataStart);
+        this.dataStream = new Stream(dataStart, fileSize);
+    }
+
+    @Override
+    public void header(long version, long entriesCount, boolean hasTombstones) throws IOException {
+        indexStream.putLong(version);
+        indexStream.putLong(entriesCount);
+        indexStream.putLong(hasTombstones ? 1 : 0);
+    }
+
+    @Override
+    public void index(long recordOffset) throws IOException {
+        indexStream.putLong(recordOffset);
+    }
+
+    @Override
+    public long record(MemorySegment source, long sourceOffset, long size) throws IOException {
+        dataStream.putLong(size);
+        if (size <= 0) {
+            return Long.BYTES;
+        }
+        dataStream.put(source, sourceOffset, size);
+        return Long.BYTES + size;
+    }
+
+    @Override
+    public void timestamp(long timestamp) throws IOException {
+        dataStream.putLong(timestamp);
+    }
+
+    private void write(MemorySegment blocks, long position) throws IOException {
+        io.write(blocks, position);
+        if (!io.direct) {
+            unsyncedBytes += blocks.byteSize();
+            if (unsyncedBytes >= Constants.PRIVATE_IO_SYNC_BYTES) {
+                io.channel.force(false);
+                unsyncedBytes = 0;
+            }
+        }
+    }
+
+    private MemorySegment sharedBlock(long blockStart) {
+        return sharedBlocks.computeIfAbsent(blockStart, ignored -> io.allocate(io.blockSize, scope));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (scope; io) {
+            indexStream.finish();
+            dataStream.finish();
+            for (Map.Entry<Long, MemorySegment> block : sharedBlocks.entrySet()) {
+                write(block.getValue(), block.getKey());
+            }
+            // the last block is padded
+            io.channel.truncate(fileSize);
+            io.channel.force(true);
+        }
+    }
+
+    private final class Stream {
+        private final long from;
+        private final MemorySegment buffer;
+        // file position of the buffer start, it is aligned
+        private long bufferStart;
+        private long position;
+
+        Stream(long from, long to) {
+            this.from = from;
+            this.buffer = io.allocate(Math.min(Constants.PRIVATE_IO_BUFFER_BYTES, to - from + 2 * io.blockSize), scope);
+            this.bufferStart = io.alignDown(from);
+            this.position = from;
+        }
+
+        void putLong(long value) throws IOException {
+            if (position + Long.BYTES > bufferStart + buffer.byteSize()) {
+                flushBlocks();
+            }
+            MemoryAccess.setLongAtOffset(buffer, position - bufferStart, value);
+            position += Long.BYTES;
+        }
+
+        void put(MemorySegment source, long sourceOffset, long size) throws IOException {
+            long done = 0;
+            while (done < size) {
+                long room = bufferStart + buffer.byteSize() - position;
+                if (room == 0) {
+                    flushBlocks();
+                    continue;
+                }
+                long chunk = Math.min(room, size - done);
+                buffer.asSlice(position - bufferStart, chunk).copyFrom(source.asSlice(sourceOffset + done, chunk));
+                position += chunk;
+                done += chunk;
+            }
+        }
+
+        // writes full blocks, the last incomplete one is moved to the buffer start
+        private void flushBlocks() throws IOException {
+            long end = io.alignDown(position);
+            long writeFrom = bufferStart;
+            if (bufferStart < from && end > bufferStart) {
+                share(bufferStart, from, bufferStart + io.blockSize);
+                writeFrom += io.blockSize;
+            }
+            if (end > writeFrom) {
+                write(buffer.asSlice(writeFrom - bufferStart, end - writeFrom), writeFrom);
+            }
+            if (end > bufferStart) {
+                long tail = position - end;
+                buffer.asSlice(0, tail).copyFrom(buffer.asSlice(end - bufferStart, tail));
+                bufferStart = end;
+            }
+        }
+
+        void finish() throws IOException {
+            flushBlocks();
+            if (position > bufferStart) {
+                share(bufferStart, Math.max(from, bufferStart), position);
+            }
+        }
+
+        private void share(long blockStart, long start, long end) {
+            sharedBlock(blockStart).asSlice(start - blockStart, end - start)
+                    .copyFrom(buffer.asSlice(start - bufferStart, end - start));
+        }
+    }
+}
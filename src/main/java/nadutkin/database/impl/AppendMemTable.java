@@ -0,0 +1,155 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.Entry;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Memtable for sorted or nearly sorted writes.
+ * Keys greater than all appended ones go to the end of the array in O(1), others go to the small sorted overlay.
+ * Overlay entries always win over appended ones with the same key, so reads just merge two sorted runs.
+ * Entries with smaller timestamps than stored ones are rejected, so they never get to the overlay.
+ */
+final class AppendMemTable implements MemTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final MemorySegment VERY_FIRST_KEY = MemorySegment.ofArray(new byte[]{});
+
+    private final ConcurrentSkipListMap<MemorySegment, Entry<MemorySegment>> overlay =
+            new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+    private final Object appendLock = new Object();
+    // array is replaced before count is increased, so readers of count see the array with all counted entries
+    private volatile Entry<MemorySegment>[] log = newLog(INITIAL_CAPACITY);
+    private volatile int count;
+
+    @SuppressWarnings("unchecked")
+    private static Entry<MemorySegment>[] newLog(int capacity) {
+        return new Entry[capacity];
+    }
+
+    @Override
+    public Entry<MemorySegment> put(MemorySegment key, Entry<MemorySegment> entry) {
+        synchronized (appendLock) {
+            int size = count;
+            Entry<MemorySegment>[] entries = log;
+            if (size == 0 || MemorySegmentComparator.INSTANCE.compare(key, entries[size - 1].key()) > 0) {
+                if (size == entries.length) {
+                    entries = Arrays.copyOf(entries, size * 2);
+                    log = entries;
+                }
+                entries[size] = entry;
+                count = size + 1;
+                return null;
+            }
+            // appended entry with the same key stays in the log, it is hidden by the overlay
+            Entry<MemorySegment> existing = get(key);
+            if (existing != null && entry.timestamp() < existing.timestamp()) {
+                return entry;
+            }
+            return overlay.put(key, entry);
+        }
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        Entry<MemorySegment> entry = overlay.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        int size = count;
+        Entry<MemorySegment>[] entries = log;
+        int index = lowerBound(entries, size, key);
+        if (index < size && MemorySegmentComparator.INSTANCE.compare(entries[index].key(), key) == 0) {
+            return entries[index];
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        int size = count;
+        Entry<MemorySegment>[] entries = log;
+        int fromIndex = lowerBound(entries, size, from);
+        int toIndex = to == null ? size : lowerBound(entries, size, to);
+        Iterator<Entry<MemorySegment>> overlayIterator = to == null
+                ? overlay.tailMap(from).values().iterator()
+                : overlay.subMap(from, to).values().iterator();
+        if (!overlayIterator.hasNext()) {
+            return new LogIterator(entries, fromIndex, toIndex);
+        }
+        return MergeIterator.of(List.of(new LogIterator(entries, fromIndex, toIndex), overlayIterator),
+                EntryKeyComparator.INSTANCE);
+    }
+
+    // index of the first key >= key
+    private static int lowerBound(Entry<MemorySegment>[] entries, int size, MemorySegment key) {
+        int left = 0;
+        int right = size;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (MemorySegmentComparator.INSTANCE.compare(entries[mid].key(), key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    @Override
+    public Collection<Entry<MemorySegment>> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Entry<MemorySegment>> iterator() {
+                return get(VERY_FIRST_KEY, null);
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                Iterator<Entry<MemorySegment>> iterator = iterator();
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    size++;
+                }
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0 && overlay.isEmpty();
+    }
+
+    private static final class LogIterator implements Iterator<Entry<MemorySegment>> {
+        private final Entry<MemorySegment>[] entries;
+        private final int toIndex;
+        private int index;
+
+        LogIterator(Entry<MemorySegment>[] entries, int fromIndex, int toIndex) {
+            this.entries = entries;
+            this.index = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < toIndex;
+        }
+
+        @Override
+        public Entry<MemorySegment> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return entries[index++];
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.AsyncDao;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of MemorySegmentDao.
+ * Memory hits and upserts complete in the calling thread, storage reads are done by the io pool,
+ * so page faults don't block callers.
+ */
+public class AsyncMemorySegmentDao implements AsyncDao<MemorySegment, Entry<MemorySegment>> {
+    private final MemorySegmentDao dao;
+    private final ExecutorService ioPool;
+    private final boolean ownsPool;
+
+    public AsyncMemorySegmentDao(MemorySegmentDao dao, int ioThreads) {
+        this(dao, newIoPool(ioThreads), true);
+    }
+
+    /**
+     * Creates facade, which reads with the shared pool. Closing it doesn't shut the pool down.
+     */
+    public AsyncMemorySegmentDao(MemorySegmentDao dao, ExecutorService ioPool) {
+        this(dao, ioPool, false);
+    }
+
+    private AsyncMemorySegmentDao(MemorySegmentDao dao, ExecutorService ioPool, boolean ownsPool) {
+        this.dao = dao;
+        this.ioPool = ioPool;
+        this.ownsPool = ownsPool;
+    }
+
+    public static ExecutorService newIoPool(int ioThreads) {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(ioThreads,
+                r -> new Thread(r, "MemorySegmentDaoIO-" + threads.getAndIncrement()));
+    }
+
+    public MemorySegmentDao dao() {
+        return dao;
+    }
+
+    @Override
+    public CompletableFuture<Entry<MemorySegment>> getAsync(MemorySegment key) {
+        Entry<MemorySegment> inMemory;
+        try {
+            inMemory = dao.getFromMemory(key);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (inMemory != null) {
+            return CompletableFuture.completedFuture(inMemory.isTombstone() ? null : inMemory);
+        }
+        return CompletableFuture.supplyAsync(() -> dao.get(key), ioPool);
+    }
+
+    @Override
+    public CompletableFuture<Void> upsertAsync(Entry<MemorySegment> entry) {
+        try {
+            dao.upsert(entry);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public Flow.Publisher<Entry<MemorySegment>> scanAsync(MemorySegment from, MemorySegment to) {
+        return new IteratorPublisher<>(() -> dao.get(from, to), ioPool);
+    }
+
+    /**
+     * Publishes the same cursor for each entry, it must not be used after onNext returns.
+     */
+    public Flow.Publisher<Cursor> scanCursorAsync(MemorySegment from, MemorySegment to) {
+        return new IteratorPublisher<>(() -> new CursorIterator(dao.cursor(from, to)), ioPool);
+    }
+
+    public Flow.Publisher<Cursor> scanCursorWithPrefixAsync(MemorySegment prefix) {
+        return new IteratorPublisher<>(() -> new CursorIterator(dao.cursorWithPrefix(prefix)), ioPool);
+    }
+
+    public Flow.Publisher<Entry<MemorySegment>> scanWithPrefixAsync(MemorySegment prefix) {
+        return new IteratorPublisher<>(() -> dao.getWithPrefix(prefix), ioPool);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsPool) {
+            UtilsClass.shutdownAndAwaitTermination(ioPool);
+        }
+        dao.close();
+    }
+}
@@ -0,0 +1,154 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compaction running in background.
+ * Progress is the share of records read from the compacted files, they are read twice: to count sizes and to write.
+ * Cancelled compaction leaves files as they were, unless it is already replacing them.
+ */
+public final class Compaction implements Future<Void> {
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    // completes when the task is really over, even if it was cancelled earlier
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private final AtomicLong read = new AtomicLong();
+    private volatile long total;
+    private volatile boolean cancelRequested;
+    private boolean committing;
+
+    /**
+     * Returns share of work done.
+     * @return number from 0 to 1
+     */
+    public double progress() {
+        if (result.isDone() && !result.isCompletedExceptionally()) {
+            return 1;
+        }
+        long records = total;
+        return records == 0 ? 0 : Math.min(1, (double) read.get() / (2 * records));
+    }
+
+    void start(long recordsCount) {
+        total = recordsCount;
+    }
+
+    // files can't be left half replaced, so cancellation is too late after this
+    synchronized boolean beginCommit() {
+        if (cancelRequested) {
+            return false;
+        }
+        committing = true;
+        return true;
+    }
+
+    Cursor track(Cursor cursor) {
+        return new TrackingCursor(cursor);
+    }
+
+    void complete() {
+        result.complete(null);
+        finished.complete(null);
+    }
+
+    void fail(Throwable e) {
+        result.completeExceptionally(e);
+        finished.complete(null);
+    }
+
+    void awaitFinished() throws InterruptedException {
+        try {
+            finished.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (committing || result.isDone()) {
+            return false;
+        }
+        cancelRequested = true;
+        return result.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+
+    private final class TrackingCursor implements Cursor {
+        private final Cursor delegate;
+
+        TrackingCursor(Cursor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean next() {
+            if (cancelRequested) {
+                throw new CancellationException("Compaction is cancelled");
+            }
+            read.incrementAndGet();
+            return delegate.next();
+        }
+
+        @Override
+        public MemorySegment keySegment() {
+            return delegate.keySegment();
+        }
+
+        @Override
+        public long keyOffset() {
+            return delegate.keyOffset();
+        }
+
+        @Override
+        public long keySize() {
+            return delegate.keySize();
+        }
+
+        @Override
+        public MemorySegment valueSegment() {
+            return delegate.valueSegment();
+        }
+
+        @Override
+        public long valueOffset() {
+            return delegate.valueOffset();
+        }
+
+        @Override
+        public long valueSize() {
+            return delegate.valueSize();
+        }
+
+        @Override
+        public long timestamp() {
+            return delegate.timestamp();
+        }
+    }
+}
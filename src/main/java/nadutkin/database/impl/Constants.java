@@ -21,13 +21,46 @@ public final class Constants {
     });
 
     public static final Logger LOG = LoggerFactory.getLogger(MemorySegmentDao.class);
-    public static final long VERSION = 0;
+    public static final long VERSION = 2;
+    // records of files since this version have timestamps
+    public static final long VERSION_TIMESTAMPS = 2;
     public static final int INDEX_HEADER_SIZE = Long.BYTES * 3;
     public static final int INDEX_RECORD_SIZE = Long.BYTES;
+    public static final long META_LEARNED_INDEX = 1;
+    public static final long LEARNED_INDEX_MAX_ERROR = 32;
+    public static final long LEARNED_INDEX_MIN_KEYS_PER_SEGMENT = 16;
+    public static final long META_PREFIX_FILTER = 2;
+    public static final long PREFIX_FILTER_BITS_PER_KEY = 10;
+    public static final long PREFIX_FILTER_HASHES = 7;
+    public static final long META_KEY_PREFIXES = 3;
+    public static final long META_MAX_TIMESTAMP = 4;
+    public static final long MULTI_GET_MAX_GALLOP_GAP = 16;
+    public static final long FLUSH_PARTITION_MIN_BYTES = 4L << 20;
+    public static final int FLUSH_MAX_PARTITIONS = Runtime.getRuntime().availableProcessors();
+    public static final long TARGET_FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+    public static final long MEMTABLES_BUDGET_PARTS = 4;
+    public static final int AUTO_COMPACTION_FILES = 8;
+    public static final long VECTORIZED_COMPARE_MIN_BYTES = 128;
+    public static final long PRIVATE_IO_BUFFER_BYTES = 1L << 20;
+    public static final long PRIVATE_IO_MIN_BLOCK_BYTES = 4096;
+    public static final long PRIVATE_IO_SYNC_BYTES = 8L << 20;
+    public static final int READAHEAD_THREADS = 2;
+    public static final int READAHEAD_MAX_PENDING = 8;
+    public static final long READAHEAD_MIN_BYTES = 64L << 10;
+    public static final long READAHEAD_MAX_BYTES = 2L << 20;
+    public static final String KEYSPACES_DIR = "keyspaces";
+    public static final String KEYSPACE_NAME_PATTERN = "[A-Za-z0-9_-]{1,64}";
+    // besides the default one
+    public static final int MAX_KEYSPACES = 16;
+    public static final String KEYSPACE_TUNING_FILE = "keyspace.properties";
     public static final String FILE_NAME = "data";
 
     public static final String FILE_EXT = ".dat";
     public static final String FILE_EXT_TMP = ".tmp";
+    public static final String FILE_EXT_PART = ".part";
+    public static final String FILE_EXT_SPOOL = ".spool";
+    public static final String FILE_EXT_COMPACTING = ".compacting";
+    public static final int SPOOL_BUFFER_BYTES = 1 << 20;
     public static final String COMPACTED_FILE = FILE_NAME + "_compacted_" + FILE_EXT;
 
     private Constants() {
@@ -0,0 +1,48 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Position in the ordered sequence of entries, which is moved in place instead of allocating entries.
+ * Key and value are given as ranges of segments, they are valid until the next call of next.
+ */
+public interface Cursor {
+    /**
+     * Moves to the next entry, the cursor is before the first entry after creation.
+     * @return false if there are no more entries
+     */
+    boolean next();
+
+    MemorySegment keySegment();
+
+    long keyOffset();
+
+    long keySize();
+
+    MemorySegment valueSegment();
+
+    long valueOffset();
+
+    /**
+     * Returns size of the value.
+     * @return size of the value, -1 for tombstone
+     */
+    long valueSize();
+
+    /**
+     * Returns version of the entry, see {@link nadutkin.database.Entry#timestamp()}.
+     * @return timestamp, 0 for entries without version
+     */
+    long timestamp();
+
+    default boolean isTombstone() {
+        return valueSize() < 0;
+    }
+
+    static int compareKeys(Cursor first, Cursor second) {
+        return MemorySegmentComparator.compare(
+                first.keySegment(), first.keyOffset(), first.keySize(),
+                second.keySegment(), second.keyOffset(), second.keySize()
+        );
+    }
+}
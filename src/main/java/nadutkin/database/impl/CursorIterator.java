@@ -0,0 +1,33 @@
+package nadutkin.database.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// returns the same moved cursor on each call, so consumers must not keep it
+final class CursorIterator implements Iterator<Cursor> {
+    private final Cursor cursor;
+    private boolean moved;
+    private boolean hasNext;
+
+    CursorIterator(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!moved) {
+            hasNext = cursor.next();
+            moved = true;
+        }
+        return hasNext;
+    }
+
+    @Override
+    public Cursor next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        moved = false;
+        return cursor;
+    }
+}
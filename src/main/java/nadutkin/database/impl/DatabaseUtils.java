@@ -3,25 +3,43 @@ package nadutkin.database.impl;
 import jdk.incubator.foreign.MemorySegment;
 import nadutkin.database.Config;
 import nadutkin.database.Entry;
+import nadutkin.database.RangeEstimate;
+import nadutkin.utils.MemoryManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static nadutkin.database.impl.StorageMethods.getSizeOnDisk;
 
 public class DatabaseUtils {
+    // the smallest key greater than all keys with the prefix, null if there is no such key
+    public static MemorySegment prefixEnd(MemorySegment prefix) {
+        byte[] end = prefix.toByteArray();
+        for (int i = end.length - 1; i >= 0; i--) {
+            if (end[i] != (byte) 0xFF) {
+                end[i]++;
+                return MemorySegment.ofArray(Arrays.copyOf(end, i + 1));
+            }
+        }
+        return null;
+    }
+
     public static class State {
         public final Memory memory;
         public final Memory flushing;
         public final Storage storage;
         public final boolean closed;
         final Config config;
+        final MemoryManager.Reservation reservation;
 
-        State(Config config, Memory memory, Memory flushing, Storage storage) {
+        State(Config config, MemoryManager.Reservation reservation, Memory memory, Memory flushing, Storage storage) {
             this.config = config;
+            this.reservation = reservation;
             this.memory = memory;
             this.flushing = flushing;
             this.storage = storage;
@@ -30,29 +48,32 @@ public class DatabaseUtils {
 
         State(Config config, Storage storage, boolean closed) {
             this.config = config;
+            this.reservation = null;
             this.memory = Memory.EMPTY;
             this.flushing = Memory.EMPTY;
             this.storage = storage;
             this.closed = closed;
         }
 
-        public static State newState(Config config, Storage storage) {
+        public static State newState(Config config, MemoryManager.Reservation reservation, Storage storage) {
             return new State(
                     config,
-                    new Memory(config.flushThresholdBytes()),
+                    reservation,
+                    new Memory(config.flushThresholdBytes(), reservation, config.appendMemtable()),
                     Memory.EMPTY,
                     storage
             );
         }
 
-        public State prepareForFlush() {
+        public State prepareForFlush(long nextFlushThresholdBytes) {
             checkNotClosed();
             if (isFlushing()) {
                 throw new IllegalStateException("Already flushing");
             }
             return new State(
                     config,
-                    new Memory(config.flushThresholdBytes()),
+                    reservation,
+                    new Memory(nextFlushThresholdBytes, reservation, config.appendMemtable()),
                     memory,
                     storage
             );
@@ -63,8 +84,10 @@ public class DatabaseUtils {
             if (!isFlushing()) {
                 throw new IllegalStateException("Wasn't flushing");
             }
+            flushing.release();
             return new State(
                     config,
+                    reservation,
                     memory,
                     Memory.EMPTY,
                     storage
@@ -75,6 +98,18 @@ public class DatabaseUtils {
             checkNotClosed();
             return new State(
                     config,
+                    reservation,
+                    memory,
+                    flushing,
+                    storage
+            );
+        }
+
+        public State afterIngest(Storage storage) {
+            checkNotClosed();
+            return new State(
+                    config,
+                    reservation,
                     memory,
                     flushing,
                     storage
@@ -86,6 +121,8 @@ public class DatabaseUtils {
             if (!storage.isClosed()) {
                 throw new IllegalStateException("Storage should be closed early");
             }
+            memory.release();
+            flushing.release();
             return new State(config, storage, true);
         }
 
@@ -102,17 +139,35 @@ public class DatabaseUtils {
 
     public static class Memory {
 
-        static final Memory EMPTY = new Memory(-1);
+        static final Memory EMPTY = new Memory(-1, null, false);
         private final AtomicLong size = new AtomicLong();
         private final AtomicBoolean oversized = new AtomicBoolean();
 
-        private final ConcurrentSkipListMap<MemorySegment, Entry<MemorySegment>> delegate =
-                new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+        private final MemTable delegate;
 
         private final long sizeThreshold;
+        private final MemoryManager.Reservation reservation;
+        private final long createdAt = System.nanoTime();
 
-        Memory(long sizeThreshold) {
+        Memory(long sizeThreshold, MemoryManager.Reservation reservation, boolean appendOptimized) {
             this.sizeThreshold = sizeThreshold;
+            this.reservation = reservation;
+            this.delegate = appendOptimized ? new AppendMemTable() : new SkipListMemTable();
+        }
+
+        public long size() {
+            return size.get();
+        }
+
+        public long ageNanos() {
+            return System.nanoTime() - createdAt;
+        }
+
+        // memory of the flushed table goes back to the budget
+        void release() {
+            if (reservation != null) {
+                reservation.release(size.getAndSet(0));
+            }
         }
 
         public boolean isEmpty() {
@@ -133,6 +188,9 @@ public class DatabaseUtils {
                 sizeDelta -= getSizeOnDisk(segmentEntry);
             }
             long newSize = size.addAndGet(sizeDelta);
+            if (reservation != null) {
+                reservation.acquire(sizeDelta);
+            }
             if (newSize > sizeThreshold) {
                 return !oversized.getAndSet(true);
             }
@@ -143,10 +201,38 @@ public class DatabaseUtils {
             return !oversized.getAndSet(true);
         }
 
+        // first keys of parts with about the same size on disk, parts are not empty
+        public List<MemorySegment> splitKeys(int parts) {
+            List<MemorySegment> bounds = new ArrayList<>(parts - 1);
+            long total = size.get();
+            long written = 0;
+            for (Entry<MemorySegment> entry : delegate.values()) {
+                if (written > 0 && bounds.size() < parts - 1 && written >= total * (bounds.size() + 1) / parts) {
+                    bounds.add(entry.key());
+                }
+                written += getSizeOnDisk(entry);
+            }
+            return bounds;
+        }
+
+        public Cursor cursor(MemorySegment from, MemorySegment to) {
+            return new EntryCursor(get(from, to));
+        }
+
         public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-            return to == null
-                    ? delegate.tailMap(from).values().iterator()
-                    : delegate.subMap(from, to).values().iterator();
+            return delegate.get(from, to);
+        }
+
+        // memory is bounded by flush threshold, so it is cheap enough to sum sizes of the range
+        public RangeEstimate estimate(MemorySegment from, MemorySegment to) {
+            long keys = 0;
+            long bytes = 0;
+            Iterator<Entry<MemorySegment>> iterator = get(from, to);
+            while (iterator.hasNext()) {
+                bytes += getSizeOnDisk(iterator.next());
+                keys++;
+            }
+            return new RangeEstimate(keys, bytes);
         }
 
         public Entry<MemorySegment> get(MemorySegment key) {
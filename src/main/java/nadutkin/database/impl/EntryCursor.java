@@ -0,0 +1,57 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.Entry;
+
+import java.util.Iterator;
+
+// entries of memtables are already in memory, so they are just exposed one by one
+final class EntryCursor implements Cursor {
+    private final Iterator<Entry<MemorySegment>> iterator;
+    private Entry<MemorySegment> current;
+
+    EntryCursor(Iterator<Entry<MemorySegment>> iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean next() {
+        current = iterator.hasNext() ? iterator.next() : null;
+        return current != null;
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return current.key();
+    }
+
+    @Override
+    public long keyOffset() {
+        return 0;
+    }
+
+    @Override
+    public long keySize() {
+        return current.key().byteSize();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return current.value();
+    }
+
+    @Override
+    public long valueOffset() {
+        return 0;
+    }
+
+    @Override
+    public long valueSize() {
+        return current.value() == null ? -1 : current.value().byteSize();
+    }
+
+    @Override
+    public long timestamp() {
+        return current.timestamp();
+    }
+}
@@ -9,6 +9,9 @@ public final class EntryKeyComparator implements Comparator<Entry<MemorySegment>
 
     public static final Comparator<Entry<MemorySegment>> INSTANCE = new EntryKeyComparator();
 
+    // versions of entries with the same key
+    public static final Comparator<Entry<MemorySegment>> TIMESTAMPS = Comparator.comparingLong(Entry::timestamp);
+
     private EntryKeyComparator() {
     }
 
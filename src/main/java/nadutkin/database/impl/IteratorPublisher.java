@@ -0,0 +1,97 @@
+package nadutkin.database.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes entries of the iterator on the executor, not more than the subscriber requested.
+ * Iterator is opened on subscription, each subscriber gets its own one.
+ */
+public class IteratorPublisher<E> implements Flow.Publisher<E> {
+    private final Supplier<Iterator<E>> iterators;
+    private final Executor executor;
+
+    public IteratorPublisher(Supplier<Iterator<E>> iterators, Executor executor) {
+        this.iterators = iterators;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super E> subscriber) {
+        subscriber.onSubscribe(new IteratorSubscription<>(subscriber, iterators, executor));
+    }
+
+    private static final class IteratorSubscription<E> implements Flow.Subscription {
+        private final Flow.Subscriber<? super E> subscriber;
+        private final Supplier<Iterator<E>> iterators;
+        private final Executor executor;
+        private final AtomicLong demand = new AtomicLong();
+        // number of drain requests, only the one who made it non zero drains
+        private final AtomicInteger drains = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private Iterator<E> iterator;
+
+        IteratorSubscription(Flow.Subscriber<? super E> subscriber,
+                             Supplier<Iterator<E>> iterators,
+                             Executor executor) {
+            this.subscriber = subscriber;
+            this.iterators = iterators;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            if (drains.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            done.set(true);
+        }
+
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                try {
+                    if (iterator == null && !done.get()) {
+                        iterator = iterators.get();
+                    }
+                    while (!done.get() && demand.get() > 0 && iterator.hasNext()) {
+                        subscriber.onNext(iterator.next());
+                        demand.decrementAndGet();
+                    }
+                    if (!done.get() && !iterator.hasNext() && done.compareAndSet(false, true)) {
+                        subscriber.onComplete();
+                    }
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+                missed = drains.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            if (done.compareAndSet(false, true)) {
+                subscriber.onError(throwable);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * 8 bytes of every key after the prefix common for all keys of the file, as big-endian unsigned long.
+ * Stored in the order of the index, so the binary search compares them on contiguous memory
+ * and reads the key itself only if they are equal.
+ */
+final class KeyPrefixes implements MetaSection {
+    private static final int HEADER_SIZE = Long.BYTES;
+
+    private final long commonLength;
+    private final MemorySegment prefixes;
+    // first key of the file, it has the common prefix
+    private final MemorySegment firstKey;
+    private long position;
+
+    private KeyPrefixes(long commonLength, MemorySegment prefixes, MemorySegment firstKey) {
+        this.commonLength = commonLength;
+        this.prefixes = prefixes;
+        this.firstKey = firstKey;
+    }
+
+    static KeyPrefixes create(MemorySegment firstKey, MemorySegment lastKey, long recordsCount) {
+        long mismatch = firstKey.mismatch(lastKey);
+        long commonLength = mismatch == -1 ? firstKey.byteSize() : mismatch;
+        MemorySegment prefixes = MemorySegment.ofArray(new long[Math.toIntExact(recordsCount)]);
+        return new KeyPrefixes(commonLength, prefixes, firstKey);
+    }
+
+    void add(MemorySegment segment, long keyOffset, long keySize) {
+        MemoryAccess.setLongAtOffset(prefixes, position * Long.BYTES,
+                LearnedIndex.project(segment, keyOffset, keySize, commonLength));
+        position++;
+    }
+
+    long at(long keyIndex) {
+        return MemoryAccess.getLongAtOffset(prefixes, keyIndex * Long.BYTES);
+    }
+
+    // keys without the common prefix are less or greater than all keys of the file,
+    // their prefix is the least or the greatest, so equal prefixes are compared by keys
+    long prefix(MemorySegment key) {
+        long shared = Math.min(commonLength, key.byteSize());
+        int compared = MemorySegmentComparator.compare(key, 0, shared, firstKey, 0, shared);
+        if (compared != 0) {
+            return compared < 0 ? 0 : -1L;
+        }
+        if (key.byteSize() < commonLength) {
+            return 0;
+        }
+        return LearnedIndex.project(key, commonLength);
+    }
+
+    @Override
+    public long tag() {
+        return Constants.META_KEY_PREFIXES;
+    }
+
+    @Override
+    public long byteSize() {
+        return HEADER_SIZE + prefixes.byteSize();
+    }
+
+    @Override
+    public void write(MemorySegment target) {
+        MemoryAccess.setLongAtOffset(target, 0, commonLength);
+        target.asSlice(HEADER_SIZE).copyFrom(prefixes);
+    }
+
+    static KeyPrefixes read(MemorySegment source, MemorySegment firstKey) {
+        long commonLength = MemoryAccess.getLongAtOffset(source, 0);
+        return new KeyPrefixes(commonLength, source.asSlice(HEADER_SIZE), firstKey);
+    }
+}
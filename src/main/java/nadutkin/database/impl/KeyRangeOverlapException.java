@@ -0,0 +1,9 @@
+package nadutkin.database.impl;
+
+public class KeyRangeOverlapException extends RuntimeException {
+
+    public KeyRangeOverlapException(String message) {
+        super(message);
+    }
+
+}
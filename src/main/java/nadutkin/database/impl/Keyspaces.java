@@ -0,0 +1,224 @@
+package nadutkin.database.impl;
+
+import nadutkin.database.Config;
+import nadutkin.utils.MemoryManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Named keyspaces, each of them has its own memtables, files and tuning.
+ * Keyspaces are created explicitly, reads and writes of the others find nothing.
+ * Tuning is stored in the directory of the keyspace, so it is opened with the same tuning after restart.
+ * They share one background thread for flushes, one for compactions and one memory budget.
+ * Default keyspace lives right in the base directory, so existing data stays in it.
+ */
+public class Keyspaces implements Closeable {
+    public static final String DEFAULT = "default";
+
+    private final Config defaults;
+    private final MemoryManager memoryManager;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "MemorySegmentDaoBG"));
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "MemorySegmentDaoCompaction"));
+    private final Map<String, MemorySegmentDao> keyspaces = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates keyspaces.
+     * @param defaults configuration of the default keyspace, the others take their tuning from it by default
+     * @param memoryManager shared memory budget, null for fixed flush thresholds
+     */
+    public Keyspaces(Config defaults, MemoryManager memoryManager) {
+        this.defaults = defaults;
+        this.memoryManager = memoryManager;
+    }
+
+    public static boolean isValidName(String name) {
+        return name.matches(Constants.KEYSPACE_NAME_PATTERN);
+    }
+
+    /**
+     * Returns keyspace, opens it, if it is stored, but not open yet.
+     * @param name name of the keyspace
+     * @return dao of the keyspace, null if it was never created
+     */
+    public MemorySegmentDao keyspace(String name) {
+        MemorySegmentDao dao = keyspaces.get(name);
+        if (dao != null) {
+            return dao;
+        }
+        if (!isValidName(name)) {
+            return null;
+        }
+        if (DEFAULT.equals(name)) {
+            return open(name, defaults);
+        }
+        // the keyspace being created has its directory before its tuning
+        synchronized (this) {
+            if (!Files.isDirectory(path(name))) {
+                return null;
+            }
+            try {
+                return open(name, readTuning(path(name)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates keyspace with the default tuning or returns the existing one.
+     * @param name name of the keyspace
+     * @return dao of the keyspace
+     * @throws IllegalStateException if there are already {@link Constants#MAX_KEYSPACES} keyspaces
+     */
+    public MemorySegmentDao create(String name) throws IOException {
+        return create(name, defaults);
+    }
+
+    /**
+     * Creates keyspace with the given tuning or returns the existing one with its own tuning.
+     * @param name name of the keyspace
+     * @param tuning configuration of the keyspace, its base path is ignored
+     * @return dao of the keyspace
+     * @throws IllegalStateException if there are already {@link Constants#MAX_KEYSPACES} keyspaces
+     */
+    public synchronized MemorySegmentDao create(String name, Config tuning) throws IOException {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid keyspace name: " + name);
+        }
+        MemorySegmentDao dao = keyspace(name);
+        if (dao != null) {
+            return dao;
+        }
+        Path directory = defaults.basePath().resolve(Constants.KEYSPACES_DIR);
+        Files.createDirectories(directory);
+        try (Stream<Path> stored = Files.list(directory)) {
+            if (stored.filter(Files::isDirectory).count() >= Constants.MAX_KEYSPACES) {
+                throw new IllegalStateException("There are already " + Constants.MAX_KEYSPACES + " keyspaces");
+            }
+        }
+        Files.createDirectories(path(name));
+        writeTuning(path(name), tuning);
+        return open(name, tuning);
+    }
+
+    /**
+     * Returns tuning of the keyspace, as it is stored.
+     * @param name name of the keyspace
+     * @return configuration of the keyspace, null if it was never created
+     */
+    public Config tuning(String name) {
+        MemorySegmentDao dao = keyspace(name);
+        return dao == null ? null : dao.config();
+    }
+
+    // keyspaces created before the tuning was stored have the default one
+    private Config readTuning(Path basePath) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(basePath.resolve(Constants.KEYSPACE_TUNING_FILE),
+                StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            return defaults.withBasePath(basePath);
+        }
+        return new Config(basePath,
+                Long.parseLong(properties.getProperty("flushThresholdBytes",
+                        Long.toString(defaults.flushThresholdBytes()))),
+                Boolean.parseBoolean(properties.getProperty("learnedIndex",
+                        Boolean.toString(defaults.learnedIndex()))),
+                Long.parseLong(properties.getProperty("prefixLength", Long.toString(defaults.prefixLength()))),
+                Boolean.parseBoolean(properties.getProperty("appendMemtable",
+                        Boolean.toString(defaults.appendMemtable()))));
+    }
+
+    // written aside and moved in place, so the tuning is read either whole or not at all
+    private static void writeTuning(Path basePath, Config tuning) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("flushThresholdBytes", Long.toString(tuning.flushThresholdBytes()));
+        properties.setProperty("learnedIndex", Boolean.toString(tuning.learnedIndex()));
+        properties.setProperty("prefixLength", Long.toString(tuning.prefixLength()));
+        properties.setProperty("appendMemtable", Boolean.toString(tuning.appendMemtable()));
+        Path file = basePath.resolve(Constants.KEYSPACE_TUNING_FILE);
+        Path tmp = basePath.resolve(Constants.KEYSPACE_TUNING_FILE + Constants.FILE_EXT_TMP);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream out = Channels.newOutputStream(channel)) {
+            properties.store(out, null);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private MemorySegmentDao open(String name, Config tuning) {
+        if (closed) {
+            throw new IllegalStateException("Keyspaces are already closed");
+        }
+        return keyspaces.computeIfAbsent(name, ignored -> {
+            try {
+                Path basePath = path(name);
+                Files.createDirectories(basePath);
+                return new MemorySegmentDao(tuning.withBasePath(basePath), memoryManager, executor,
+                        compactionExecutor, DEFAULT.equals(name) ? "memtable" : "memtable." + name, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private Path path(String name) {
+        if (DEFAULT.equals(name)) {
+            return defaults.basePath();
+        }
+        return defaults.basePath().resolve(Constants.KEYSPACES_DIR).resolve(name);
+    }
+
+    public Set<String> names() {
+        return Set.copyOf(keyspaces.keySet());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException exception = null;
+        for (MemorySegmentDao dao : keyspaces.values()) {
+            try {
+                dao.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        MemorySegmentDao.shutdown(executor);
+        MemorySegmentDao.shutdown(compactionExecutor);
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
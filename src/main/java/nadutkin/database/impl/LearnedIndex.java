@@ -0,0 +1,218 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Piecewise linear model, which predicts position of the key in the file with error not more than maxError.
+ * Key is projected to the unsigned long made of 8 bytes after the prefix, common for all keys of the file.
+ */
+final class LearnedIndex implements MetaSection {
+    private static final int SEGMENT_SIZE = 3 * Long.BYTES;
+    private static final int HEADER_SIZE = 3 * Long.BYTES;
+
+    private final long prefixLength;
+    private final long maxError;
+    private final long[] firstKeys;
+    private final long[] firstPositions;
+    private final double[] slopes;
+
+    private LearnedIndex(long prefixLength, long maxError, long[] firstKeys, long[] firstPositions, double[] slopes) {
+        this.prefixLength = prefixLength;
+        this.maxError = maxError;
+        this.firstKeys = firstKeys;
+        this.firstPositions = firstPositions;
+        this.slopes = slopes;
+    }
+
+    long maxError() {
+        return maxError;
+    }
+
+    long predict(MemorySegment key) {
+        long projection = project(key, prefixLength);
+
+        int left = 0;
+        int right = firstKeys.length - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (Long.compareUnsigned(firstKeys[mid], projection) <= 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+
+        if (Long.compareUnsigned(projection, firstKeys[left]) <= 0) {
+            return firstPositions[left];
+        }
+        return firstPositions[left] + (long) (slopes[left] * distance(firstKeys[left], projection));
+    }
+
+    static long project(MemorySegment key, long prefixLength) {
+        return project(key, 0, key.byteSize(), prefixLength);
+    }
+
+    static long project(MemorySegment segment, long keyOffset, long keySize, long prefixLength) {
+        long size = keySize - prefixLength;
+        if (size >= Long.BYTES) {
+            return MemoryAccess.getLongAtOffset(segment, keyOffset + prefixLength, ByteOrder.BIG_ENDIAN);
+        }
+        long result = 0;
+        for (long i = 0; i < Long.BYTES; i++) {
+            result <<= 8;
+            if (i < size) {
+                result |= MemoryAccess.getByteAtOffset(segment, keyOffset + prefixLength + i) & 0xFF;
+            }
+        }
+        return result;
+    }
+
+    // unsigned to - from as double, to >= from
+    private static double distance(long from, long to) {
+        long diff = to - from;
+        if (diff >= 0) {
+            return diff;
+        }
+        return (diff >>> 1) * 2.0 + (diff & 1);
+    }
+
+    @Override
+    public long tag() {
+        return Constants.META_LEARNED_INDEX;
+    }
+
+    @Override
+    public long byteSize() {
+        return HEADER_SIZE + (long) SEGMENT_SIZE * firstKeys.length;
+    }
+
+    @Override
+    public void write(MemorySegment target) {
+        MemoryAccess.setLongAtOffset(target, 0, prefixLength);
+        MemoryAccess.setLongAtOffset(target, Long.BYTES, maxError);
+        MemoryAccess.setLongAtOffset(target, 2 * Long.BYTES, firstKeys.length);
+        for (int i = 0; i < firstKeys.length; i++) {
+            long offset = HEADER_SIZE + (long) SEGMENT_SIZE * i;
+            MemoryAccess.setLongAtOffset(target, offset, firstKeys[i]);
+            MemoryAccess.setLongAtOffset(target, offset + Long.BYTES, firstPositions[i]);
+            MemoryAccess.setDoubleAtOffset(target, offset + 2 * Long.BYTES, slopes[i]);
+        }
+    }
+
+    static LearnedIndex read(MemorySegment source) {
+        long prefixLength = MemoryAccess.getLongAtOffset(source, 0);
+        long maxError = MemoryAccess.getLongAtOffset(source, Long.BYTES);
+        int segments = (int) MemoryAccess.getLongAtOffset(source, 2 * Long.BYTES);
+        long[] firstKeys = new long[segments];
+        long[] firstPositions = new long[segments];
+        double[] slopes = new double[segments];
+        for (int i = 0; i < segments; i++) {
+            long offset = HEADER_SIZE + (long) SEGMENT_SIZE * i;
+            firstKeys[i] = MemoryAccess.getLongAtOffset(source, offset);
+            firstPositions[i] = MemoryAccess.getLongAtOffset(source, offset + Long.BYTES);
+            slopes[i] = MemoryAccess.getDoubleAtOffset(source, offset + 2 * Long.BYTES);
+        }
+        return new LearnedIndex(prefixLength, maxError, firstKeys, firstPositions, slopes);
+    }
+
+    /**
+     * Builds model in one pass over sorted keys (shrinking cone).
+     * Model is rejected, if too many keys share the same projection or it doesn't save enough probes.
+     */
+    static final class Builder {
+        private final long prefixLength;
+        private final long maxError;
+
+        private long[] firstKeys = new long[16];
+        private long[] firstPositions = new long[16];
+        private double[] slopes = new double[16];
+        private int segments;
+
+        private long position;
+        private long runStart;
+        private long lastKey;
+        private double slopeLow;
+        private double slopeHigh;
+        private boolean rejected;
+
+        Builder(MemorySegment firstKey, MemorySegment lastKey, long maxError) {
+            long mismatch = firstKey.mismatch(lastKey);
+            this.prefixLength = mismatch == -1 ? firstKey.byteSize() : mismatch;
+            this.maxError = maxError;
+        }
+
+        void add(MemorySegment key) {
+            add(key, 0, key.byteSize());
+        }
+
+        void add(MemorySegment segment, long keyOffset, long keySize) {
+            if (rejected) {
+                return;
+            }
+            long projection = project(segment, keyOffset, keySize, prefixLength);
+            long current = position++;
+
+            if (segments > 0 && projection == lastKey) {
+                // equal projections can't be told apart, so the whole run has to fit into the error
+                if (current - runStart > maxError) {
+                    rejected = true;
+                    return;
+                }
+            } else {
+                runStart = current;
+                lastKey = projection;
+            }
+
+            if (segments > 0) {
+                int last = segments - 1;
+                if (projection == firstKeys[last]) {
+                    // predicted as the first position of the segment, the run is already checked
+                    return;
+                }
+                double dx = distance(firstKeys[last], projection);
+                double low = (current - maxError - firstPositions[last]) / dx;
+                double high = (current + maxError - firstPositions[last]) / dx;
+                if (low <= slopeHigh && high >= slopeLow) {
+                    slopeLow = Math.max(slopeLow, low);
+                    slopeHigh = Math.min(slopeHigh, high);
+                    return;
+                }
+                closeSegment();
+            }
+            startSegment(projection, current);
+        }
+
+        private void startSegment(long key, long firstPosition) {
+            if (segments == firstKeys.length) {
+                firstKeys = Arrays.copyOf(firstKeys, segments * 2);
+                firstPositions = Arrays.copyOf(firstPositions, segments * 2);
+                slopes = Arrays.copyOf(slopes, segments * 2);
+            }
+            firstKeys[segments] = key;
+            firstPositions[segments] = firstPosition;
+            segments++;
+            slopeLow = 0;
+            slopeHigh = Double.POSITIVE_INFINITY;
+        }
+
+        private void closeSegment() {
+            slopes[segments - 1] = slopeHigh == Double.POSITIVE_INFINITY ? slopeLow : (slopeLow + slopeHigh) / 2;
+        }
+
+        LearnedIndex build() {
+            if (rejected || position < Constants.LEARNED_INDEX_MIN_KEYS_PER_SEGMENT
+                    || (long) segments * Constants.LEARNED_INDEX_MIN_KEYS_PER_SEGMENT > position) {
+                return null;
+            }
+            closeSegment();
+            return new LearnedIndex(prefixLength, maxError,
+                    Arrays.copyOf(firstKeys, segments),
+                    Arrays.copyOf(firstPositions, segments),
+                    Arrays.copyOf(slopes, segments));
+        }
+    }
+}
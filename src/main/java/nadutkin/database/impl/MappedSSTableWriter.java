@@ -0,0 +1,57 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+// flushes write through the page cache, the file is read soon anyway
+final class MappedSSTableWriter implements SSTableWriter {
+    private final ResourceScope scope = ResourceScope.newConfinedScope();
+    private final MemorySegment segment;
+    private long indexOffset = Constants.INDEX_HEADER_SIZE;
+    private long dataOffset;
+
+    MappedSSTableWriter(Path file, long dataStart, long fileSize) throws IOException {
+        this.segment = MemorySegment.mapFile(file, 0, fileSize, FileChannel.MapMode.READ_WRITE, scope);
+        this.dataOffset = dataStart;
+    }
+
+    @Override
+    public void header(long version, long entriesCount, boolean hasTombstones) {
+        MemoryAccess.setLongAtOffset(segment, 0, version);
+        MemoryAccess.setLongAtOffset(segment, 8, entriesCount);
+        MemoryAccess.setLongAtOffset(segment, 16, hasTombstones ? 1 : 0);
+    }
+
+    @Override
+    public void index(long recordOffset) {
+        MemoryAccess.setLongAtOffset(segment, indexOffset, recordOffset);
+        indexOffset += Constants.INDEX_RECORD_SIZE;
+    }
+
+    @Override
+    public long record(MemorySegment source, long sourceOffset, long size) {
+        long written = StorageMethods.writeRecord(segment, dataOffset, source, sourceOffset, size);
+        dataOffset += written;
+        return written;
+    }
+
+    @Override
+    public void timestamp(long timestamp) {
+        MemoryAccess.setLongAtOffset(segment, dataOffset, timestamp);
+        dataOffset += Long.BYTES;
+    }
+
+    @Override
+    public void close() {
+        try {
+            segment.force();
+        } finally {
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * The greatest timestamp of entries in the file.
+ * Lookups skip the file, if the entry found in newer ones has the same or greater timestamp.
+ */
+final class MaxTimestamp implements MetaSection {
+    private final long timestamp;
+
+    MaxTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public long tag() {
+        return Constants.META_MAX_TIMESTAMP;
+    }
+
+    @Override
+    public long byteSize() {
+        return Long.BYTES;
+    }
+
+    @Override
+    public void write(MemorySegment target) {
+        MemoryAccess.setLongAtOffset(target, 0, timestamp);
+    }
+}
@@ -0,0 +1,25 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.Entry;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+// sorted map of entries of one memtable, entry replaces the one with the same key and not greater timestamp
+interface MemTable {
+    /**
+     * Puts entry, unless the one with the same key has greater timestamp.
+     * @return replaced entry, which memory is given back, the given entry if it is rejected, null if there is none
+     */
+    Entry<MemorySegment> put(MemorySegment key, Entry<MemorySegment> entry);
+
+    Entry<MemorySegment> get(MemorySegment key);
+
+    // to is null for no upper bound
+    Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to);
+
+    Collection<Entry<MemorySegment>> values();
+
+    boolean isEmpty();
+}
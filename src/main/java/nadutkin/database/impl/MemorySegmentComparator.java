@@ -3,12 +3,20 @@ package nadutkin.database.impl;
 import jdk.incubator.foreign.MemoryAccess;
 import jdk.incubator.foreign.MemorySegment;
 
+import java.nio.ByteOrder;
 import java.util.Comparator;
 
 public final class MemorySegmentComparator implements Comparator<MemorySegment> {
 
     public static final Comparator<MemorySegment> INSTANCE = new MemorySegmentComparator();
 
+    private static final long UNROLLED_BYTES = 4L * Long.BYTES;
+
+    // SIMD is used, if the module is added and vectors are wider than words
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("nadutkin.scalar")
+            && VectorizedComparison.vectorBytes() > Long.BYTES;
+
     private MemorySegmentComparator() {
     }
 
@@ -29,4 +37,55 @@ public final class MemorySegmentComparator implements Comparator<MemorySegment>
                 MemoryAccess.getByteAtOffset(m2, firstMismatch)
         );
     }
+
+    // compares ranges of segments without slicing, words are compared as big-endian to keep byte order
+    // it allocates nothing, so cursors, merges and compaction use it for every step
+    public static int compare(MemorySegment s1, long offset1, long size1, MemorySegment s2, long offset2, long size2) {
+        int compared = compareWords(s1, offset1, s2, offset2, Math.min(size1, size2));
+        return compared != 0 ? compared : Long.compare(size1, size2);
+    }
+
+    // the same for point lookups, long keys are compared by vectors, which load them through buffer views,
+    // it is paid once per probe of the binary search, not for every entry of a scan
+    static int compareLookup(MemorySegment s1, long offset1, long size1,
+                             MemorySegment s2, long offset2, long size2) {
+        if (VECTORIZED && Math.min(size1, size2) >= Constants.VECTORIZED_COMPARE_MIN_BYTES) {
+            return VectorizedComparison.compare(s1, offset1, size1, s2, offset2, size2);
+        }
+        return compare(s1, offset1, size1, s2, offset2, size2);
+    }
+
+    static int compareWords(MemorySegment s1, long offset1, MemorySegment s2, long offset2, long size) {
+        long i = 0;
+        // long keys skip equal blocks of 4 words, native order is enough to see a difference,
+        // the differing word is compared below
+        for (; i + UNROLLED_BYTES <= size; i += UNROLLED_BYTES) {
+            long difference = (MemoryAccess.getLongAtOffset(s1, offset1 + i)
+                    ^ MemoryAccess.getLongAtOffset(s2, offset2 + i))
+                    | (MemoryAccess.getLongAtOffset(s1, offset1 + i + Long.BYTES)
+                    ^ MemoryAccess.getLongAtOffset(s2, offset2 + i + Long.BYTES))
+                    | (MemoryAccess.getLongAtOffset(s1, offset1 + i + 2 * Long.BYTES)
+                    ^ MemoryAccess.getLongAtOffset(s2, offset2 + i + 2 * Long.BYTES))
+                    | (MemoryAccess.getLongAtOffset(s1, offset1 + i + 3 * Long.BYTES)
+                    ^ MemoryAccess.getLongAtOffset(s2, offset2 + i + 3 * Long.BYTES));
+            if (difference != 0) {
+                break;
+            }
+        }
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            long word1 = MemoryAccess.getLongAtOffset(s1, offset1 + i, ByteOrder.BIG_ENDIAN);
+            long word2 = MemoryAccess.getLongAtOffset(s2, offset2 + i, ByteOrder.BIG_ENDIAN);
+            if (word1 != word2) {
+                return Long.compareUnsigned(word1, word2);
+            }
+        }
+        for (; i < size; i++) {
+            byte byte1 = MemoryAccess.getByteAtOffset(s1, offset1 + i);
+            byte byte2 = MemoryAccess.getByteAtOffset(s2, offset2 + i);
+            if (byte1 != byte2) {
+                return Byte.compareUnsigned(byte1, byte2);
+            }
+        }
+        return 0;
+    }
 }
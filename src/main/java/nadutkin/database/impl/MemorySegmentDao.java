@@ -4,18 +4,30 @@ import jdk.incubator.foreign.MemorySegment;
 import nadutkin.database.Config;
 import nadutkin.database.Dao;
 import nadutkin.database.Entry;
+import nadutkin.database.RangeEstimate;
+import nadutkin.utils.MemoryManager;
 import nadutkin.utils.UtilsClass;
 
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>> {
@@ -24,16 +36,78 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
 
     private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
 
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(
-            r -> new Thread(r, "MemorySegmentDaoBG"));
+    // flushes, ingests and checkpoints
+    private final ExecutorService executor;
+
+    // compactions never delay flushes, they replace files under filesLock
+    private final ExecutorService compactionExecutor;
+
+    // shared executors are shut down by their owner
+    private final boolean ownsExecutor;
+
+    // files are replaced and storage is reloaded by one task at a time
+    private final Lock filesLock = new ReentrantLock();
+
+    private final AtomicReference<Compaction> compaction = new AtomicReference<>();
+
+    // threads live only while large flushes are written
+    private final ExecutorService flushPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "MemorySegmentDaoFlush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Readahead readahead = new Readahead(Constants.READAHEAD_THREADS);
 
     private volatile DatabaseUtils.State state;
 
     private final Config config;
 
+    private final MemoryManager.Reservation reservation;
+
+    private final boolean readOnly;
+
     public MemorySegmentDao(Config config) throws IOException {
+        this(config, null);
+    }
+
+    /**
+     * Creates dao, which takes memtables memory from the shared budget.
+     * It flushes early, when the budget is exhausted, and adapts flush threshold to the write rate.
+     * @param config dao configuration
+     * @param memoryManager shared memory budget, null for fixed flush threshold
+     */
+    public MemorySegmentDao(Config config, MemoryManager memoryManager) throws IOException {
+        this(config, memoryManager, null, null, "memtable", false);
+    }
+
+    MemorySegmentDao(Config config,
+                     MemoryManager memoryManager,
+                     ExecutorService sharedExecutor,
+                     ExecutorService sharedCompactionExecutor,
+                     String reservationName,
+                     boolean readOnly) throws IOException {
         this.config = config;
-        this.state = DatabaseUtils.State.newState(config, StorageMethods.load(config));
+        this.ownsExecutor = sharedExecutor == null;
+        this.executor = ownsExecutor
+                ? Executors.newSingleThreadExecutor(r -> new Thread(r, "MemorySegmentDaoBG"))
+                : sharedExecutor;
+        this.compactionExecutor = ownsExecutor
+                ? Executors.newSingleThreadExecutor(r -> new Thread(r, "MemorySegmentDaoCompaction"))
+                : sharedCompactionExecutor;
+        this.reservation = memoryManager == null ? null : memoryManager.register(reservationName, null);
+        this.readOnly = readOnly;
+        this.state = DatabaseUtils.State.newState(config, reservation,
+                readOnly ? StorageMethods.load(config) : StorageMethods.open(config));
+    }
+
+    /**
+     * Opens checkpoint made by {@link #checkpoint(Path)} for reading, upserts and compaction are rejected.
+     * @param config configuration with the checkpoint directory as the base path
+     * @return read-only dao
+     */
+    public static MemorySegmentDao openReadOnly(Config config) throws IOException {
+        return new MemorySegmentDao(config, null, null, null, "memtable", true);
     }
 
     @Override
@@ -49,37 +123,171 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
                                                                                 MemorySegment finish) {
         DatabaseUtils.State accessState = accessState();
 
-        List<Iterator<Entry<MemorySegment>>> iterators = accessState.storage.iterate(start, finish);
+        List<Iterator<Entry<MemorySegment>>> iterators = accessState.storage.iterate(start, finish, null, readahead);
 
         iterators.add(accessState.flushing.get(start, finish));
         iterators.add(accessState.memory.get(start, finish));
 
-        Iterator<Entry<MemorySegment>> mergeIterator = MergeIterator.of(iterators, EntryKeyComparator.INSTANCE);
+        Iterator<Entry<MemorySegment>> mergeIterator = MergeIterator.of(iterators,
+                EntryKeyComparator.INSTANCE, EntryKeyComparator.TIMESTAMPS);
+
+        return new UtilsClass.TombstoneFilteringIterator(mergeIterator);
+    }
+
+    /**
+     * Returns cursor over live entries with keys between from (inclusive) and to (exclusive).
+     * Unlike iterators, it doesn't allocate entries, key and value are valid until the cursor is moved.
+     * @param start lower bound of range (inclusive), null for the first key
+     * @param finish upper bound of range (exclusive), null for no bound
+     * @return cursor before the first entry of [start;finish)
+     */
+    public Cursor cursor(MemorySegment start, MemorySegment finish) {
+        DatabaseUtils.State accessState = accessState();
+        MemorySegment from = start == null ? VERY_FIRST_KEY : start;
+
+        List<Cursor> cursors = accessState.storage.cursors(from, finish, null, readahead);
+
+        cursors.add(accessState.flushing.cursor(from, finish));
+        cursors.add(accessState.memory.cursor(from, finish));
+
+        return MergeCursor.of(cursors, true);
+    }
+
+    /**
+     * Returns cursor over live entries with keys starting with the prefix, see {@link #getWithPrefix}.
+     * @param prefix common beginning of keys
+     * @return cursor before the first entry with the prefix
+     */
+    public Cursor cursorWithPrefix(MemorySegment prefix) {
+        DatabaseUtils.State accessState = accessState();
+        MemorySegment finish = DatabaseUtils.prefixEnd(prefix);
+
+        List<Cursor> cursors = accessState.storage.cursors(prefix, finish, prefix, readahead);
+
+        cursors.add(accessState.flushing.cursor(prefix, finish));
+        cursors.add(accessState.memory.cursor(prefix, finish));
+
+        return MergeCursor.of(cursors, true);
+    }
+
+    /**
+     * Returns ordered iterator of entries with keys starting with the prefix.
+     * Files, which don't have such keys according to prefix filters, are not even opened.
+     * @param prefix common beginning of keys
+     * @return entries with the prefix
+     */
+    public Iterator<Entry<MemorySegment>> getWithPrefix(MemorySegment prefix) {
+        DatabaseUtils.State accessState = accessState();
+        MemorySegment finish = DatabaseUtils.prefixEnd(prefix);
+
+        List<Iterator<Entry<MemorySegment>>> iterators = accessState.storage.iterate(prefix, finish, prefix, readahead);
+
+        iterators.add(accessState.flushing.get(prefix, finish));
+        iterators.add(accessState.memory.get(prefix, finish));
+
+        Iterator<Entry<MemorySegment>> mergeIterator = MergeIterator.of(iterators,
+                EntryKeyComparator.INSTANCE, EntryKeyComparator.TIMESTAMPS);
 
         return new UtilsClass.TombstoneFilteringIterator(mergeIterator);
     }
 
+    public Config config() {
+        return config;
+    }
+
+    public Readahead readahead() {
+        return readahead;
+    }
+
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
         DatabaseUtils.State accessState = accessState();
 
+        Entry<MemorySegment> result = accessState.storage.get(key, getFromMemory(accessState, key));
+
+        return (result == null || result.isTombstone()) ? null : result;
+    }
+
+    /**
+     * Returns entries for the batch of keys, sorting them once and sweeping each file with one cursor.
+     * @param keys keys in any order, duplicates are allowed
+     * @return entries in the order of keys, null for absent ones
+     */
+    @Override
+    public List<Entry<MemorySegment>> multiGet(List<MemorySegment> keys) {
+        DatabaseUtils.State accessState = accessState();
+
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> MemorySegmentComparator.INSTANCE.compare(keys.get(a), keys.get(b)));
+
+        List<MemorySegment> sortedKeys = new ArrayList<>(order.length);
+        @SuppressWarnings("unchecked")
+        Entry<MemorySegment>[] found = new Entry[order.length];
+        for (int i = 0; i < order.length; i++) {
+            MemorySegment key = keys.get(order[i]);
+            sortedKeys.add(key);
+            found[i] = getFromMemory(accessState, key);
+        }
+        accessState.storage.multiGet(sortedKeys, found);
+
+        List<Entry<MemorySegment>> result = new ArrayList<>(Collections.nCopies(order.length, null));
+        for (int i = 0; i < order.length; i++) {
+            if (found[i] != null && !found[i].isTombstone()) {
+                result.set(order[i], found[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns entry from memory tables only, tombstones included.
+     * @param key entry`s key
+     * @return entry, null if it should be looked for in storage, also if files may have a newer one
+     */
+    public Entry<MemorySegment> getFromMemory(MemorySegment key) {
+        DatabaseUtils.State accessState = accessState();
+        Entry<MemorySegment> result = getFromMemory(accessState, key);
+        if (result == null || result.timestamp() < accessState.storage.maxTimestamp()) {
+            return null;
+        }
+        return result;
+    }
+
+    private static Entry<MemorySegment> getFromMemory(DatabaseUtils.State accessState, MemorySegment key) {
         Entry<MemorySegment> result = accessState.memory.get(key);
-        if (result == null) {
-            result = accessState.storage.get(key);
+        Entry<MemorySegment> flushing = accessState.flushing.get(key);
+        if (result == null || (flushing != null && flushing.timestamp() > result.timestamp())) {
+            return flushing;
         }
+        return result;
+    }
 
-        return (result == null || result.isTombstone()) ? null : result;
+    @Override
+    public RangeEstimate estimate(MemorySegment from, MemorySegment to) {
+        DatabaseUtils.State accessState = accessState();
+        MemorySegment start = from == null ? VERY_FIRST_KEY : from;
+
+        return accessState.storage.estimate(start, to)
+                .plus(accessState.flushing.estimate(start, to))
+                .plus(accessState.memory.estimate(start, to));
     }
 
     @SuppressWarnings("FutureReturnValueIgnored")
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        DatabaseUtils.State accessState = accessState();
+        if (readOnly) {
+            throw new UnsupportedOperationException("Dao is read-only");
+        }
+        DatabaseUtils.State accessState;
 
         boolean runFlush;
         // it is intentionally the read lock!!!
         upsertLock.readLock().lock();
         try {
+            accessState = accessState();
             runFlush = accessState.memory.put(entry.key(), entry);
         } finally {
             upsertLock.readLock().unlock();
@@ -87,7 +295,24 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
 
         if (runFlush) {
             flushInBg(false);
+        } else if (reservation != null && reservation.manager().isUnderPressure()
+                && !accessState.isFlushing() && accessState.memory.overflow()) {
+            // early flush to give memory back, one more flush in progress is fine
+            flushInBg(true);
+        }
+    }
+
+    private long nextFlushThreshold(DatabaseUtils.Memory flushed) {
+        long minThreshold = config.flushThresholdBytes();
+        if (reservation == null) {
+            return minThreshold;
         }
+        // the table being written and the flushing one are in memory together
+        long maxThreshold = Math.max(minThreshold,
+                reservation.manager().budget() / Constants.MEMTABLES_BUDGET_PARTS);
+        double bytesPerNano = (double) flushed.size() / Math.max(1, flushed.ageNanos());
+        long byWriteRate = (long) (bytesPerNano * Constants.TARGET_FLUSH_INTERVAL_NANOS);
+        return Math.min(Math.max(minThreshold, byWriteRate), maxThreshold);
     }
 
     private Future<?> flushInBg(boolean tolerateFlushInProgress) {
@@ -102,7 +327,7 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
                 throw new TooManyFlushesInBgException();
             }
 
-            accessState = accessState.prepareForFlush();
+            accessState = accessState.prepareForFlush(nextFlushThreshold(accessState.memory));
             this.state = accessState;
         } finally {
             upsertLock.writeLock().unlock();
@@ -112,15 +337,25 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
             try {
                 DatabaseUtils.State accessState = accessState();
 
+                // compaction doesn't change the next file index, so the file can be written without the lock
                 Storage storage = accessState.storage;
-                StorageMethods.save(config, storage, accessState.flushing.values());
-                Storage load = StorageMethods.load(config);
+                StorageMethods.save(config, storage, accessState.flushing, flushPool);
 
-                upsertLock.writeLock().lock();
+                Storage load;
+                filesLock.lock();
                 try {
-                    this.state = accessState.afterFlush(load);
+                    load = StorageMethods.load(config);
+                    upsertLock.writeLock().lock();
+                    try {
+                        this.state = accessState().afterFlush(load);
+                    } finally {
+                        upsertLock.writeLock().unlock();
+                    }
                 } finally {
-                    upsertLock.writeLock().unlock();
+                    filesLock.unlock();
+                }
+                if (load.sstables.size() >= Constants.AUTO_COMPACTION_FILES && !readOnly) {
+                    compact();
                 }
                 return null;
             } catch (Exception e) {
@@ -155,43 +390,140 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
     }
 
     @Override
-    public void compact() {
-        DatabaseUtils.State preCompactState = accessState();
-
-        if (preCompactState.memory.isEmpty() && preCompactState.storage.isCompacted()) {
-            return;
+    public void checkpoint(Path target) throws IOException {
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        if (!accessState().memory.isEmpty()) {
+            // flush in progress doesn't take the current table, so wait for it first
+            awaitAndUnwrap(executor.submit(() -> null));
+            flush();
         }
+        // flushes run in this thread and compactions replace files under the lock,
+        // so the set of files can't change meanwhile
+        Future<Object> future = executor.submit(() -> {
+            filesLock.lock();
+            try {
+                StorageMethods.checkpoint(config, accessState().storage, target);
+            } finally {
+                filesLock.unlock();
+            }
+            return null;
+        });
+        awaitAndUnwrap(future);
+    }
 
+    /**
+     * Moves files made by {@link SSTableBuilder} into the storage as the newest ones.
+     * Entries still in memory win over the ingested ones with the same keys.
+     * @param files files with keys not overlapping with each other and with stored files
+     * @throws KeyRangeOverlapException if keys overlap
+     */
+    @Override
+    public void ingest(List<Path> files) throws IOException {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Dao is read-only");
+        }
         Future<Object> future = executor.submit(() -> {
-            DatabaseUtils.State accessState = accessState();
+            filesLock.lock();
+            try {
+                StorageMethods.ingest(config, accessState().storage, files);
+                Storage storage = StorageMethods.load(config);
 
-            if (accessState.memory.isEmpty() && accessState.storage.isCompacted()) {
-                return null;
+                upsertLock.writeLock().lock();
+                try {
+                    this.state = accessState().afterIngest(storage);
+                } finally {
+                    upsertLock.writeLock().unlock();
+                }
+            } finally {
+                filesLock.unlock();
             }
+            return null;
+        });
 
-            StorageMethods.compact(
-                    config,
-                    () -> MergeIterator.of(
-                            accessState.storage.iterate(VERY_FIRST_KEY,
-                                    null
-                            ),
-                            EntryKeyComparator.INSTANCE
-                    )
-            );
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new RuntimeException(e);
+        }
+    }
 
-            Storage storage = StorageMethods.load(config);
+    /**
+     * Starts compaction of stored files in background, flushes go on meanwhile.
+     * Files flushed during compaction stay newer than the compacted one.
+     * It is also started after flush, when there are too many files.
+     * @return compaction in progress, the already running one, if there is such
+     */
+    @Override
+    public Compaction compact() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Dao is read-only");
+        }
+        accessState();
+        while (true) {
+            Compaction running = compaction.get();
+            if (running != null && !running.isDone()) {
+                return running;
+            }
+            Compaction next = new Compaction();
+            if (compaction.compareAndSet(running, next)) {
+                compactionExecutor.execute(() -> runCompaction(next));
+                return next;
+            }
+        }
+    }
+
+    private void runCompaction(Compaction task) {
+        try {
+            if (!task.isCancelled()) {
+                compact(task);
+            }
+            task.complete();
+        } catch (CancellationException e) {
+            task.fail(e);
+        } catch (Exception e) {
+            Constants.LOG.error("Can't compact", e);
+            task.fail(e);
+        }
+    }
+
+    private void compact(Compaction task) throws IOException {
+        Storage storage = accessState().storage;
+        if (storage.isCompacted()) {
+            return;
+        }
+        task.start(storage.recordsCount());
+
+        Path compactedFile = StorageMethods.compact(config, storage, task::track);
+
+        filesLock.lock();
+        try {
+            if (!task.beginCommit()) {
+                Files.deleteIfExists(compactedFile);
+                return;
+            }
+            StorageMethods.finishCompact(config, storage, compactedFile);
+            Storage load = StorageMethods.load(config);
 
             upsertLock.writeLock().lock();
             try {
-                this.state = accessState.afterCompact(storage);
+                this.state = accessState().afterCompact(load);
             } finally {
                 upsertLock.writeLock().unlock();
             }
-
-            return null;
-        });
-
-        awaitAndUnwrap(future);
+        } finally {
+            filesLock.unlock();
+        }
     }
 
     private void awaitAndUnwrap(Future<?> future) {
@@ -202,6 +534,18 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
         }
     }
 
+    static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(10, TimeUnit.DAYS)) {
+                Constants.LOG.info("Waiting for termination to close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
     private DatabaseUtils.State accessState() {
         DatabaseUtils.State accessState = this.state;
         if (accessState.closed) {
@@ -216,15 +560,28 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
         if (closeState.closed) {
             return;
         }
-        executor.shutdown();
-        try {
-            while (!executor.awaitTermination(10, TimeUnit.DAYS)) {
-                Constants.LOG.info("Waiting for termination to close");
+        // compaction can be long, it is started again after reopening
+        Compaction runningCompaction = compaction.get();
+        if (runningCompaction != null) {
+            runningCompaction.cancel(false);
+        }
+        if (ownsExecutor) {
+            shutdown(executor);
+            shutdown(compactionExecutor);
+        } else {
+            // tasks are run in order, so all tasks of this dao are done after this one
+            awaitAndUnwrap(executor.submit(() -> null));
+            if (runningCompaction != null) {
+                try {
+                    runningCompaction.awaitFinished();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
         }
+        readahead.close();
+        flushPool.shutdown();
         closeState = this.state;
         closeState.storage.close();
         this.state = closeState.afterClosed();
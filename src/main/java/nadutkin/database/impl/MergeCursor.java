@@ -0,0 +1,163 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.util.List;
+
+/**
+ * Merges cursors ordered by keys, the entry with the greater timestamp wins for equal keys,
+ * the later cursor in the list wins for equal timestamps.
+ * Cursors are kept in the binary heap, nothing is allocated per entry.
+ */
+final class MergeCursor implements Cursor {
+    private final Cursor[] heap;
+    private final int[] priorities;
+    private final boolean skipTombstones;
+    private int size;
+    // cursors positioned at the current key, they are moved on the next call
+    private final Cursor[] used;
+    private final int[] usedPriorities;
+    private int usedCount;
+    private Cursor current;
+
+    private MergeCursor(List<Cursor> cursors, boolean skipTombstones) {
+        this.heap = new Cursor[cursors.size()];
+        this.priorities = new int[cursors.size()];
+        this.used = new Cursor[cursors.size()];
+        this.usedPriorities = new int[cursors.size()];
+        this.skipTombstones = skipTombstones;
+        for (int i = 0; i < cursors.size(); i++) {
+            used[i] = cursors.get(i);
+            usedPriorities[i] = i;
+        }
+        this.usedCount = cursors.size();
+    }
+
+    /**
+     * Merges cursors.
+     * @param cursors cursors, which are not moved yet, newer last
+     * @param skipTombstones whether deleted entries should be hidden
+     * @return merged cursor
+     */
+    static Cursor of(List<Cursor> cursors, boolean skipTombstones) {
+        return new MergeCursor(cursors, skipTombstones);
+    }
+
+    @Override
+    public boolean next() {
+        while (true) {
+            for (int i = 0; i < usedCount; i++) {
+                if (used[i].next()) {
+                    push(used[i], usedPriorities[i]);
+                }
+                used[i] = null;
+            }
+            usedCount = 0;
+            if (size == 0) {
+                current = null;
+                return false;
+            }
+
+            current = heap[0];
+            while (size > 0 && (heap[0] == current || Cursor.compareKeys(heap[0], current) == 0)) {
+                used[usedCount] = heap[0];
+                usedPriorities[usedCount] = priorities[0];
+                usedCount++;
+                pop();
+            }
+            if (!skipTombstones || !current.isTombstone()) {
+                return true;
+            }
+        }
+    }
+
+    private boolean less(int first, int second) {
+        int compared = Cursor.compareKeys(heap[first], heap[second]);
+        if (compared != 0) {
+            return compared < 0;
+        }
+        long firstTimestamp = heap[first].timestamp();
+        long secondTimestamp = heap[second].timestamp();
+        if (firstTimestamp != secondTimestamp) {
+            return firstTimestamp > secondTimestamp;
+        }
+        return priorities[first] > priorities[second];
+    }
+
+    private void swap(int first, int second) {
+        Cursor cursor = heap[first];
+        heap[first] = heap[second];
+        heap[second] = cursor;
+        int priority = priorities[first];
+        priorities[first] = priorities[second];
+        priorities[second] = priority;
+    }
+
+    private void push(Cursor cursor, int priority) {
+        int index = size++;
+        heap[index] = cursor;
+        priorities[index] = priority;
+        while (index > 0 && less(index, (index - 1) / 2)) {
+            swap(index, (index - 1) / 2);
+            index = (index - 1) / 2;
+        }
+    }
+
+    private void pop() {
+        size--;
+        swap(0, size);
+        heap[size] = null;
+        int index = 0;
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && less(left, smallest)) {
+                smallest = left;
+            }
+            if (right < size && less(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return current.keySegment();
+    }
+
+    @Override
+    public long keyOffset() {
+        return current.keyOffset();
+    }
+
+    @Override
+    public long keySize() {
+        return current.keySize();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return current.valueSegment();
+    }
+
+    @Override
+    public long valueOffset() {
+        return current.valueOffset();
+    }
+
+    @Override
+    public long valueSize() {
+        return current.valueSize();
+    }
+
+    @Override
+    public long timestamp() {
+        return current.timestamp();
+    }
+}
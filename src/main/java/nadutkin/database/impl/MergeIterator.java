@@ -18,6 +18,13 @@ public class MergeIterator<E> implements Iterator<E> {
 
     // iterators are strictly ordered by comparator (previous element always < next element)
     public static <E> Iterator<E> of(List<Iterator<E>> iterators, Comparator<E> comparator) {
+        return of(iterators, comparator, (o1, o2) -> 0);
+    }
+
+    // of equal elements the greatest by versions wins, the one of the later iterator wins for equal versions
+    public static <E> Iterator<E> of(List<Iterator<E>> iterators,
+                                     Comparator<E> comparator,
+                                     Comparator<E> versions) {
         switch (iterators.size()) {
             case 0:
                 return Collections.emptyIterator();
@@ -32,6 +39,10 @@ public class MergeIterator<E> implements Iterator<E> {
             if (result != 0) {
                 return result;
             }
+            result = versions.compare(o2.peek(), o1.peek());
+            if (result != 0) {
+                return result;
+            }
             // reverse order
             return Integer.compare(o2.index, o1.index);
         });
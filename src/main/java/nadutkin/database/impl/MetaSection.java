@@ -0,0 +1,12 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+
+// additional per-file structure, stored after the data in (tag/size/payload) form
+interface MetaSection {
+    long tag();
+
+    long byteSize();
+
+    void write(MemorySegment target);
+}
@@ -0,0 +1,108 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Bloom filter over the first prefixLength bytes of keys (whole key, if it is shorter).
+ * Read from the file as is, without copying bits to the heap.
+ */
+final class PrefixFilter implements MetaSection {
+    private static final int HEADER_SIZE = 3 * Long.BYTES;
+
+    private final long prefixLength;
+    private final long hashes;
+    private final long bitsCount;
+    private final MemorySegment bits;
+
+    private PrefixFilter(long prefixLength, long hashes, long bitsCount, MemorySegment bits) {
+        this.prefixLength = prefixLength;
+        this.hashes = hashes;
+        this.bitsCount = bitsCount;
+        this.bits = bits;
+    }
+
+    static PrefixFilter create(long prefixLength, long prefixesCount) {
+        long bitsCount = Math.max(Long.SIZE, prefixesCount * Constants.PREFIX_FILTER_BITS_PER_KEY);
+        long words = (bitsCount + Long.SIZE - 1) / Long.SIZE;
+        MemorySegment bits = MemorySegment.ofArray(new long[Math.toIntExact(words)]);
+        return new PrefixFilter(prefixLength, Constants.PREFIX_FILTER_HASHES, words * Long.SIZE, bits);
+    }
+
+    static long prefixSize(MemorySegment key, long prefixLength) {
+        return Math.min(key.byteSize(), prefixLength);
+    }
+
+    // keys with the prefix shorter than the extracted one can be anywhere
+    boolean isApplicable(MemorySegment prefix) {
+        return prefix.byteSize() >= prefixLength;
+    }
+
+    void add(MemorySegment key) {
+        add(key, 0, key.byteSize());
+    }
+
+    void add(MemorySegment segment, long keyOffset, long keySize) {
+        long hash = hash(segment, keyOffset, Math.min(keySize, prefixLength));
+        long delta = Long.rotateRight(hash, 17) | 1;
+        for (long i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(hash, bitsCount);
+            long offset = (bit >>> 6) * Long.BYTES;
+            MemoryAccess.setLongAtOffset(bits, offset, MemoryAccess.getLongAtOffset(bits, offset) | (1L << bit));
+            hash += delta;
+        }
+    }
+
+    boolean mightContain(MemorySegment prefix) {
+        long hash = hash(prefix, 0, prefixLength);
+        long delta = Long.rotateRight(hash, 17) | 1;
+        for (long i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(hash, bitsCount);
+            if ((MemoryAccess.getLongAtOffset(bits, (bit >>> 6) * Long.BYTES) & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += delta;
+        }
+        return true;
+    }
+
+    // FNV-1a with murmur3 finalizer
+    private static long hash(MemorySegment segment, long offset, long size) {
+        long hash = 0xcbf29ce484222325L;
+        for (long i = 0; i < size; i++) {
+            hash ^= MemoryAccess.getByteAtOffset(segment, offset + i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public long tag() {
+        return Constants.META_PREFIX_FILTER;
+    }
+
+    @Override
+    public long byteSize() {
+        return HEADER_SIZE + bits.byteSize();
+    }
+
+    @Override
+    public void write(MemorySegment target) {
+        MemoryAccess.setLongAtOffset(target, 0, prefixLength);
+        MemoryAccess.setLongAtOffset(target, Long.BYTES, hashes);
+        MemoryAccess.setLongAtOffset(target, 2 * Long.BYTES, bitsCount);
+        target.asSlice(HEADER_SIZE).copyFrom(bits);
+    }
+
+    static PrefixFilter read(MemorySegment source) {
+        long prefixLength = MemoryAccess.getLongAtOffset(source, 0);
+        long hashes = MemoryAccess.getLongAtOffset(source, Long.BYTES);
+        long bitsCount = MemoryAccess.getLongAtOffset(source, 2 * Long.BYTES);
+        return new PrefixFilter(prefixLength, hashes, bitsCount, source.asSlice(HEADER_SIZE));
+    }
+}
@@ -0,0 +1,82 @@
+package nadutkin.database.impl;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File channel for bulk I/O, which shouldn't wash hot pages out of the page cache.
+ * It is opened with O_DIRECT, so positions, sizes and addresses of buffers must be aligned to the block size.
+ * File systems without O_DIRECT (tmpfs, for example) get the plain channel with the same alignment.
+ */
+final class PrivateIO implements Closeable {
+    final FileChannel channel;
+    final boolean direct;
+    final long blockSize;
+
+    private PrivateIO(FileChannel channel, boolean direct, long blockSize) {
+        this.channel = channel;
+        this.direct = direct;
+        this.blockSize = blockSize;
+    }
+
+    static PrivateIO open(Path file, StandardOpenOption mode) throws IOException {
+        try {
+            long blockSize = Math.max(Constants.PRIVATE_IO_MIN_BLOCK_BYTES, Files.getFileStore(file).getBlockSize());
+            return new PrivateIO(FileChannel.open(file, mode, ExtendedOpenOption.DIRECT), true, blockSize);
+        } catch (UnsupportedOperationException | IOException e) {
+            return new PrivateIO(FileChannel.open(file, mode), false, Constants.PRIVATE_IO_MIN_BLOCK_BYTES);
+        }
+    }
+
+    long alignDown(long position) {
+        return position - position % blockSize;
+    }
+
+    long alignUp(long position) {
+        return alignDown(position + blockSize - 1);
+    }
+
+    MemorySegment allocate(long size, ResourceScope scope) {
+        return MemorySegment.allocateNative(alignUp(size), blockSize, scope);
+    }
+
+    // reads until the buffer is full or the file ends
+    long read(MemorySegment buffer, long position) throws IOException {
+        ByteBuffer byteBuffer = buffer.asByteBuffer();
+        long read = 0;
+        while (byteBuffer.hasRemaining()) {
+            int bytes = channel.read(byteBuffer, position + read);
+            if (bytes <= 0) {
+                break;
+            }
+            read += bytes;
+            if (direct && bytes % blockSize != 0) {
+                // the end of the file, the next position wouldn't be aligned
+                break;
+            }
+        }
+        return read;
+    }
+
+    void write(MemorySegment buffer, long position) throws IOException {
+        ByteBuffer byteBuffer = buffer.asByteBuffer();
+        long written = 0;
+        while (byteBuffer.hasRemaining()) {
+            written += channel.write(byteBuffer, position + written);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
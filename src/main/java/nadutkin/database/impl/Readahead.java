@@ -0,0 +1,103 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads pages of files ahead of range iterators in background, so the scan doesn't wait for each page fault.
+ * Window of each iterator starts small and doubles while the scan goes on, so short scans read little extra.
+ */
+public final class Readahead {
+    private final ExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadedBytes = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    Readahead(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "MemorySegmentDaoReadahead-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // range [from;to) of the file is going to be read sequentially
+    Window open(MemorySegment segment, long from, long to) {
+        return new Window(segment, from, to);
+    }
+
+    public long loads() {
+        return loads.sum();
+    }
+
+    public long loadedBytes() {
+        return loadedBytes.sum();
+    }
+
+    // windows not loaded, because too many loads were in progress
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private void load(MemorySegment slice) {
+        // disk is already busy, one more request only adds latency to the others
+        if (pending.incrementAndGet() > Constants.READAHEAD_MAX_PENDING) {
+            pending.decrementAndGet();
+            skipped.increment();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    slice.load();
+                    loads.increment();
+                    loadedBytes.add(slice.byteSize());
+                } catch (IllegalStateException e) {
+                    // storage is closed, nobody needs these pages
+                    skipped.increment();
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+        }
+    }
+
+    final class Window {
+        private final MemorySegment segment;
+        private final long end;
+        private long loadedUntil;
+        private long size;
+
+        private Window(MemorySegment segment, long from, long to) {
+            this.segment = segment;
+            this.end = to;
+            this.loadedUntil = from;
+            this.size = Constants.READAHEAD_MIN_BYTES;
+        }
+
+        // next load starts when the reader passes the middle of the loaded window
+        void advance(long offset) {
+            if (loadedUntil >= end || offset + size / 2 < loadedUntil) {
+                return;
+            }
+            long start = Math.max(offset, loadedUntil);
+            long length = Math.min(size, end - start);
+            loadedUntil = start + length;
+            size = Math.min(size * 2, Constants.READAHEAD_MAX_BYTES);
+            load(segment.asSlice(start, length));
+        }
+    }
+}
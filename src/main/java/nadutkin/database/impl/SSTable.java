@@ -0,0 +1,108 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static nadutkin.database.impl.Constants.INDEX_HEADER_SIZE;
+import static nadutkin.database.impl.Constants.INDEX_RECORD_SIZE;
+
+// file structure:
+// (fileVersion)(entryCount)(hasTombstones)((entryPosition)...)
+// |((keySize/key/timestamp/valueSize/value)...)|(meta)(metaOffset)
+// meta is a sequence of (tag/size/payload) sections, files of version 0 end right after the data,
+// records of files before version 2 have no timestamp
+final class SSTable {
+    final MemorySegment segment;
+    final long recordsCount;
+    final long dataEnd;
+    final LearnedIndex learnedIndex;
+    final PrefixFilter prefixFilter;
+    final KeyPrefixes keyPrefixes;
+    final boolean timestamped;
+    // the greatest timestamp of entries, 0 for files without timestamps
+    final long maxTimestamp;
+
+    private SSTable(MemorySegment segment,
+                    long recordsCount,
+                    long dataEnd,
+                    boolean timestamped,
+                    Map<Long, MemorySegment> meta) {
+        this.segment = segment;
+        this.recordsCount = recordsCount;
+        this.dataEnd = dataEnd;
+        this.timestamped = timestamped;
+        MemorySegment maxTimestampSection = meta.get(Constants.META_MAX_TIMESTAMP);
+        this.maxTimestamp = maxTimestampSection == null ? 0 : MemoryAccess.getLongAtOffset(maxTimestampSection, 0);
+        MemorySegment learnedIndexSection = meta.get(Constants.META_LEARNED_INDEX);
+        this.learnedIndex = learnedIndexSection == null ? null : LearnedIndex.read(learnedIndexSection);
+        MemorySegment prefixFilterSection = meta.get(Constants.META_PREFIX_FILTER);
+        this.prefixFilter = prefixFilterSection == null ? null : PrefixFilter.read(prefixFilterSection);
+        MemorySegment keyPrefixesSection = meta.get(Constants.META_KEY_PREFIXES);
+        this.keyPrefixes = keyPrefixesSection == null ? null : KeyPrefixes.read(keyPrefixesSection, keyAt(0));
+    }
+
+    static SSTable open(MemorySegment segment) {
+        long fileVersion = MemoryAccess.getLongAtOffset(segment, 0);
+        long recordsCount = MemoryAccess.getLongAtOffset(segment, 8);
+        if (fileVersion == 0) {
+            return new SSTable(segment, recordsCount, segment.byteSize(), false, Map.of());
+        }
+        if (fileVersion < 0 || fileVersion > Constants.VERSION) {
+            throw new IllegalStateException("Unknown file version: " + fileVersion);
+        }
+
+        long metaEnd = segment.byteSize() - Long.BYTES;
+        long metaOffset = MemoryAccess.getLongAtOffset(segment, metaEnd);
+        Map<Long, MemorySegment> meta = new HashMap<>();
+        long offset = metaOffset;
+        while (offset < metaEnd) {
+            long tag = MemoryAccess.getLongAtOffset(segment, offset);
+            long size = MemoryAccess.getLongAtOffset(segment, offset + Long.BYTES);
+            meta.put(tag, segment.asSlice(offset + 2L * Long.BYTES, size));
+            offset += 2L * Long.BYTES + size;
+        }
+        return new SSTable(segment, recordsCount, metaOffset, fileVersion >= Constants.VERSION_TIMESTAMPS, meta);
+    }
+
+    long timestampBytes() {
+        return timestamped ? Long.BYTES : 0;
+    }
+
+    boolean mightContainPrefix(MemorySegment prefix) {
+        return prefixFilter == null || !prefixFilter.isApplicable(prefix) || prefixFilter.mightContain(prefix);
+    }
+
+    long offsetAt(long keyIndex) {
+        if (keyIndex == recordsCount) {
+            return dataEnd;
+        }
+        return MemoryAccess.getLongAtOffset(segment, INDEX_HEADER_SIZE + keyIndex * INDEX_RECORD_SIZE);
+    }
+
+    // prefix of the key to compare with keys of this file, it is computed once per lookup
+    long keyPrefix(MemorySegment key) {
+        return keyPrefixes == null ? 0 : keyPrefixes.prefix(key);
+    }
+
+    // compares the key with the stored one, which is read only if their prefixes are equal
+    int compareKeyAt(MemorySegment key, long keyPrefix, long keyIndex) {
+        if (keyPrefixes != null) {
+            int compared = Long.compareUnsigned(keyPrefix, keyPrefixes.at(keyIndex));
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        long offset = offsetAt(keyIndex);
+        long keySize = MemoryAccess.getLongAtOffset(segment, offset);
+        return MemorySegmentComparator.compareLookup(key, 0, key.byteSize(), segment, offset + Long.BYTES, keySize);
+    }
+
+    MemorySegment keyAt(long keyIndex) {
+        long offset = offsetAt(keyIndex);
+        long keySize = MemoryAccess.getLongAtOffset(segment, offset);
+        return segment.asSlice(offset + Long.BYTES, keySize);
+    }
+}
@@ -0,0 +1,126 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Turns sorted stream of entries into the finished file, which can be ingested by the dao.
+ * Entries are spooled next to the target in the record format, because saving needs two passes over them.
+ */
+public final class SSTableBuilder implements Closeable {
+    private final Config config;
+    private final Path target;
+    private final Path spool;
+    private final DataOutputStream out;
+    private byte[] lastKey;
+    private boolean built;
+
+    /**
+     * Creates builder of one file.
+     * @param config configuration of the dao, which is going to ingest the file
+     * @param target path of the file to build, should be on the same file store as the dao
+     */
+    public SSTableBuilder(Config config, Path target) throws IOException {
+        this.config = config;
+        this.target = target;
+        this.spool = target.resolveSibling(target.getFileName().toString() + Constants.FILE_EXT_SPOOL);
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spool),
+                Constants.SPOOL_BUFFER_BYTES));
+    }
+
+    /**
+     * Appends entry, its key must be greater than keys of all previous entries.
+     * @param entry entry to append, tombstones are allowed
+     */
+    public void add(Entry<MemorySegment> entry) throws IOException {
+        byte[] key = entry.key().toByteArray();
+        if (lastKey != null && MemorySegmentComparator.INSTANCE.compare(
+                MemorySegment.ofArray(lastKey), entry.key()) >= 0) {
+            throw new IllegalArgumentException("Keys must be strictly increasing");
+        }
+        lastKey = key;
+        out.writeLong(key.length);
+        out.write(key);
+        out.writeLong(entry.timestamp());
+        if (entry.value() == null) {
+            out.writeLong(-1);
+        } else {
+            byte[] value = entry.value().toByteArray();
+            out.writeLong(value.length);
+            out.write(value);
+        }
+    }
+
+    /**
+     * Writes the file with index and meta sections, the builder can't be used after.
+     * @return path of the built file
+     */
+    public Path build() throws IOException {
+        out.close();
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            MemorySegment records = StorageMethods.mapForRead(scope, spool);
+            StorageMethods.save(config, () -> new SpoolIterator(records), target);
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+        built = true;
+        return target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!built) {
+            out.close();
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private static final class SpoolIterator implements Iterator<Entry<MemorySegment>> {
+        private final MemorySegment records;
+        private long offset;
+
+        private SpoolIterator(MemorySegment records) {
+            this.records = records;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return offset < records.byteSize();
+        }
+
+        // DataOutputStream writes big-endian longs
+        @Override
+        public Entry<MemorySegment> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long keySize = MemoryAccess.getLongAtOffset(records, offset, ByteOrder.BIG_ENDIAN);
+            final MemorySegment key = records.asSlice(offset + Long.BYTES, keySize);
+            offset += Long.BYTES + keySize;
+            final long timestamp = MemoryAccess.getLongAtOffset(records, offset, ByteOrder.BIG_ENDIAN);
+            offset += Long.BYTES;
+            long valueSize = MemoryAccess.getLongAtOffset(records, offset, ByteOrder.BIG_ENDIAN);
+            offset += Long.BYTES;
+            MemorySegment value = null;
+            if (valueSize != -1) {
+                value = records.asSlice(offset, valueSize);
+                offset += valueSize;
+            }
+            return new BaseEntry<>(key, value, timestamp);
+        }
+    }
+}
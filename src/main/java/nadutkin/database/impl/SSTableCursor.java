@@ -0,0 +1,81 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+final class SSTableCursor implements Cursor {
+    private final SSTable sstable;
+    private final long toIndex;
+    private final Readahead.Window window;
+    private long index;
+    private long keyOffset;
+    private long keySize;
+    private long valueSize;
+    private long timestamp;
+
+    // entries [fromIndex;toIndex) of the file
+    SSTableCursor(SSTable sstable, long fromIndex, long toIndex, Readahead.Window window) {
+        this.sstable = sstable;
+        this.toIndex = toIndex;
+        this.window = window;
+        this.index = fromIndex - 1;
+    }
+
+    @Override
+    public boolean next() {
+        if (index + 1 >= toIndex) {
+            index = toIndex;
+            return false;
+        }
+        index++;
+        MemorySegment segment = sstable.segment;
+        long offset = sstable.offsetAt(index);
+        if (window != null) {
+            window.advance(offset);
+        }
+        keySize = MemoryAccess.getLongAtOffset(segment, offset);
+        keyOffset = offset + Long.BYTES;
+        long valueHeader = keyOffset + keySize;
+        if (sstable.timestamped) {
+            timestamp = MemoryAccess.getLongAtOffset(segment, valueHeader);
+            valueHeader += Long.BYTES;
+        }
+        valueSize = MemoryAccess.getLongAtOffset(segment, valueHeader);
+        return true;
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return sstable.segment;
+    }
+
+    @Override
+    public long keyOffset() {
+        return keyOffset;
+    }
+
+    @Override
+    public long keySize() {
+        return keySize;
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return sstable.segment;
+    }
+
+    @Override
+    public long valueOffset() {
+        return keyOffset + keySize + sstable.timestampBytes() + Long.BYTES;
+    }
+
+    @Override
+    public long valueSize() {
+        return valueSize;
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,28 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// writes header, index and records of the file, index entries and records go in order
+interface SSTableWriter extends Closeable {
+    void header(long version, long entriesCount, boolean hasTombstones) throws IOException;
+
+    void index(long recordOffset) throws IOException;
+
+    /**
+     * Writes size and bytes, negative size is written without bytes.
+     * @return bytes written
+     */
+    long record(MemorySegment source, long sourceOffset, long size) throws IOException;
+
+    // written between the key and the value
+    void timestamp(long timestamp) throws IOException;
+
+    /**
+     * Makes written data durable.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,132 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads records of the whole file in large blocks into its own buffer instead of the shared mapping.
+ * Key and value are in the buffer, they are valid until the cursor is moved.
+ */
+final class SequentialSSTableCursor implements Cursor {
+    private final PrivateIO io;
+    private final ResourceScope scope;
+    private final long recordsCount;
+    // files before version 2 have no timestamps
+    private final long timestampBytes;
+    private MemorySegment buffer;
+    // file positions of the buffered bytes
+    private long bufferStart;
+    private long bufferEnd;
+    private long index;
+    private long position;
+    private long keyOffset;
+    private long keySize;
+    private long valueSize;
+    private long timestamp;
+
+    // file is closed with the scope
+    SequentialSSTableCursor(Path file, ResourceScope scope) throws IOException {
+        this.io = PrivateIO.open(file, StandardOpenOption.READ);
+        scope.addCloseAction(() -> {
+            try {
+                io.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        this.scope = scope;
+        this.buffer = io.allocate(Constants.PRIVATE_IO_BUFFER_BYTES, scope);
+        fill(0, Constants.INDEX_HEADER_SIZE);
+        long fileVersion = MemoryAccess.getLongAtOffset(buffer, 0);
+        if (fileVersion < 0 || fileVersion > Constants.VERSION) {
+            throw new IllegalStateException("Unknown file version: " + fileVersion);
+        }
+        this.timestampBytes = fileVersion >= Constants.VERSION_TIMESTAMPS ? Long.BYTES : 0;
+        this.recordsCount = MemoryAccess.getLongAtOffset(buffer, 8);
+        this.position = Constants.INDEX_HEADER_SIZE + Constants.INDEX_RECORD_SIZE * recordsCount;
+    }
+
+    @Override
+    public boolean next() {
+        if (index >= recordsCount) {
+            return false;
+        }
+        try {
+            ensure(position, Long.BYTES);
+            keySize = MemoryAccess.getLongAtOffset(buffer, position - bufferStart);
+            ensure(position, 2L * Long.BYTES + keySize + timestampBytes);
+            long valueHeader = position - bufferStart + Long.BYTES + keySize;
+            timestamp = timestampBytes == 0 ? 0 : MemoryAccess.getLongAtOffset(buffer, valueHeader);
+            valueSize = MemoryAccess.getLongAtOffset(buffer, valueHeader + timestampBytes);
+            long recordSize = 2L * Long.BYTES + keySize + timestampBytes + Math.max(valueSize, 0);
+            ensure(position, recordSize);
+            keyOffset = position - bufferStart + Long.BYTES;
+            position += recordSize;
+            index++;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void ensure(long from, long size) throws IOException {
+        if (from < bufferStart || from + size > bufferEnd) {
+            fill(from, size);
+        }
+    }
+
+    private void fill(long from, long size) throws IOException {
+        long start = io.alignDown(from);
+        long needed = io.alignUp(from + size) - start;
+        if (needed > buffer.byteSize()) {
+            // records larger than the buffer are rare, the old buffer is freed with the scope
+            buffer = io.allocate(Math.max(needed, 2 * buffer.byteSize()), scope);
+        }
+        bufferStart = start;
+        bufferEnd = start + io.read(buffer, start);
+        if (bufferEnd < from + size) {
+            throw new IllegalStateException("Unexpected end of file at " + from);
+        }
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return buffer;
+    }
+
+    @Override
+    public long keyOffset() {
+        return keyOffset;
+    }
+
+    @Override
+    public long keySize() {
+        return keySize;
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return buffer;
+    }
+
+    @Override
+    public long valueOffset() {
+        return keyOffset + keySize + timestampBytes + Long.BYTES;
+    }
+
+    @Override
+    public long valueSize() {
+        return valueSize;
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,51 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.Entry;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+final class SkipListMemTable implements MemTable {
+    private final ConcurrentSkipListMap<MemorySegment, Entry<MemorySegment>> delegate =
+            new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+
+    @Override
+    public Entry<MemorySegment> put(MemorySegment key, Entry<MemorySegment> entry) {
+        while (true) {
+            Entry<MemorySegment> existing = delegate.putIfAbsent(key, entry);
+            if (existing == null) {
+                return null;
+            }
+            if (entry.timestamp() < existing.timestamp()) {
+                return entry;
+            }
+            if (delegate.replace(key, existing, entry)) {
+                return existing;
+            }
+        }
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        return to == null
+                ? delegate.tailMap(from).values().iterator()
+                : delegate.subMap(from, to).values().iterator();
+    }
+
+    @Override
+    public Collection<Entry<MemorySegment>> values() {
+        return delegate.values();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+}
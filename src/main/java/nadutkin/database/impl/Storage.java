@@ -5,6 +5,7 @@ import jdk.incubator.foreign.MemorySegment;
 import jdk.incubator.foreign.ResourceScope;
 import nadutkin.database.BaseEntry;
 import nadutkin.database.Entry;
+import nadutkin.database.RangeEstimate;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -12,23 +13,33 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import static nadutkin.database.impl.Constants.INDEX_HEADER_SIZE;
 import static nadutkin.database.impl.Constants.INDEX_RECORD_SIZE;
 
 public class Storage implements Closeable {
     // supposed to have fresh files first
 
     private final ResourceScope scope;
-    final List<MemorySegment> sstables;
+    final List<SSTable> sstables;
+    // files are numbered one by one from this index, compaction removes the oldest of them
+    final int firstIndex;
     private final boolean hasTombstones;
+    private final long maxTimestamp;
 
-    public Storage(ResourceScope scope, List<MemorySegment> sstables, boolean hasTombstones) {
+    public Storage(ResourceScope scope, List<MemorySegment> sstables, boolean hasTombstones, int firstIndex) {
         this.scope = scope;
-        this.sstables = sstables;
+        this.firstIndex = firstIndex;
+        this.sstables = new ArrayList<>(sstables.size());
+        long max = 0;
+        for (MemorySegment sstable : sstables) {
+            SSTable opened = SSTable.open(sstable);
+            this.sstables.add(opened);
+            max = Math.max(max, opened.maxTimestamp);
+        }
         this.hasTombstones = hasTombstones;
+        this.maxTimestamp = max;
     }
 
-    private long greaterOrEqualEntryIndex(MemorySegment sstable, MemorySegment key) {
+    private long greaterOrEqualEntryIndex(SSTable sstable, MemorySegment key) {
         long index = entryIndex(sstable, key);
         if (index < 0) {
             return ~index;
@@ -36,29 +47,36 @@ public class Storage implements Closeable {
         return index;
     }
 
-    // file structure:
-    // (fileVersion)(entryCount)((entryPosition)...)|((keySize/key/valueSize/value)...)
-    private long entryIndex(MemorySegment sstable, MemorySegment key) {
-        long fileVersion = MemoryAccess.getLongAtOffset(sstable, 0);
-        if (fileVersion != 0) {
-            throw new IllegalStateException("Unknown file version: " + fileVersion);
-        }
-        long recordsCount = MemoryAccess.getLongAtOffset(sstable, 8);
+    private long entryIndex(SSTable sstable, MemorySegment key) {
+        long recordsCount = sstable.recordsCount;
         if (key == null) {
             return recordsCount;
         }
 
         long left = 0;
         long right = recordsCount - 1;
+        long keyPrefix = sstable.keyPrefix(key);
+
+        LearnedIndex learnedIndex = sstable.learnedIndex;
+        if (learnedIndex != null && recordsCount > 0) {
+            // the model is exact only for stored keys, so check that the window really contains the key
+            long predicted = Math.min(Math.max(learnedIndex.predict(key), 0), recordsCount - 1);
+            long windowLeft = Math.max(predicted - learnedIndex.maxError(), 0);
+            long windowRight = Math.min(predicted + learnedIndex.maxError(), recordsCount - 1);
+            if (sstable.compareKeyAt(key, keyPrefix, windowLeft) < 0) {
+                right = windowLeft - 1;
+            } else if (sstable.compareKeyAt(key, keyPrefix, windowRight) > 0) {
+                left = windowRight + 1;
+            } else {
+                left = windowLeft;
+                right = windowRight;
+            }
+        }
 
         while (left <= right) {
             long mid = (left + right) >>> 1;
 
-            long keyPos = MemoryAccess.getLongAtOffset(sstable, INDEX_HEADER_SIZE + mid * INDEX_RECORD_SIZE);
-            long keySize = MemoryAccess.getLongAtOffset(sstable, keyPos);
-
-            MemorySegment keyForCheck = sstable.asSlice(keyPos + Long.BYTES, keySize);
-            int comparedResult = MemorySegmentComparator.INSTANCE.compare(key, keyForCheck);
+            int comparedResult = sstable.compareKeyAt(key, keyPrefix, mid);
             if (comparedResult > 0) {
                 left = mid + 1;
             } else if (comparedResult < 0) {
@@ -71,15 +89,22 @@ public class Storage implements Closeable {
         return ~left;
     }
 
-    private Entry<MemorySegment> entryAt(MemorySegment sstable, long keyIndex) {
+    private Entry<MemorySegment> entryAt(SSTable sstable, long keyIndex) {
         try {
-            long offset = MemoryAccess.getLongAtOffset(sstable, INDEX_HEADER_SIZE + keyIndex * INDEX_RECORD_SIZE);
-            long keySize = MemoryAccess.getLongAtOffset(sstable, offset);
+            MemorySegment segment = sstable.segment;
+            long offset = sstable.offsetAt(keyIndex);
+            long keySize = MemoryAccess.getLongAtOffset(segment, offset);
             long valueOffset = offset + Long.BYTES + keySize;
-            long valueSize = MemoryAccess.getLongAtOffset(sstable, valueOffset);
+            long timestamp = 0;
+            if (sstable.timestamped) {
+                timestamp = MemoryAccess.getLongAtOffset(segment, valueOffset);
+                valueOffset += Long.BYTES;
+            }
+            long valueSize = MemoryAccess.getLongAtOffset(segment, valueOffset);
             return new BaseEntry<>(
-                    sstable.asSlice(offset + Long.BYTES, keySize),
-                    valueSize == -1 ? null : sstable.asSlice(valueOffset + Long.BYTES, valueSize)
+                    segment.asSlice(offset + Long.BYTES, keySize),
+                    valueSize == -1 ? null : segment.asSlice(valueOffset + Long.BYTES, valueSize),
+                    timestamp
             );
         } catch (IllegalStateException e) {
             throw checkForClose(e);
@@ -87,23 +112,109 @@ public class Storage implements Closeable {
     }
 
     public Entry<MemorySegment> get(MemorySegment key) {
+        return get(key, null);
+    }
+
+    /**
+     * Returns the newest entry among the found one and entries of files.
+     * Older files win only with greater timestamps, so the files, which have no such, are not searched.
+     * @param key entry`s key
+     * @param found entry found in memory, null if there is none
+     * @return entry, null if there is none
+     */
+    public Entry<MemorySegment> get(MemorySegment key, Entry<MemorySegment> found) {
         try {
+            Entry<MemorySegment> result = found;
             for (int i = sstables.size() - 1; i >= 0; i--) {
-                MemorySegment sstable = sstables.get(i);
+                SSTable sstable = sstables.get(i);
+                if (result != null && sstable.maxTimestamp <= result.timestamp()) {
+                    continue;
+                }
                 long keyFromPos = entryIndex(sstable, key);
                 if (keyFromPos >= 0) {
-                    return entryAt(sstable, keyFromPos);
+                    Entry<MemorySegment> entry = entryAt(sstable, keyFromPos);
+                    if (result == null || entry.timestamp() > result.timestamp()) {
+                        result = entry;
+                    }
+                }
+            }
+            return result;
+        } catch (IllegalStateException e) {
+            throw checkForClose(e);
+        }
+    }
+
+    // the greatest timestamp of stored entries
+    public long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    // results are filled for sorted keys, entries already found in newer tables are looked for only in files,
+    // which have greater timestamps
+    // each file is swept once from left to right, the cursor gallops to the next key
+    // if keys are sparse in the file, the learned index finds them with fewer comparisons
+    public void multiGet(List<MemorySegment> sortedKeys, Entry<MemorySegment>[] results) {
+        try {
+            for (int i = sstables.size() - 1; i >= 0; i--) {
+                SSTable sstable = sstables.get(i);
+                boolean dense = sstable.learnedIndex == null
+                        || sstable.recordsCount <= (long) sortedKeys.size() * Constants.MULTI_GET_MAX_GALLOP_GAP;
+                long cursor = 0;
+                for (int k = 0; k < sortedKeys.size() && cursor < sstable.recordsCount; k++) {
+                    if (results[k] != null && sstable.maxTimestamp <= results[k].timestamp()) {
+                        continue;
+                    }
+                    MemorySegment key = sortedKeys.get(k);
+                    long keyPrefix = sstable.keyPrefix(key);
+                    cursor = dense ? gallop(sstable, key, keyPrefix, cursor) : greaterOrEqualEntryIndex(sstable, key);
+                    if (cursor < sstable.recordsCount && sstable.compareKeyAt(key, keyPrefix, cursor) == 0) {
+                        Entry<MemorySegment> entry = entryAt(sstable, cursor);
+                        if (results[k] == null || entry.timestamp() > results[k].timestamp()) {
+                            results[k] = entry;
+                        }
+                    }
                 }
             }
-            return null;
         } catch (IllegalStateException e) {
             throw checkForClose(e);
         }
     }
 
-    private Iterator<Entry<MemorySegment>> iterate(MemorySegment sstable, MemorySegment keyFrom, MemorySegment keyTo) {
+    // index of the first key >= key, starting from the position, which key is not less than
+    private static long gallop(SSTable sstable, MemorySegment key, long keyPrefix, long from) {
+        long recordsCount = sstable.recordsCount;
+        if (sstable.compareKeyAt(key, keyPrefix, from) <= 0) {
+            return from;
+        }
+        // key at left is less than the key, key at right is not (or right is the end)
+        long left = from;
+        long step = 1;
+        long right = from + step;
+        while (right < recordsCount && sstable.compareKeyAt(key, keyPrefix, right) > 0) {
+            left = right;
+            step <<= 1;
+            right = from + step;
+        }
+        right = Math.min(right, recordsCount);
+        while (right - left > 1) {
+            long mid = (left + right) >>> 1;
+            if (sstable.compareKeyAt(key, keyPrefix, mid) > 0) {
+                left = mid;
+            } else {
+                right = mid;
+            }
+        }
+        return right;
+    }
+
+    private Iterator<Entry<MemorySegment>> iterate(SSTable sstable,
+                                                   MemorySegment keyFrom,
+                                                   MemorySegment keyTo,
+                                                   Readahead readahead) {
         long keyFromPos = greaterOrEqualEntryIndex(sstable, keyFrom);
         long keyToPos = greaterOrEqualEntryIndex(sstable, keyTo);
+        Readahead.Window window = readahead == null || keyFromPos >= keyToPos ? null
+                : readahead.open(sstable.segment, sstable.offsetAt(keyFromPos), sstable.offsetAt(keyToPos));
 
         return new Iterator<>() {
             long pos = keyFromPos;
@@ -115,6 +226,9 @@ public class Storage implements Closeable {
 
             @Override
             public Entry<MemorySegment> next() {
+                if (window != null) {
+                    window.advance(sstable.offsetAt(pos));
+                }
                 Entry<MemorySegment> entry = entryAt(sstable, pos);
                 pos++;
                 return entry;
@@ -125,10 +239,21 @@ public class Storage implements Closeable {
     // last is newer
     // it is ok to mutate list after
     public List<Iterator<Entry<MemorySegment>>> iterate(MemorySegment keyFrom, MemorySegment keyTo) {
+        return iterate(keyFrom, keyTo, null, null);
+    }
+
+    // files, which surely have no keys with the prefix, are skipped
+    // pages are loaded ahead of iterators, if readahead is given
+    public List<Iterator<Entry<MemorySegment>>> iterate(MemorySegment keyFrom,
+                                                        MemorySegment keyTo,
+                                                        MemorySegment prefix,
+                                                        Readahead readahead) {
         try {
             ArrayList<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(sstables.size());
-            for (MemorySegment sstable : sstables) {
-                iterators.add(iterate(sstable, keyFrom, keyTo));
+            for (SSTable sstable : sstables) {
+                if (prefix == null || sstable.mightContainPrefix(prefix)) {
+                    iterators.add(iterate(sstable, keyFrom, keyTo, readahead));
+                }
             }
             return iterators;
         } catch (IllegalStateException e) {
@@ -136,6 +261,50 @@ public class Storage implements Closeable {
         }
     }
 
+    // last is newer, cursors are not moved yet
+    // files, which surely have no keys with the prefix, are skipped
+    public List<Cursor> cursors(MemorySegment keyFrom,
+                                MemorySegment keyTo,
+                                MemorySegment prefix,
+                                Readahead readahead) {
+        try {
+            List<Cursor> cursors = new ArrayList<>(sstables.size() + 2);
+            for (SSTable sstable : sstables) {
+                if (prefix != null && !sstable.mightContainPrefix(prefix)) {
+                    continue;
+                }
+                long keyFromPos = greaterOrEqualEntryIndex(sstable, keyFrom);
+                long keyToPos = greaterOrEqualEntryIndex(sstable, keyTo);
+                Readahead.Window window = readahead == null || keyFromPos >= keyToPos ? null
+                        : readahead.open(sstable.segment, sstable.offsetAt(keyFromPos), sstable.offsetAt(keyToPos));
+                cursors.add(new SSTableCursor(sstable, keyFromPos, keyToPos, window));
+            }
+            return cursors;
+        } catch (IllegalStateException e) {
+            throw checkForClose(e);
+        }
+    }
+
+    // entries are laid out in key order, so the range occupies [offset(from);offset(to)) of the file
+    public RangeEstimate estimate(MemorySegment keyFrom, MemorySegment keyTo) {
+        try {
+            RangeEstimate result = RangeEstimate.EMPTY;
+            for (SSTable sstable : sstables) {
+                long keyFromPos = greaterOrEqualEntryIndex(sstable, keyFrom);
+                long keyToPos = greaterOrEqualEntryIndex(sstable, keyTo);
+                if (keyFromPos >= keyToPos) {
+                    continue;
+                }
+                long keys = keyToPos - keyFromPos;
+                long bytes = sstable.offsetAt(keyToPos) - sstable.offsetAt(keyFromPos) + keys * INDEX_RECORD_SIZE;
+                result = result.plus(new RangeEstimate(keys, bytes));
+            }
+            return result;
+        } catch (IllegalStateException e) {
+            throw checkForClose(e);
+        }
+    }
+
     private RuntimeException checkForClose(IllegalStateException e) {
         if (isClosed()) {
             throw new StorageClosedException(e);
@@ -160,6 +329,18 @@ public class Storage implements Closeable {
         return !scope.isAlive();
     }
 
+    int nextIndex() {
+        return firstIndex + sstables.size();
+    }
+
+    long recordsCount() {
+        long count = 0;
+        for (SSTable sstable : sstables) {
+            count += sstable.recordsCount;
+        }
+        return count;
+    }
+
     public boolean isCompacted() {
         if (sstables.isEmpty()) {
             return true;
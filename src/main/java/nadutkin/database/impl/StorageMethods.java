@@ -8,18 +8,58 @@ import nadutkin.database.Entry;
 import nadutkin.utils.UtilsClass;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public final class StorageMethods {
+    private static final MemorySegment VERY_FIRST_KEY = MemorySegment.ofArray(new byte[]{});
+    private static final Pattern DATA_FILE =
+            Pattern.compile(Pattern.quote(Constants.FILE_NAME) + "(\\d+)" + Pattern.quote(Constants.FILE_EXT));
+    // files of flushes and compactions, which were interrupted before they were published
+    private static final Pattern LEFTOVER_FILE = Pattern.compile(Pattern.quote(Constants.FILE_NAME) + "\\d+("
+            + Pattern.quote(Constants.FILE_EXT + Constants.FILE_EXT_TMP) + "|("
+            + Pattern.quote(Constants.FILE_EXT_PART) + "|" + Pattern.quote(Constants.FILE_EXT_COMPACTING) + ")("
+            + Pattern.quote(Constants.FILE_EXT_TMP) + ")?)");
+
     private StorageMethods() {
     }
 
+    /**
+     * Loads storage, when the dao is opened, files left by interrupted flushes and compactions are deleted first.
+     * Compacted file, which wasn't moved in place, is deleted too, the compacted files are still there.
+     * Files being written can't be told from the left ones, so {@link #load} doesn't delete them.
+     */
+    public static Storage open(Config config) throws IOException {
+        if (Files.isDirectory(config.basePath())) {
+            try (Stream<Path> files = Files.list(config.basePath())) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (LEFTOVER_FILE.matcher(file.getFileName().toString()).matches()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+        return load(config);
+    }
+
     public static Storage load(Config config) throws IOException {
         Path basePath = config.basePath();
         Path compactedFile = config.basePath().resolve(Constants.COMPACTED_FILE);
@@ -30,8 +70,9 @@ public final class StorageMethods {
         ArrayList<MemorySegment> sstables = new ArrayList<>();
         ResourceScope scope = ResourceScope.newSharedScope(Constants.CLEANER);
 
+        int firstIndex = firstIndex(basePath);
         boolean haveFile = true;
-        int index = 0;
+        int index = firstIndex;
         while (haveFile) {
             Path nextFile = basePath.resolve(Constants.FILE_NAME + index + Constants.FILE_EXT);
             try {
@@ -43,7 +84,24 @@ public final class StorageMethods {
         }
 
         boolean hasTombstones = !sstables.isEmpty() && MemoryAccess.getLongAtOffset(sstables.get(0), 16) == 1;
-        return new Storage(scope, sstables, hasTombstones);
+        return new Storage(scope, sstables, hasTombstones, firstIndex);
+    }
+
+    // the oldest file left by compaction, 0 if there are no files
+    private static int firstIndex(Path basePath) throws IOException {
+        if (!Files.isDirectory(basePath)) {
+            return 0;
+        }
+        int firstIndex = Integer.MAX_VALUE;
+        try (Stream<Path> files = Files.list(basePath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = DATA_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    firstIndex = Math.min(firstIndex, Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        return firstIndex == Integer.MAX_VALUE ? 0 : firstIndex;
     }
 
     // it is supposed that entries can not be changed externally during this method call
@@ -51,16 +109,93 @@ public final class StorageMethods {
             Config config,
             Storage previousState,
             Collection<Entry<MemorySegment>> entries) throws IOException {
-        int nextSSTableIndex = previousState.sstables.size();
+        int nextSSTableIndex = previousState.nextIndex();
         Path sstablePath = config.basePath()
                 .resolve(Constants.FILE_NAME + nextSSTableIndex + Constants.FILE_EXT);
-        save(entries::iterator, sstablePath);
+        save(config, entries::iterator, sstablePath);
+    }
+
+    // large tables are split into ranges, which are written in parallel and published in key order,
+    // so after a crash only the prefix of non overlapping files can be visible
+    public static void save(
+            Config config,
+            Storage previousState,
+            DatabaseUtils.Memory memory,
+            Executor executor) throws IOException {
+        save(config, previousState, memory, executor, Constants.FLUSH_MAX_PARTITIONS);
+    }
+
+    // tests give the number of parts, it is 1 on machines with a single processor
+    static void save(
+            Config config,
+            Storage previousState,
+            DatabaseUtils.Memory memory,
+            Executor executor,
+            int maxParts) throws IOException {
+        int parts = (int) Math.min(maxParts, memory.size() / Constants.FLUSH_PARTITION_MIN_BYTES);
+        List<MemorySegment> bounds = parts > 1 ? memory.splitKeys(parts) : List.of();
+        if (bounds.isEmpty()) {
+            save(config, previousState, memory.values());
+            return;
+        }
+
+        int nextSSTableIndex = previousState.nextIndex();
+        List<Path> partPaths = new ArrayList<>(bounds.size() + 1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(bounds.size() + 1);
+        for (int i = 0; i <= bounds.size(); i++) {
+            MemorySegment from = i == 0 ? VERY_FIRST_KEY : bounds.get(i - 1);
+            MemorySegment to = i == bounds.size() ? null : bounds.get(i);
+            Path partPath = config.basePath()
+                    .resolve(Constants.FILE_NAME + (nextSSTableIndex + i) + Constants.FILE_EXT_PART);
+            partPaths.add(partPath);
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    save(config, () -> memory.cursor(from, to), partPath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException ioException) {
+                throw ioException.getCause();
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < partPaths.size(); i++) {
+            Files.move(partPaths.get(i), config.basePath()
+                            .resolve(Constants.FILE_NAME + (nextSSTableIndex + i) + Constants.FILE_EXT),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
     }
 
     public static void save(
+            Config config,
             UtilsClass.Data entries,
             Path sstablePath
     ) throws IOException {
+        save(config, () -> new EntryCursor(entries.iterator()), sstablePath);
+    }
+
+    public static void save(
+            Config config,
+            Supplier<Cursor> cursors,
+            Path sstablePath
+    ) throws IOException {
+        save(config, cursors, sstablePath, false);
+    }
+
+    // cursors are walked twice: to count sizes and to write, nothing is allocated per entry.
+    // Private I/O writes past the page cache, and keys of such cursors are copied, because buffers are reused
+    private static void save(
+            Config config,
+            Supplier<Cursor> cursors,
+            Path sstablePath,
+            boolean privateIO
+    ) throws IOException {
 
         Path sstableTmpPath = sstablePath
                 .resolveSibling(sstablePath.getFileName().toString() + Constants.FILE_EXT_TMP);
@@ -68,48 +203,173 @@ public final class StorageMethods {
         Files.deleteIfExists(sstableTmpPath);
         Files.createFile(sstableTmpPath);
 
-        try (ResourceScope writeScope = ResourceScope.newConfinedScope()) {
-            long size = 0;
-            long entriesCount = 0;
-            boolean hasTombstone = false;
-            for (var entry : entries) {
-                size += getSize(entry);
-                if (entry.isTombstone()) {
-                    hasTombstone = true;
+        long size = 0;
+        long entriesCount = 0;
+        boolean hasTombstone = false;
+        long prefixesCount = 0;
+        long maxTimestamp = Long.MIN_VALUE;
+        MemorySegment firstKey = null;
+        KeyRef lastKey = new KeyRef(privateIO);
+        Cursor cursor = cursors.get();
+        while (cursor.next()) {
+            size += 3L * Long.BYTES + cursor.keySize() + Math.max(cursor.valueSize(), 0);
+            if (cursor.isTombstone()) {
+                hasTombstone = true;
+            }
+            maxTimestamp = Math.max(maxTimestamp, cursor.timestamp());
+            if (firstKey == null) {
+                firstKey = cursor.keySegment().asSlice(cursor.keyOffset(), cursor.keySize());
+                if (privateIO) {
+                    firstKey = MemorySegment.ofArray(firstKey.toByteArray());
                 }
-                entriesCount++;
             }
+            if (lastKey.segment == null || !lastKey.samePrefix(cursor, config.prefixLength())) {
+                prefixesCount++;
+            }
+            lastKey.set(cursor);
+            entriesCount++;
+        }
 
-            long dataStart = Constants.INDEX_HEADER_SIZE + Constants.INDEX_RECORD_SIZE * entriesCount;
+        LearnedIndex.Builder learnedIndex = config.learnedIndex() && firstKey != null
+                ? new LearnedIndex.Builder(firstKey, lastKey.slice(), Constants.LEARNED_INDEX_MAX_ERROR)
+                : null;
+        PrefixFilter prefixFilter = config.prefixLength() > 0
+                ? PrefixFilter.create(config.prefixLength(), prefixesCount)
+                : null;
+        KeyPrefixes keyPrefixes = firstKey != null
+                ? KeyPrefixes.create(firstKey, lastKey.slice(), entriesCount)
+                : null;
 
-            MemorySegment nextSSTable = MemorySegment.mapFile(
-                    sstableTmpPath,
-                    0,
-                    dataStart + size,
-                    FileChannel.MapMode.READ_WRITE,
-                    writeScope
-            );
+        long dataStart = Constants.INDEX_HEADER_SIZE + Constants.INDEX_RECORD_SIZE * entriesCount;
 
-            long index = 0;
-            long offset = dataStart;
-            for (var entry : entries) {
-                MemoryAccess.setLongAtOffset(nextSSTable,
-                        Constants.INDEX_HEADER_SIZE + index * Constants.INDEX_RECORD_SIZE, offset);
+        long offset = dataStart;
+        KeyRef previousKey = new KeyRef(privateIO);
+        try (SSTableWriter writer = privateIO
+                ? new AlignedSSTableWriter(sstableTmpPath, dataStart, dataStart + size)
+                : new MappedSSTableWriter(sstableTmpPath, dataStart, dataStart + size)) {
+            writer.header(Constants.VERSION, entriesCount, hasTombstone);
+            cursor = cursors.get();
+            while (cursor.next()) {
+                writer.index(offset);
 
-                offset += writeRecord(nextSSTable, offset, entry.key());
-                offset += writeRecord(nextSSTable, offset, entry.value());
+                offset += writer.record(cursor.keySegment(), cursor.keyOffset(), cursor.keySize());
+                writer.timestamp(cursor.timestamp());
+                offset += Long.BYTES;
+                offset += writer.record(cursor.valueSegment(), cursor.valueOffset(), cursor.valueSize());
+                if (learnedIndex != null) {
+                    learnedIndex.add(cursor.keySegment(), cursor.keyOffset(), cursor.keySize());
+                }
+                if (keyPrefixes != null) {
+                    keyPrefixes.add(cursor.keySegment(), cursor.keyOffset(), cursor.keySize());
+                }
+                if (prefixFilter != null
+                        && (previousKey.segment == null
+                        || !previousKey.samePrefix(cursor, config.prefixLength()))) {
+                    prefixFilter.add(cursor.keySegment(), cursor.keyOffset(), cursor.keySize());
+                }
+                previousKey.set(cursor);
+            }
+        }
 
-                index++;
+        List<MetaSection> meta = new ArrayList<>();
+        if (entriesCount > 0) {
+            meta.add(new MaxTimestamp(maxTimestamp));
+        }
+        LearnedIndex model = learnedIndex == null ? null : learnedIndex.build();
+        if (model != null) {
+            meta.add(model);
+        }
+        if (prefixFilter != null) {
+            meta.add(prefixFilter);
+        }
+        if (keyPrefixes != null) {
+            meta.add(keyPrefixes);
+        }
+        writeMeta(sstableTmpPath, dataStart + size, meta);
+
+        Files.move(sstableTmpPath, sstablePath, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // key of the previous entry, it stays valid after the cursor is moved, because segments are immutable.
+    // Buffers of private I/O cursors are reused, so their keys are copied
+    private static final class KeyRef {
+        private final boolean copy;
+        private MemorySegment copied;
+        MemorySegment segment;
+        long offset;
+        long size;
+
+        KeyRef(boolean copy) {
+            this.copy = copy;
+        }
+
+        void set(Cursor cursor) {
+            size = cursor.keySize();
+            if (!copy) {
+                segment = cursor.keySegment();
+                offset = cursor.keyOffset();
+                return;
+            }
+            if (copied == null || copied.byteSize() < size) {
+                long capacity = copied == null ? 0 : copied.byteSize();
+                copied = MemorySegment.ofArray(new byte[Math.toIntExact(Math.max(size, 2 * capacity))]);
             }
+            copied.asSlice(0, size).copyFrom(cursor.keySegment().asSlice(cursor.keyOffset(), size));
+            segment = copied;
+            offset = 0;
+        }
+
+        MemorySegment slice() {
+            return segment.asSlice(offset, size);
+        }
 
-            MemoryAccess.setLongAtOffset(nextSSTable, 0, Constants.VERSION);
-            MemoryAccess.setLongAtOffset(nextSSTable, 8, entriesCount);
-            MemoryAccess.setLongAtOffset(nextSSTable, 16, hasTombstone ? 1 : 0);
+        boolean samePrefix(Cursor cursor, long prefixLength) {
+            long prefixSize = Math.min(size, prefixLength);
+            return prefixSize == Math.min(cursor.keySize(), prefixLength)
+                    && MemorySegmentComparator.compare(segment, offset, prefixSize,
+                    cursor.keySegment(), cursor.keyOffset(), prefixSize) == 0;
+        }
+    }
 
-            nextSSTable.force();
+    // meta is known only after all entries are written, so it is appended to the mapped part of the file
+    private static void writeMeta(Path sstablePath, long metaOffset, List<MetaSection> meta) throws IOException {
+        long metaSize = Long.BYTES;
+        for (MetaSection section : meta) {
+            metaSize += 2L * Long.BYTES + section.byteSize();
         }
 
-        Files.move(sstableTmpPath, sstablePath, StandardCopyOption.ATOMIC_MOVE);
+        MemorySegment buffer = MemorySegment.ofArray(new byte[Math.toIntExact(metaSize)]);
+        long offset = 0;
+        for (MetaSection section : meta) {
+            MemoryAccess.setLongAtOffset(buffer, offset, section.tag());
+            MemoryAccess.setLongAtOffset(buffer, offset + Long.BYTES, section.byteSize());
+            section.write(buffer.asSlice(offset + 2L * Long.BYTES, section.byteSize()));
+            offset += 2L * Long.BYTES + section.byteSize();
+        }
+        MemoryAccess.setLongAtOffset(buffer, offset, metaOffset);
+
+        try (FileChannel channel = FileChannel.open(sstablePath, StandardOpenOption.WRITE)) {
+            ByteBuffer byteBuffer = buffer.asByteBuffer();
+            long position = metaOffset;
+            while (byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+            channel.force(true);
+        }
+    }
+
+    // size -1 is for the absent value
+    public static long writeRecord(MemorySegment nextSSTable,
+                                   long offset,
+                                   MemorySegment source,
+                                   long sourceOffset,
+                                   long size) {
+        MemoryAccess.setLongAtOffset(nextSSTable, offset, size);
+        if (size <= 0) {
+            return Long.BYTES;
+        }
+        nextSSTable.asSlice(offset + Long.BYTES, size).copyFrom(source.asSlice(sourceOffset, size));
+        return Long.BYTES + size;
     }
 
     public static long writeRecord(MemorySegment nextSSTable, long offset, MemorySegment record) {
@@ -130,9 +390,61 @@ public final class StorageMethods {
         return MemorySegment.mapFile(file, 0, size, FileChannel.MapMode.READ_ONLY, scope);
     }
 
+    /**
+     * Writes merged files of the storage next to them, they are not replaced until {@link #finishCompact}.
+     * Files are read and written with private I/O, so compaction doesn't wash hot pages of reads out of the cache.
+     * @param track wrapper of the merged cursor
+     * @return compacted file
+     */
+    public static Path compact(Config config, Storage storage, UnaryOperator<Cursor> track) throws IOException {
+        Path compactedFile = config.basePath()
+                .resolve(Constants.FILE_NAME + (storage.nextIndex() - 1) + Constants.FILE_EXT_COMPACTING);
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            save(config, () -> track.apply(MergeCursor.of(sequentialCursors(config, storage, scope), false)),
+                    compactedFile, true);
+        } catch (UncheckedIOException e) {
+            deleteTmp(compactedFile);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            // including cancellation
+            deleteTmp(compactedFile);
+            throw e;
+        }
+        return compactedFile;
+    }
+
+    private static List<Cursor> sequentialCursors(Config config, Storage storage, ResourceScope scope) {
+        List<Cursor> cursors = new ArrayList<>(storage.sstables.size());
+        try {
+            for (int i = storage.firstIndex; i < storage.nextIndex(); i++) {
+                Path file = config.basePath().resolve(Constants.FILE_NAME + i + Constants.FILE_EXT);
+                cursors.add(new SequentialSSTableCursor(file, scope));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return cursors;
+    }
+
+    private static void deleteTmp(Path sstablePath) throws IOException {
+        Files.deleteIfExists(sstablePath.resolveSibling(sstablePath.getFileName().toString() + Constants.FILE_EXT_TMP));
+    }
+
+    // compacted file replaces the newest of compacted files, so files flushed meanwhile stay newer.
+    // Older files are removed from the oldest one, so after a crash the rest is still numbered one by one,
+    // and they are hidden by the compacted file anyway
+    public static void finishCompact(Config config, Storage storage, Path compactedFile) throws IOException {
+        int lastIndex = storage.nextIndex() - 1;
+        Files.move(compactedFile, config.basePath().resolve(Constants.FILE_NAME + lastIndex + Constants.FILE_EXT),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (int i = storage.firstIndex; i < lastIndex; i++) {
+            Files.deleteIfExists(config.basePath().resolve(Constants.FILE_NAME + i + Constants.FILE_EXT));
+        }
+    }
+
     public static void compact(Config config, UtilsClass.Data data) throws IOException {
         Path compactedFile = config.basePath().resolve(Constants.COMPACTED_FILE);
-        save(data, compactedFile);
+        save(config, data, compactedFile);
         finishCompact(config, compactedFile);
     }
 
@@ -148,11 +460,108 @@ public final class StorageMethods {
                 .resolve(Constants.FILE_NAME + 0 + Constants.FILE_EXT), StandardCopyOption.ATOMIC_MOVE);
     }
 
+    // files are immutable until compaction, so hard links are enough to pin them
+    public static void checkpoint(Config config, Storage storage, Path target) throws IOException {
+        Path tmpTarget = target.resolveSibling(target.getFileName().toString() + Constants.FILE_EXT_TMP);
+        // left by a checkpoint, which failed or was interrupted by a crash
+        deleteDirectory(tmpTarget);
+        Files.createDirectories(tmpTarget);
+        try {
+            for (int i = storage.firstIndex; i < storage.nextIndex(); i++) {
+                String fileName = Constants.FILE_NAME + i + Constants.FILE_EXT;
+                Path source = config.basePath().resolve(fileName);
+                try {
+                    Files.createLink(tmpTarget.resolve(fileName), source);
+                } catch (UnsupportedOperationException | IOException e) {
+                    // other file store or links are not supported
+                    Files.copy(source, tmpTarget.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(tmpTarget, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                deleteDirectory(tmpTarget);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    // checkpoints have no subdirectories
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    // ingested files become the newest ones, so they must not hide keys of existing files
+    public static void ingest(Config config, Storage storage, List<Path> files) throws IOException {
+        List<MemorySegment[]> ranges = new ArrayList<>(files.size());
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            for (Path file : files) {
+                SSTable sstable;
+                try {
+                    sstable = SSTable.open(mapForRead(scope, file));
+                } catch (IllegalStateException | IndexOutOfBoundsException e) {
+                    throw new IllegalArgumentException("Not a data file: " + file, e);
+                }
+                if (sstable.recordsCount == 0) {
+                    throw new IllegalArgumentException("Empty file: " + file);
+                }
+                MemorySegment first = MemorySegment.ofArray(sstable.keyAt(0).toByteArray());
+                MemorySegment last = MemorySegment.ofArray(sstable.keyAt(sstable.recordsCount - 1).toByteArray());
+                for (SSTable stored : storage.sstables) {
+                    if (stored.recordsCount == 0) {
+                        continue;
+                    }
+                    MemorySegment storedLast = stored.keyAt(stored.recordsCount - 1);
+                    if (MemorySegmentComparator.INSTANCE.compare(first, storedLast) <= 0
+                            && MemorySegmentComparator.INSTANCE.compare(stored.keyAt(0), last) <= 0) {
+                        throw new KeyRangeOverlapException("Keys of " + file + " overlap with existing data");
+                    }
+                }
+                ranges.add(new MemorySegment[]{first, last});
+            }
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            for (int j = i + 1; j < ranges.size(); j++) {
+                if (MemorySegmentComparator.INSTANCE.compare(ranges.get(i)[0], ranges.get(j)[1]) <= 0
+                        && MemorySegmentComparator.INSTANCE.compare(ranges.get(j)[0], ranges.get(i)[1]) <= 0) {
+                    throw new KeyRangeOverlapException(
+                            "Keys of " + files.get(i) + " and " + files.get(j) + " overlap");
+                }
+            }
+        }
+
+        int nextSSTableIndex = storage.nextIndex();
+        for (Path file : files) {
+            Path sstablePath = config.basePath().resolve(Constants.FILE_NAME + nextSSTableIndex + Constants.FILE_EXT);
+            try {
+                Files.move(file, sstablePath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Path sstableTmpPath = sstablePath
+                        .resolveSibling(sstablePath.getFileName().toString() + Constants.FILE_EXT_TMP);
+                Files.copy(file, sstableTmpPath, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(sstableTmpPath, sstablePath, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(file);
+            }
+            nextSSTableIndex++;
+        }
+    }
+
+    // (keySize)(key)(timestamp)(valueSize)(value)
     public static long getSize(Entry<MemorySegment> entry) {
         if (entry.value() == null) {
-            return Long.BYTES + entry.key().byteSize() + Long.BYTES;
+            return Long.BYTES + entry.key().byteSize() + 2L * Long.BYTES;
         } else {
-            return Long.BYTES + entry.value().byteSize() + entry.key().byteSize() + Long.BYTES;
+            return Long.BYTES + entry.value().byteSize() + entry.key().byteSize() + 2L * Long.BYTES;
         }
     }
 
@@ -0,0 +1,46 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Key comparison with SIMD, whole vectors of bytes are compared at once.
+ * Loaded only if jdk.incubator.vector module is present, see {@link MemorySegmentComparator}.
+ * Vectors are loaded from ByteBuffer views of the keys, which are allocated, so it is used only for lookups.
+ */
+final class VectorizedComparison {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private VectorizedComparison() {
+    }
+
+    static int vectorBytes() {
+        return SPECIES.length();
+    }
+
+    // the same as MemorySegmentComparator.compare, keys shorter than vector are compared by words
+    static int compare(MemorySegment s1, long offset1, long size1, MemorySegment s2, long offset2, long size2) {
+        long size = Math.min(size1, size2);
+        ByteBuffer buffer1 = s1.asSlice(offset1, size).asByteBuffer();
+        ByteBuffer buffer2 = s2.asSlice(offset2, size).asByteBuffer();
+        int bound = SPECIES.loopBound((int) size);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            ByteVector vector1 = ByteVector.fromByteBuffer(SPECIES, buffer1, i, ByteOrder.nativeOrder());
+            ByteVector vector2 = ByteVector.fromByteBuffer(SPECIES, buffer2, i, ByteOrder.nativeOrder());
+            VectorMask<Byte> different = vector1.compare(VectorOperators.NE, vector2);
+            if (different.anyTrue()) {
+                int lane = different.firstTrue();
+                return Byte.compareUnsigned(vector1.lane(lane), vector2.lane(lane));
+            }
+        }
+        int tail = MemorySegmentComparator.compareWords(s1, offset1 + i, s2, offset2 + i, size - i);
+        return tail != 0 ? tail : Long.compare(size1, size2);
+    }
+}
@@ -6,10 +6,51 @@ import org.slf4j.LoggerFactory;
 
 public class Constants {
     public static final Long FLUSH_THRESHOLD_BYTES = (long) (1 << 18);
+    public static final boolean LEARNED_INDEX = true;
+    public static final long PREFIX_FILTER_LENGTH = 4;
+    public static final long ROW_CACHE_BYTES = 8L << 20;
+    public static final long MEMORY_BUDGET_BYTES = 48L << 20;
+    public static final int DAO_IO_THREADS = 4;
     public static final String REQUEST_PATH = "/v0/entity";
     public static final String REPLICA_PATH = "/v1/entity";
     public static final String RANGE_PATH = "/v0/entities";
+    public static final String ESTIMATE_PATH = "/v0/estimate";
+    public static final String STATS_PATH = "/v0/stats";
+    public static final String CHECKPOINT_PATH = "/v0/admin/checkpoint";
+    public static final String CHECKPOINTS_DIR = "checkpoints";
+    public static final String BULK_PATH = "/v0/admin/bulk";
+    public static final String BULK_DIR = "bulk";
+    public static final String KEYSPACE_PATH = "/v0/admin/keyspace";
+    public static final String REPAIR_PATH = "/v0/admin/repair";
+    public static final String ANTI_ENTROPY_TREE_PATH = "/v1/repair/tree";
+    public static final String ANTI_ENTROPY_ENTRIES_PATH = "/v1/repair/entries";
+    public static final String CHECKPOINT_NAME_PATTERN = "[A-Za-z0-9_-]+";
 
+    public static final boolean DIGEST_READS = true;
+    // GET is sent to ack fastest replicas, the next replica is asked when they are slower than the percentile
+    public static final boolean HEDGED_READS = true;
+    public static final double HEDGE_PERCENTILE = 0.95;
+    public static final long HEDGE_MIN_DELAY_MICROS = 1000;
+    public static final int LATENCY_WINDOW = 128;
+    // -Dnadutkin.readRepairChance=0.1 repairs after every tenth read with lagging replicas
+    public static final double READ_REPAIR_CHANCE =
+            Double.parseDouble(System.getProperty("nadutkin.readRepairChance", "1"));
+    public static final int READ_REPAIR_QUEUE = 4096;
+    public static final long READ_REPAIR_PER_SECOND = 1000;
+    public static final String HINTS_DIR = "hints";
+    public static final long HINT_SEGMENT_BYTES = 1L << 20;
+    public static final long HINTS_MAX_BYTES = 64L << 20;
+    public static final long HINT_WINDOW_MILLIS = 3 * 60 * 60 * 1000L;
+    public static final long HINT_REPLAY_INTERVAL_MILLIS = 10_000;
+    public static final long HINT_DELIVERY_TIMEOUT_MILLIS = 10_000;
+    public static final int HINT_BATCH = 64;
+    public static final long ANTI_ENTROPY_INTERVAL_MILLIS = 10 * 60 * 1000L;
+    public static final long ANTI_ENTROPY_TREE_TTL_MILLIS = 60_000;
+    public static final long ANTI_ENTROPY_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    public static final int ANTI_ENTROPY_TREE_DEPTH = 10;
+    public static final long ANTI_ENTROPY_ENTRIES_PER_SECOND = 100_000;
+    public static final int ANTI_ENTROPY_CHUNK_BYTES = 4 << 20;
+    public static final long ANTI_ENTROPY_RETRY_MILLIS = 10;
     public static final Integer MAX_FAILS = 100;
     public static final Integer CHUNK_SIZE = 1000;
     public static final String SEPARATOR = "\r\n";
@@ -0,0 +1,133 @@
+package nadutkin.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns one memory budget and hands out reservations to memtables, caches and server buffers.
+ * When the budget is exhausted, other reservations are asked to give memory back.
+ */
+public class MemoryManager {
+    private final long budget;
+    private final AtomicLong used = new AtomicLong();
+    private final List<Reservation> reservations = new CopyOnWriteArrayList<>();
+
+    public MemoryManager(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Frees memory on request of other reservations.
+     */
+    @FunctionalInterface
+    public interface Reclaimer {
+        /**
+         * Releases memory synchronously.
+         * @param bytes amount of memory needed
+         * @return amount of memory released
+         */
+        long reclaim(long bytes);
+    }
+
+    public Reservation register(String name, Reclaimer reclaimer) {
+        Reservation reservation = new Reservation(name, reclaimer);
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    public long used() {
+        return used.get();
+    }
+
+    public long available() {
+        return Math.max(0, budget - used.get());
+    }
+
+    public boolean isUnderPressure() {
+        return used.get() > budget;
+    }
+
+    public List<Reservation> reservations() {
+        return List.copyOf(reservations);
+    }
+
+    private void reclaim(long bytes, Reservation requester) {
+        long released = 0;
+        for (Reservation reservation : reservations) {
+            if (released >= bytes) {
+                return;
+            }
+            if (reservation != requester && reservation.reclaimer != null) {
+                released += reservation.reclaimer.reclaim(bytes - released);
+            }
+        }
+    }
+
+    public final class Reservation {
+        private final String name;
+        private final Reclaimer reclaimer;
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Reservation(String name, Reclaimer reclaimer) {
+            this.name = name;
+            this.reclaimer = reclaimer;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long bytes() {
+            return bytes.get();
+        }
+
+        public MemoryManager manager() {
+            return MemoryManager.this;
+        }
+
+        /**
+         * Takes memory only if it fits into the budget, possibly after other reservations gave memory back.
+         */
+        public boolean tryAcquire(long size) {
+            if (tryTake(size)) {
+                return true;
+            }
+            reclaim(size - available(), this);
+            return tryTake(size);
+        }
+
+        /**
+         * Takes memory even if it is over the budget, others are asked to give memory back.
+         */
+        public void acquire(long size) {
+            bytes.addAndGet(size);
+            long overflow = used.addAndGet(size) - budget;
+            if (size > 0 && overflow > 0) {
+                reclaim(overflow, this);
+            }
+        }
+
+        public void release(long size) {
+            bytes.addAndGet(-size);
+            used.addAndGet(-size);
+        }
+
+        private boolean tryTake(long size) {
+            while (true) {
+                long current = used.get();
+                if (current + size > budget) {
+                    return false;
+                }
+                if (used.compareAndSet(current, current + size)) {
+                    bytes.addAndGet(size);
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package nadutkin.utils;
 
+import jdk.incubator.foreign.MemoryAccess;
 import jdk.incubator.foreign.MemorySegment;
 import nadutkin.app.replicas.StoredValue;
 import nadutkin.database.Entry;
@@ -7,11 +8,11 @@ import one.nio.http.HttpServerConfig;
 import one.nio.server.AcceptorConfig;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -21,6 +22,9 @@ import java.util.concurrent.TimeUnit;
 import static nadutkin.database.impl.Constants.LOG;
 
 public final class UtilsClass {
+    private static final byte STORED_VALUE_VERSION = 1;
+    private static final int STORED_VALUE_HEADER_SIZE = 2 + Long.BYTES;
+
     private UtilsClass() {
     }
 
@@ -105,20 +109,54 @@ public final class UtilsClass {
         return MemorySegment.ofArray(getBytes(id));
     }
 
-    public static byte[] valueToSegment(StoredValue value) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(value);
-            out.flush();
-            return bos.toByteArray();
+    // (version)(tombstone)(timestamp, big-endian)(value), null value is the tombstone
+    public static byte[] valueToSegment(StoredValue value) {
+        byte[] data = value.value();
+        byte[] result = new byte[STORED_VALUE_HEADER_SIZE + (data == null ? 0 : data.length)];
+        MemorySegment segment = MemorySegment.ofArray(result);
+        MemoryAccess.setByteAtOffset(segment, 0, STORED_VALUE_VERSION);
+        MemoryAccess.setByteAtOffset(segment, 1, (byte) (data == null ? 1 : 0));
+        MemoryAccess.setLongAtOffset(segment, 2, ByteOrder.BIG_ENDIAN, value.timestamp());
+        if (data != null) {
+            System.arraycopy(data, 0, result, STORED_VALUE_HEADER_SIZE, data.length);
         }
+        return result;
     }
 
     public static StoredValue segmentToValue(byte[] value) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(value);
-        try (ObjectInput in = new ObjectInputStream(bis)) {
-            return (StoredValue) in.readObject();
+        return segmentToValue(MemorySegment.ofArray(value), 0, value.length);
+    }
+
+    // the version is compared without decoding the value
+    public static long timestampOf(byte[] value) throws IOException, ClassNotFoundException {
+        MemorySegment segment = MemorySegment.ofArray(value);
+        if (value.length >= STORED_VALUE_HEADER_SIZE
+                && MemoryAccess.getByteAtOffset(segment, 0) == STORED_VALUE_VERSION) {
+            return MemoryAccess.getLongAtOffset(segment, 2, ByteOrder.BIG_ENDIAN);
+        }
+        return segmentToValue(segment, 0, value.length).timestamp();
+    }
+
+    // values written before the binary layout are Java serialization streams, they start with its magic
+    public static StoredValue segmentToValue(MemorySegment segment, long offset, long size)
+            throws IOException, ClassNotFoundException {
+        if (size >= 2 && MemoryAccess.getShortAtOffset(segment, offset, ByteOrder.BIG_ENDIAN)
+                == ObjectStreamConstants.STREAM_MAGIC) {
+            ByteArrayInputStream bis = new ByteArrayInputStream(segment.asSlice(offset, size).toByteArray());
+            try (ObjectInput in = new ObjectInputStream(bis)) {
+                return (StoredValue) in.readObject();
+            }
+        }
+        if (size < STORED_VALUE_HEADER_SIZE || MemoryAccess.getByteAtOffset(segment, offset) != STORED_VALUE_VERSION) {
+            throw new IOException("Unknown stored value format");
+        }
+        long timestamp = MemoryAccess.getLongAtOffset(segment, offset + 2, ByteOrder.BIG_ENDIAN);
+        if (MemoryAccess.getByteAtOffset(segment, offset + 1) != 0) {
+            return new StoredValue(null, timestamp);
         }
+        byte[] data = segment.asSlice(offset + STORED_VALUE_HEADER_SIZE, size - STORED_VALUE_HEADER_SIZE)
+                .toByteArray();
+        return new StoredValue(data, timestamp);
     }
 
     public static byte[] processBytes(byte[] bytes) {
@@ -0,0 +1,116 @@
+package nadutkin;
+
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.utils.UtilsClass;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for background repair of replicas with Merkle trees.
+ */
+class AntiEntropyTest extends TestBase {
+
+    private HttpResponse<byte[]> replicaUpsert(ServiceInfo service, String key, byte[] value, long timestamp)
+            throws Exception {
+        byte[] body = UtilsClass.valueToSegment(new StoredValue(value, timestamp));
+        return client.send(service.request("/v1/entity?id=" + key)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private byte[] replicaValue(ServiceInfo service, String key) throws Exception {
+        HttpResponse<byte[]> response = client.send(service.request("/v1/entity?id=" + key).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        return UtilsClass.segmentToValue(response.body()).value();
+    }
+
+    private HttpResponse<byte[]> repair(ServiceInfo service) throws Exception {
+        return client.send(service.request("/v0/admin/repair").POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void missingAndOlderValuesArePulled(List<ServiceInfo> nodes) throws Exception {
+        List<String> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(randomId());
+            values.add(randomValue());
+            assertEquals(HttpURLConnection.HTTP_CREATED,
+                    replicaUpsert(nodes.get(1), keys.get(i), values.get(i), 2_000).statusCode());
+        }
+        String older = keys.get(0);
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(0), older, randomValue(), 1_000).statusCode());
+        String newer = randomId();
+        byte[] newerValue = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(0), newer, newerValue, 3_000).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(1), newer, randomValue(), 1_000).statusCode());
+
+        assertEquals(HttpURLConnection.HTTP_OK, repair(nodes.get(0)).statusCode());
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(values.get(i), replicaValue(nodes.get(0), keys.get(i)));
+        }
+        assertArrayEquals(newerValue, replicaValue(nodes.get(0), newer));
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void pullOfSeveralChunks(List<ServiceInfo> nodes) throws Exception {
+        // more than a chunk of entries in both ranges
+        List<String> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(randomId());
+            values.add(new byte[60_000]);
+            values.get(i)[0] = (byte) i;
+            assertEquals(HttpURLConnection.HTTP_CREATED,
+                    replicaUpsert(nodes.get(1), keys.get(i), values.get(i), 2_000).statusCode());
+        }
+
+        assertEquals(HttpURLConnection.HTTP_OK, repair(nodes.get(0)).statusCode());
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(values.get(i), replicaValue(nodes.get(0), keys.get(i)));
+        }
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void nodesRepairWithEachOther(List<ServiceInfo> nodes) throws Exception {
+        String first = randomId();
+        byte[] firstValue = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(0), first, firstValue, 1_000).statusCode());
+        String second = randomId();
+        byte[] secondValue = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(1), second, secondValue, 1_000).statusCode());
+
+        // each node answers the other one, while it waits for the answers itself
+        List<CompletableFuture<HttpResponse<byte[]>>> repairs = new ArrayList<>();
+        for (ServiceInfo node : nodes) {
+            repairs.add(client.sendAsync(node.request("/v0/admin/repair")
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        for (CompletableFuture<HttpResponse<byte[]>> repair : repairs) {
+            assertEquals(HttpURLConnection.HTTP_OK, repair.get(30, TimeUnit.SECONDS).statusCode());
+        }
+
+        for (ServiceInfo node : nodes) {
+            assertArrayEquals(firstValue, replicaValue(node, first));
+            assertArrayEquals(secondValue, replicaValue(node, second));
+        }
+    }
+}
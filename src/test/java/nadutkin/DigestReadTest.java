@@ -0,0 +1,58 @@
+package nadutkin;
+
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.utils.UtilsClass;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for quorum reads, which get digests instead of values from all replicas but one.
+ */
+class DigestReadTest extends TestBase {
+
+    private HttpResponse<byte[]> replicaUpsert(ServiceInfo service, String key, byte[] value, long timestamp)
+            throws Exception {
+        byte[] body = UtilsClass.valueToSegment(new StoredValue(value, timestamp));
+        return client.send(service.request("/v1/entity?id=" + key)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void newerValueOnlyOnDigestReplica(List<ServiceInfo> nodes) throws Exception {
+        String key = randomId();
+        byte[] older = randomValue();
+        byte[] newer = randomValue();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(nodes.get(0), key, older, 1_000).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(nodes.get(1), key, newer, 2_000).statusCode());
+
+        for (ServiceInfo node : nodes) {
+            HttpResponse<byte[]> response = node.get(key, 2, 2);
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+            assertArrayEquals(newer, response.body());
+        }
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void conflictOfEqualTimestamps(List<ServiceInfo> nodes) throws Exception {
+        String key = randomId();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(0), key, randomValue(), 1_000).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(nodes.get(1), key, randomValue(), 1_000).statusCode());
+
+        HttpResponse<byte[]> first = nodes.get(0).get(key, 2, 2);
+        HttpResponse<byte[]> second = nodes.get(1).get(key, 2, 2);
+        assertEquals(HttpURLConnection.HTTP_OK, first.statusCode());
+        assertEquals(HttpURLConnection.HTTP_OK, second.statusCode());
+        assertArrayEquals(first.body(), second.body());
+    }
+}
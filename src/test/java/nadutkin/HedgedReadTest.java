@@ -0,0 +1,36 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for quorum reads, which ask the fastest replicas first and the next one instead of a failed one.
+ */
+class HedgedReadTest extends TestBase {
+
+    @ServiceTest(stage = 6, clusterSize = 3)
+    void failedReplicaIsReplaced(List<ServiceInfo> nodes) throws Exception {
+        String key = randomId();
+        byte[] value = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED, nodes.get(0).upsert(key, value, 3, 3).statusCode());
+        ServiceInfo failed = nodes.get(2);
+        failed.stop();
+
+        // the failed replica is asked first without latency samples and later after the others
+        for (int i = 0; i < 20; i++) {
+            HttpResponse<byte[]> response = nodes.get(0).get(key, 2, 3);
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+            assertArrayEquals(value, response.body());
+        }
+        assertEquals(HttpURLConnection.HTTP_GATEWAY_TIMEOUT, nodes.get(0).get(key, 3, 3).statusCode());
+
+        failed.start();
+        HttpResponse<byte[]> response = nodes.get(0).get(key, 3, 3);
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertArrayEquals(value, response.body());
+    }
+}
@@ -0,0 +1,55 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for writes, which are kept for an unreachable replica and delivered when it is back.
+ */
+class HintedHandoffTest extends TestBase {
+
+    private HttpResponse<byte[]> replicaGet(ServiceInfo service, String key) throws Exception {
+        return client.send(service.request("/v1/entity?id=" + key).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private long stat(ServiceInfo service, String name) throws Exception {
+        String stats = client.send(service.request("/v0/stats").GET().build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+        return stats.lines()
+                .filter(line -> line.startsWith(name + "="))
+                .mapToLong(line -> Long.parseLong(line.substring(name.length() + 1)))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void missedWriteIsDelivered(List<ServiceInfo> nodes) throws Exception {
+        String key = randomId();
+        nodes.get(1).stop();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, nodes.get(0).upsert(key, randomValue(), 1, 2).statusCode());
+        // the answer doesn't wait for the failed replica
+        for (int attempt = 0; attempt < 100 && stat(nodes.get(0), "hints.backlogBytes") == 0; attempt++) {
+            Thread.sleep(50);
+        }
+        assertTrue(stat(nodes.get(0), "hints.backlogBytes") > 0);
+
+        nodes.get(1).start();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, replicaGet(nodes.get(1), key).statusCode());
+
+        // any answer of the replica starts delivery
+        assertEquals(HttpURLConnection.HTTP_CREATED, nodes.get(0).upsert(randomId(), randomValue(), 2, 2).statusCode());
+        int status = HttpURLConnection.HTTP_NOT_FOUND;
+        for (int attempt = 0; attempt < 100 && status == HttpURLConnection.HTTP_NOT_FOUND; attempt++) {
+            Thread.sleep(50);
+            status = replicaGet(nodes.get(1), key).statusCode();
+        }
+        assertEquals(HttpURLConnection.HTTP_OK, status);
+        assertEquals(0, stat(nodes.get(0), "hints.backlogBytes"));
+    }
+}
@@ -0,0 +1,73 @@
+package nadutkin;
+
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.utils.UtilsClass;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for writes of the newest version to replicas, which answered an older one to a quorum read.
+ */
+class ReadRepairTest extends TestBase {
+
+    private HttpResponse<byte[]> replicaUpsert(ServiceInfo service, String key, byte[] value, long timestamp)
+            throws Exception {
+        byte[] body = UtilsClass.valueToSegment(new StoredValue(value, timestamp));
+        return client.send(service.request("/v1/entity?id=" + key)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> replicaGet(ServiceInfo service, String key) throws Exception {
+        return client.send(service.request("/v1/entity?id=" + key).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void laggingReplicaIsRepaired(List<ServiceInfo> nodes) throws Exception {
+        String key = randomId();
+        byte[] older = randomValue();
+        byte[] newer = randomValue();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(nodes.get(0), key, older, 1_000).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(nodes.get(1), key, newer, 2_000).statusCode());
+
+        HttpResponse<byte[]> response = nodes.get(1).get(key, 2, 2);
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertArrayEquals(newer, response.body());
+
+        // repair is sent after the answer
+        byte[] repaired = null;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            repaired = UtilsClass.segmentToValue(replicaGet(nodes.get(0), key).body()).value();
+            if (Arrays.equals(newer, repaired)) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        assertArrayEquals(newer, repaired);
+    }
+
+    @ServiceTest(stage = 6, clusterSize = 2)
+    void missingValueIsRepaired(List<ServiceInfo> nodes) throws Exception {
+        String key = randomId();
+        byte[] value = randomValue();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(nodes.get(1), key, value, 1_000).statusCode());
+        assertEquals(HttpURLConnection.HTTP_OK, nodes.get(0).get(key, 2, 2).statusCode());
+
+        int status = HttpURLConnection.HTTP_NOT_FOUND;
+        for (int attempt = 0; attempt < 100 && status == HttpURLConnection.HTTP_NOT_FOUND; attempt++) {
+            Thread.sleep(50);
+            status = replicaGet(nodes.get(0), key).statusCode();
+        }
+        assertEquals(HttpURLConnection.HTTP_OK, status);
+    }
+}
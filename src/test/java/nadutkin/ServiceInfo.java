@@ -59,6 +59,13 @@ public class ServiceInfo {
         );
     }
 
+    public HttpResponse<byte[]> rangeWithPrefix(String prefix) throws Exception {
+        return client.send(
+                request("/v0/entities?prefix=" + prefix).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()
+        );
+    }
+
     public HttpResponse<byte[]> delete(String key) throws Exception {
         return client.send(
                 requestForKey(key).DELETE().build(),
@@ -0,0 +1,86 @@
+package nadutkin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for single node bulk load of sorted records, which are ingested as a new file.
+ */
+class SingleBulkLoadTest extends TestBase {
+
+    private HttpResponse<byte[]> bulk(ServiceInfo service, byte[] body) throws Exception {
+        return client.send(service.request("/v0/admin/bulk").PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    // (keyLength)(key)(valueLength)(value) of every key, value is the key
+    private static byte[] records(String... keys) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (String key : keys) {
+                byte[] data = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(data.length);
+                out.write(data);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @ServiceTest(stage = 6)
+    void load(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("a", "stored".getBytes()).statusCode());
+
+        HttpResponse<byte[]> response = bulk(service, records("b1", "b2", "b3"));
+        assertEquals(HttpURLConnection.HTTP_CREATED, response.statusCode());
+        assertEquals("3", new String(response.body(), StandardCharsets.UTF_8));
+        // files without common keys, before and after the loaded one
+        assertEquals(HttpURLConnection.HTTP_CREATED, bulk(service, records("c1", "c2")).statusCode());
+
+        for (String key : new String[]{"b1", "b2", "b3", "c1", "c2"}) {
+            HttpResponse<byte[]> value = service.get(key);
+            assertEquals(HttpURLConnection.HTTP_OK, value.statusCode(), key);
+            assertArrayEquals(key.getBytes(StandardCharsets.UTF_8), value.body());
+        }
+        assertArrayEquals("stored".getBytes(), service.get("a").body());
+        HttpResponse<byte[]> range = service.range("b2", "c2");
+        assertArrayEquals("b2\nb2b3\nb3c1\nc1".getBytes(StandardCharsets.UTF_8), range.body());
+
+        // loaded values are versioned, so they are replaced and deleted as usual
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("b1", "new".getBytes()).statusCode());
+        assertArrayEquals("new".getBytes(), service.get("b1").body());
+        assertEquals(HttpURLConnection.HTTP_ACCEPTED, service.delete("b2").statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("b2").statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void overlap(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_CREATED, bulk(service, records("b", "d")).statusCode());
+
+        // the stored file covers [b;d], even keys between its keys
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, bulk(service, records("c")).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, bulk(service, records("a", "b")).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, bulk(service, records("a", "e")).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("c").statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("a").statusCode());
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, bulk(service, records("a")).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, bulk(service, records("e")).statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void malformed(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, bulk(service, new byte[0]).statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, bulk(service, records("b", "a")).statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, bulk(service, new byte[]{0, 0, 0, 5, 1}).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("a").statusCode());
+    }
+}
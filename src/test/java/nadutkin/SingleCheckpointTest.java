@@ -0,0 +1,103 @@
+package nadutkin;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import nadutkin.database.impl.MemorySegmentDao;
+import nadutkin.utils.Constants;
+import nadutkin.utils.UtilsClass;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for single node checkpoints, which are opened as read-only daos.
+ */
+class SingleCheckpointTest extends TestBase {
+
+    private HttpResponse<byte[]> checkpoint(ServiceInfo service, String name) throws Exception {
+        return client.send(service.request("/v0/admin/checkpoint?name=" + name)
+                        .POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static MemorySegmentDao open(Path checkpoint) throws Exception {
+        return MemorySegmentDao.openReadOnly(new Config(checkpoint, Constants.FLUSH_THRESHOLD_BYTES,
+                Constants.LEARNED_INDEX, Constants.PREFIX_FILTER_LENGTH));
+    }
+
+    private static byte[] value(MemorySegmentDao dao, String key) throws Exception {
+        Entry<MemorySegment> entry = dao.get(UtilsClass.getKey(key));
+        return entry == null ? null : UtilsClass.segmentToValue(entry.value().toByteArray()).value();
+    }
+
+    @ServiceTest(stage = 6)
+    void badName(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, checkpoint(service, "..%2Fescape").statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void roundTrip(ServiceInfo service) throws Exception {
+        // flushed and in-memory values
+        byte[] value = randomValue();
+        for (int i = 0; i < 300; i++) {
+            assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("key" + i, value).statusCode());
+        }
+        assertEquals(HttpURLConnection.HTTP_ACCEPTED, service.delete("key0").statusCode());
+        byte[] last = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("key1", last).statusCode());
+
+        HttpResponse<byte[]> response = checkpoint(service, "first");
+        assertEquals(HttpURLConnection.HTTP_CREATED, response.statusCode());
+        Path path = Path.of(new String(response.body(), StandardCharsets.UTF_8));
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, checkpoint(service, "first").statusCode());
+
+        // writes after the checkpoint are not in it
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("key2", randomValue()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("after", randomValue()).statusCode());
+
+        try (MemorySegmentDao dao = open(path)) {
+            // deletes are stored as versioned tombstones
+            assertNull(value(dao, "key0"));
+            assertArrayEquals(last, value(dao, "key1"));
+            for (int i = 2; i < 300; i++) {
+                assertArrayEquals(value, value(dao, "key" + i));
+            }
+            assertNull(dao.get(UtilsClass.getKey("after")));
+            assertThrows(UnsupportedOperationException.class, () -> dao.upsert(new BaseEntry<>(
+                    UtilsClass.getKey("key"), UtilsClass.getKey("value"), 1L)));
+        }
+    }
+
+    @ServiceTest(stage = 6)
+    void leftoversOfInterruptedCheckpoint(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("key", randomValue()).statusCode());
+        HttpResponse<byte[]> first = checkpoint(service, "first");
+        assertEquals(HttpURLConnection.HTTP_CREATED, first.statusCode());
+        Path directory = Path.of(new String(first.body(), StandardCharsets.UTF_8)).getParent();
+
+        Path leftover = directory.resolve("second.tmp");
+        Files.createDirectories(leftover);
+        Files.write(leftover.resolve("garbage"), new byte[]{1, 2, 3});
+
+        HttpResponse<byte[]> second = checkpoint(service, "second");
+        assertEquals(HttpURLConnection.HTTP_CREATED, second.statusCode());
+        Path path = Path.of(new String(second.body(), StandardCharsets.UTF_8));
+        assertFalse(Files.exists(leftover));
+        assertFalse(Files.exists(path.resolve("garbage")));
+        try (MemorySegmentDao dao = open(path)) {
+            assertEquals(1, dao.estimate(null, null).keys());
+        }
+    }
+}
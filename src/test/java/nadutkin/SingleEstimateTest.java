@@ -0,0 +1,63 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for single node estimates of key ranges.
+ */
+class SingleEstimateTest extends TestBase {
+
+    private HttpResponse<byte[]> estimate(ServiceInfo service, String query) throws Exception {
+        return client.send(service.request("/v0/estimate?" + query).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private long[] keysAndBytes(ServiceInfo service, String query) throws Exception {
+        HttpResponse<byte[]> response = estimate(service, query);
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        String[] lines = new String(response.body(), StandardCharsets.UTF_8).split("\n");
+        return new long[]{Long.parseLong(lines[0]), Long.parseLong(lines[1])};
+    }
+
+    private static String key(int i) {
+        return "k%04d".formatted(i);
+    }
+
+    @ServiceTest(stage = 6)
+    void badRange(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, estimate(service, "end=a").statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, estimate(service, "start=b&end=a").statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, estimate(service, "start=a&end=a").statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void emptyRange(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key(1), randomValue()).statusCode());
+
+        long[] estimate = keysAndBytes(service, "start=x");
+        assertEquals(0, estimate[0]);
+        assertEquals(0, estimate[1]);
+    }
+
+    @ServiceTest(stage = 6)
+    void rangesOfMemoryAndFiles(ServiceInfo service) throws Exception {
+        // values take more than the flush threshold, so the keys are both in files and in memory
+        int count = 400;
+        for (int i = 0; i < count; i++) {
+            assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key(i), randomValue()).statusCode());
+        }
+
+        long[] all = keysAndBytes(service, "start=" + key(0));
+        assertEquals(count, all[0]);
+        assertTrue(all[1] >= count * 1024L, "bytes " + all[1]);
+
+        long[] part = keysAndBytes(service, "start=" + key(100) + "&end=" + key(200));
+        assertEquals(100, part[0]);
+        assertTrue(part[1] >= 100 * 1024L && part[1] < all[1], "bytes " + part[1]);
+    }
+}
@@ -0,0 +1,137 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for single node API with keyspaces.
+ */
+class SingleKeyspaceTest extends TestBase {
+
+    private HttpResponse<byte[]> send(HttpRequest request) throws Exception {
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> create(ServiceInfo service, String keyspace) throws Exception {
+        return send(service.request("/v0/admin/keyspace?name=" + keyspace)
+                .PUT(HttpRequest.BodyPublishers.noBody()).build());
+    }
+
+    private HttpResponse<byte[]> tuning(ServiceInfo service, String keyspace) throws Exception {
+        return send(service.request("/v0/admin/keyspace?name=" + keyspace).GET().build());
+    }
+
+    @ServiceTest(stage = 6)
+    void badKeyspace(ServiceInfo service) throws Exception {
+        assertEquals(
+                HttpURLConnection.HTTP_BAD_REQUEST,
+                send(service.request("/v0/entity?id=key&ks=a.b").GET().build()).statusCode()
+        );
+        assertEquals(
+                HttpURLConnection.HTTP_BAD_REQUEST,
+                send(service.request("/v0/entities?start=a&ks=").GET().build()).statusCode()
+        );
+    }
+
+    @ServiceTest(stage = 6)
+    void isolation(ServiceInfo service) throws Exception {
+        String key = "key";
+        byte[] value = "value".getBytes();
+        byte[] other = "other".getBytes();
+        assertEquals(HttpURLConnection.HTTP_CREATED, create(service, "meta").statusCode());
+        assertEquals(HttpURLConnection.HTTP_OK, create(service, "meta").statusCode());
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, send(service.request("/v0/entity?id=" + key + "&ks=meta")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(value)).build()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key, other).statusCode());
+
+        HttpResponse<byte[]> response = send(service.request("/v0/entity?id=" + key + "&ks=meta").GET().build());
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertArrayEquals(value, response.body());
+        assertArrayEquals(other, service.get(key).body());
+
+        response = send(service.request("/v0/entities?start=a&ks=meta").GET().build());
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertArrayEquals((key + '\n' + "value").getBytes(), response.body());
+    }
+
+    @ServiceTest(stage = 6)
+    void defaultKeyspace(ServiceInfo service) throws Exception {
+        String key = "key";
+        String uri = "/v0/entity?id=" + key + "&ks=default";
+        assertEquals(HttpURLConnection.HTTP_CREATED, send(service.request(uri)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray("value".getBytes())).build()).statusCode());
+        assertArrayEquals("value".getBytes(), service.get(key).body());
+        assertArrayEquals("value".getBytes(), send(service.request(uri).GET().build()).body());
+
+        // rows cached by reads with one name are replaced by writes with the other one
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key, "other".getBytes()).statusCode());
+        assertArrayEquals("other".getBytes(), send(service.request(uri).GET().build()).body());
+        assertArrayEquals("other".getBytes(), service.get(key).body());
+        HttpResponse<byte[]> response = send(service.request("/v0/entities?start=a&ks=default").GET().build());
+        assertArrayEquals((key + '\n' + "other").getBytes(), response.body());
+
+        assertEquals(HttpURLConnection.HTTP_ACCEPTED, send(service.request(uri).DELETE().build()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key).statusCode());
+
+        assertEquals(HttpURLConnection.HTTP_OK, create(service, "default").statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void unknownKeyspace(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                send(service.request("/v0/entity?id=key&ks=absent").GET().build()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, send(service.request("/v0/entity?id=key&ks=absent")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray("value".getBytes())).build()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                send(service.request("/v0/entities?start=a&ks=absent").GET().build()).statusCode());
+
+        // failed requests don't create keyspaces
+        assertEquals(HttpURLConnection.HTTP_CREATED, create(service, "absent").statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void limit(ServiceInfo service) throws Exception {
+        for (int i = 0; i < 16; i++) {
+            assertEquals(HttpURLConnection.HTTP_CREATED, create(service, "ks" + i).statusCode());
+        }
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, create(service, "ks16").statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                send(service.request("/v0/entity?id=key&ks=ks16").GET().build()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_OK, create(service, "ks0").statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, create(service, "a.b").statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void tuningAfterRestart(ServiceInfo service) throws Exception {
+        String tuning = "flushThresholdBytes=65536&learnedIndex=false&prefixLength=0&appendMemtable=true";
+        String described = "flushThresholdBytes=65536\nlearnedIndex=false\nprefixLength=0\nappendMemtable=true\n";
+        assertEquals(HttpURLConnection.HTTP_CREATED, create(service, "blobs&" + tuning).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, create(service, "meta").statusCode());
+        assertArrayEquals(described.getBytes(), tuning(service, "blobs").body());
+        String defaults = new String(tuning(service, "meta").body());
+        assertEquals(new String(tuning(service, "default").body()), defaults);
+        assertEquals(HttpURLConnection.HTTP_CREATED, send(service.request("/v0/entity?id=key&ks=blobs")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray("value".getBytes())).build()).statusCode());
+
+        service.stop();
+        service.start();
+
+        assertArrayEquals(described.getBytes(), tuning(service, "blobs").body());
+        assertEquals(defaults, new String(tuning(service, "meta").body()));
+        assertArrayEquals("value".getBytes(),
+                send(service.request("/v0/entity?id=key&ks=blobs").GET().build()).body());
+
+        // the same tuning creates nothing, the other one is not applied silently
+        assertEquals(HttpURLConnection.HTTP_OK, create(service, "blobs&" + tuning).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, create(service, "blobs").statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST,
+                create(service, "bad&flushThresholdBytes=0").statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, tuning(service, "bad").statusCode());
+    }
+}
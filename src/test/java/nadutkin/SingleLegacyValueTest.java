@@ -0,0 +1,102 @@
+package nadutkin;
+
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.utils.UtilsClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Unit tests for values stored with Java serialization before the binary layout.
+ */
+class SingleLegacyValueTest extends TestBase {
+
+    // the value as it was stored before the binary layout
+    private static byte[] serialized(byte[] value, long timestamp) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new StoredValue(value, timestamp));
+        }
+        return bytes.toByteArray();
+    }
+
+    private HttpResponse<byte[]> replicaUpsert(ServiceInfo service, String key, byte[] body) throws Exception {
+        return client.send(service.request("/v1/entity?id=" + key)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> replicaGet(ServiceInfo service, String key) throws Exception {
+        return client.send(service.request("/v1/entity?id=" + key).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static short magic(byte[] stored) {
+        return ByteBuffer.wrap(stored).getShort();
+    }
+
+    @ServiceTest(stage = 6)
+    void readThroughGet(ServiceInfo service) throws Exception {
+        String key = randomId();
+        byte[] value = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(service, key, serialized(value, 1_000)).statusCode());
+
+        HttpResponse<byte[]> response = service.get(key);
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertArrayEquals(value, response.body());
+
+        // the stored value is not rewritten by reads
+        assertEquals(ObjectStreamConstants.STREAM_MAGIC, magic(replicaGet(service, key).body()));
+    }
+
+    @ServiceTest(stage = 6)
+    void readThroughRange(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(service, "a", serialized("old".getBytes(), 1_000)).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("b", "new".getBytes()).statusCode());
+
+        HttpResponse<byte[]> range = service.range("a", "c");
+        assertEquals(HttpURLConnection.HTTP_OK, range.statusCode());
+        assertArrayEquals("a\noldb\nnew".getBytes(StandardCharsets.UTF_8), range.body());
+    }
+
+    @ServiceTest(stage = 6)
+    void legacyTombstone(ServiceInfo service) throws Exception {
+        String key = randomId();
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key, randomValue()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(service, key, serialized(null, Long.MAX_VALUE)).statusCode());
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key).statusCode());
+    }
+
+    @ServiceTest(stage = 6)
+    void nextWriteStoresBinaryLayout(ServiceInfo service) throws Exception {
+        String key = randomId();
+        assertEquals(HttpURLConnection.HTTP_CREATED,
+                replicaUpsert(service, key, serialized(randomValue(), 1_000)).statusCode());
+
+        // versions of both layouts are compared by timestamps
+        byte[] older = UtilsClass.valueToSegment(new StoredValue(randomValue(), 500L));
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(service, key, older).statusCode());
+        assertEquals(ObjectStreamConstants.STREAM_MAGIC, magic(replicaGet(service, key).body()));
+
+        byte[] value = randomValue();
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key, value).statusCode());
+        assertArrayEquals(value, service.get(key).body());
+        byte[] stored = replicaGet(service, key).body();
+        assertNotEquals(ObjectStreamConstants.STREAM_MAGIC, magic(stored));
+        assertEquals(value.length + 2 + Long.BYTES, stored.length);
+    }
+}
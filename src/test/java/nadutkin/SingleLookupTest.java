@@ -0,0 +1,78 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for single node lookups of keys in flushed files, which are searched with the learned index.
+ */
+class SingleLookupTest extends TestBase {
+
+    private static String key(long i) {
+        return "key%09d".formatted(i);
+    }
+
+    // dense and sparse parts, so the model has several segments and errors at their edges
+    private static List<Long> storedKeys() {
+        List<Long> keys = new ArrayList<>();
+        for (long i = 0; i < 300; i++) {
+            keys.add(1_000 + i * 10);
+        }
+        for (long i = 0; i < 300; i++) {
+            keys.add(10_000 + i * i * 100);
+        }
+        return keys;
+    }
+
+    @ServiceTest(stage = 6)
+    void absentKeysNearStoredOnes(ServiceInfo service) throws Exception {
+        List<Long> keys = storedKeys();
+        List<byte[]> values = new ArrayList<>();
+        for (long key : keys) {
+            byte[] value = randomValue();
+            values.add(value);
+            assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key(key), value).statusCode());
+        }
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key(0)).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key(999_999_999)).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("a").statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("z").statusCode());
+        for (int i = 0; i < keys.size(); i++) {
+            long key = keys.get(i);
+            HttpResponse<byte[]> response = service.get(key(key));
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode(), key(key));
+            assertArrayEquals(values.get(i), response.body());
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key(key - 1)).statusCode(), key(key - 1));
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key(key + 1)).statusCode(), key(key + 1));
+        }
+    }
+
+    @ServiceTest(stage = 6)
+    void rangesFromAbsentKeys(ServiceInfo service) throws Exception {
+        List<Long> keys = storedKeys();
+        byte[] value = "v".getBytes();
+        for (long key : keys) {
+            assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key(key), randomValue()).statusCode());
+        }
+        // overwritten with short values, so the range answers are small
+        for (long key : keys) {
+            assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key(key), value).statusCode());
+        }
+
+        for (int i = 0; i < keys.size() - 1; i += 7) {
+            // the range between two stored keys starts and ends at absent keys and contains only the second one
+            HttpResponse<byte[]> response = service.range(key(keys.get(i) + 1), key(keys.get(i + 1) + 1));
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+            assertArrayEquals((key(keys.get(i + 1)) + "\nv").getBytes(), response.body());
+        }
+        HttpResponse<byte[]> response = service.range(key(keys.get(keys.size() - 1) + 1), null);
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertEquals(0, response.body().length);
+    }
+}
@@ -0,0 +1,43 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for single node accounting of request memory in the shared budget.
+ */
+class SingleMemoryTest extends TestBase {
+    // memory of the stats request itself, which is being answered
+    private static final long STATS_REQUEST_BYTES = 1024;
+
+    private long serverBuffers(ServiceInfo service) throws Exception {
+        String stats = new String(client.send(service.request("/v0/stats").GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()).body(), StandardCharsets.UTF_8);
+        return stats.lines()
+                .filter(line -> line.startsWith("memory.serverBuffers="))
+                .mapToLong(line -> Long.parseLong(line.substring(line.indexOf('=') + 1)))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @ServiceTest(stage = 6)
+    void answeredRequestsReleaseMemory(ServiceInfo service) throws Exception {
+        byte[] value = new byte[60_000];
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("key" + i, value).statusCode());
+            assertEquals(HttpURLConnection.HTTP_OK, service.get("key" + i).statusCode());
+        }
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get("absent").statusCode());
+        // values are larger than a chunk
+        HttpResponse<byte[]> range = service.range("key", null);
+        assertEquals(HttpURLConnection.HTTP_OK, range.statusCode());
+        assertEquals(10 * ("key0\n".length() + value.length), range.body().length);
+        assertEquals(HttpURLConnection.HTTP_OK, service.range("absent", "absent0").statusCode());
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, service.range("b", "a").statusCode());
+
+        assertEquals(STATS_REQUEST_BYTES, serverBuffers(service));
+    }
+}
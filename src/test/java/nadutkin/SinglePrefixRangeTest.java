@@ -0,0 +1,64 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for single node range API with prefix.
+ */
+class SinglePrefixRangeTest extends TestBase {
+
+    private static byte[] chunkOf(
+            String key,
+            String value) {
+        return (key + '\n' + value).getBytes();
+    }
+
+    @ServiceTest(stage = 6)
+    void badPrefix(ServiceInfo service) throws Exception {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, service.rangeWithPrefix("").statusCode());
+        assertEquals(
+                HttpURLConnection.HTTP_BAD_REQUEST,
+                client.send(service.request("/v0/entities?prefix=a&start=a").GET().build(),
+                        HttpResponse.BodyHandlers.ofByteArray()).statusCode()
+        );
+    }
+
+    @ServiceTest(stage = 6)
+    void prefix(ServiceInfo service) throws Exception {
+        String prefix = "prefix";
+        String value = "value";
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(prefix + 2, value.getBytes()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(prefix + 1, value.getBytes()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("prefiw", value.getBytes()).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert("prefiy", value.getBytes()).statusCode());
+
+        {
+            byte[] chunk1 = chunkOf(prefix + 1, value);
+            byte[] chunk2 = chunkOf(prefix + 2, value);
+            byte[] expected = new byte[chunk1.length + chunk2.length];
+            System.arraycopy(chunk1, 0, expected, 0, chunk1.length);
+            System.arraycopy(chunk2, 0, expected, chunk1.length, chunk2.length);
+
+            HttpResponse<byte[]> response = service.rangeWithPrefix(prefix);
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+            assertArrayEquals(expected, response.body());
+        }
+
+        {
+            HttpResponse<byte[]> response = service.rangeWithPrefix(prefix + 2);
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+            assertArrayEquals(chunkOf(prefix + 2, value), response.body());
+        }
+
+        {
+            HttpResponse<byte[]> response = service.rangeWithPrefix("absent");
+            assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+            assertEquals(0, response.body().length);
+        }
+    }
+}
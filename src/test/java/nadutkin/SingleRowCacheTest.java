@@ -0,0 +1,42 @@
+package nadutkin;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for single node reads through the row cache.
+ */
+class SingleRowCacheTest extends TestBase {
+
+    private long stat(ServiceInfo service, String name) throws Exception {
+        String stats = new String(client.send(service.request("/v0/stats").GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray()).body(), StandardCharsets.UTF_8);
+        return stats.lines()
+                .filter(line -> line.startsWith(name + "="))
+                .mapToLong(line -> Long.parseLong(line.substring(line.indexOf('=') + 1)))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @ServiceTest(stage = 6)
+    void cachedRowIsReplaced(ServiceInfo service) throws Exception {
+        String key = randomId();
+        byte[] value = randomValue();
+        byte[] other = randomValue();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key, value).statusCode());
+        assertArrayEquals(value, service.get(key).body());
+        assertArrayEquals(value, service.get(key).body());
+        assertTrue(stat(service, "rowCache.hits") > 0);
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, service.upsert(key, other).statusCode());
+        assertArrayEquals(other, service.get(key).body());
+        assertEquals(HttpURLConnection.HTTP_ACCEPTED, service.delete(key).statusCode());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key).statusCode());
+    }
+}
@@ -0,0 +1,49 @@
+package nadutkin;
+
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.utils.UtilsClass;
+
+import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for versions of values written by replicas.
+ */
+class SingleVersionTest extends TestBase {
+
+    private HttpResponse<byte[]> replicaUpsert(ServiceInfo service, String key, byte[] value, long timestamp)
+            throws Exception {
+        byte[] body = UtilsClass.valueToSegment(new StoredValue(value, timestamp));
+        return client.send(service.request("/v1/entity?id=" + key)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @ServiceTest(stage = 6)
+    void lateWriteOfOlderVersion(ServiceInfo service) throws Exception {
+        String key = randomId();
+        byte[] newer = randomValue();
+        byte[] older = randomValue();
+
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(service, key, newer, 2_000).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(service, key, older, 1_000).statusCode());
+
+        HttpResponse<byte[]> response = service.get(key);
+        assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+        assertArrayEquals(newer, response.body());
+    }
+
+    @ServiceTest(stage = 6)
+    void deleteWinsOverOlderVersion(ServiceInfo service) throws Exception {
+        String key = randomId();
+
+        assertEquals(HttpURLConnection.HTTP_ACCEPTED, service.delete(key).statusCode());
+        assertEquals(HttpURLConnection.HTTP_CREATED, replicaUpsert(service, key, randomValue(), 1_000).statusCode());
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, service.get(key).statusCode());
+    }
+}
@@ -0,0 +1,42 @@
+package nadutkin.app.cache;
+
+import nadutkin.utils.MemoryManager;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for invalidation of cached rows by writes, which race with reads of the stored value.
+ */
+class RowCacheTest {
+    private static final String KEY = "key";
+
+    private final MemoryManager memoryManager = new MemoryManager(1L << 20);
+    private final RowCache cache = new RowCache(1L << 20, memoryManager);
+
+    @Test
+    void readBeforeWriteIsNotCached() {
+        long stamp = cache.stamp(KEY);
+        // the write is stored and invalidates the row after the read and before the read is cached
+        cache.invalidate(KEY);
+        cache.put(KEY, new byte[]{1}, stamp);
+
+        assertNull(cache.get(KEY));
+        assertEquals(0, cache.bytes());
+        assertEquals(0, memoryManager.used());
+    }
+
+    @Test
+    void readAfterWriteIsCached() {
+        cache.invalidate(KEY);
+        long stamp = cache.stamp(KEY);
+        cache.put(KEY, new byte[]{2}, stamp);
+
+        assertArrayEquals(new byte[]{2}, cache.get(KEY));
+        cache.invalidate(KEY);
+        assertNull(cache.get(KEY));
+        assertEquals(0, memoryManager.used());
+    }
+}
@@ -0,0 +1,128 @@
+package nadutkin.app.hints;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for replay of hints: replicas known to be down, replicas failing delivery and counters of hints.
+ */
+class HintedHandoffReplayTest {
+    private static final String URL = "http://replica:8080";
+    private static final long REPLAY_INTERVAL_MILLIS = 10;
+
+    @TempDir
+    Path directory;
+
+    private final AtomicBoolean available = new AtomicBoolean(true);
+    private final AtomicInteger sends = new AtomicInteger();
+    // attempts to send the hint by its uri
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private HintedHandoff handoff;
+
+    @AfterEach
+    void close() throws Exception {
+        if (handoff != null) {
+            handoff.close();
+        }
+    }
+
+    private void open(HintedHandoff.Sender sender) throws Exception {
+        handoff = new HintedHandoff(directory, 1L << 20, 60_000, REPLAY_INTERVAL_MILLIS,
+                url -> available.get(), (url, request) -> {
+                    sends.incrementAndGet();
+                    attempts.computeIfAbsent(request.getURI(), ignored -> new AtomicInteger()).incrementAndGet();
+                    return sender.send(url, request);
+                });
+    }
+
+    private static CompletableFuture<Response> answer(String status) {
+        return CompletableFuture.completedFuture(new Response(status, Response.EMPTY));
+    }
+
+    private void hint(int id) {
+        handoff.hint(URL, Request.METHOD_PUT, "/v1/entity?id=" + id, new byte[]{(byte) id});
+    }
+
+    private long segments() throws Exception {
+        try (Stream<Path> files = Files.list(directory.resolve(URLEncoder.encode(URL, StandardCharsets.UTF_8)))) {
+            return files.count();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int attempt = 0; attempt < 500 && !condition.getAsBoolean(); attempt++) {
+            Thread.sleep(REPLAY_INTERVAL_MILLIS);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void unavailableReplicaIsSkipped() throws Exception {
+        available.set(false);
+        open((url, request) -> answer(Response.CREATED));
+        hint(1);
+        Thread.sleep(20 * REPLAY_INTERVAL_MILLIS);
+        hint(2);
+
+        // the active segment is not sealed for the replica, which is down
+        assertEquals(0, sends.get());
+        assertEquals(1, segments());
+
+        available.set(true);
+        await(() -> handoff.backlogBytes() == 0);
+        assertEquals(2, sends.get());
+        assertEquals(2, handoff.delivered());
+    }
+
+    @Test
+    void failingReplicaKeepsActiveSegment() throws Exception {
+        open((url, request) -> answer(Response.INTERNAL_ERROR));
+        hint(1);
+        await(() -> sends.get() >= 1);
+        hint(2);
+        int sent = sends.get();
+        await(() -> sends.get() >= sent + 3);
+        hint(3);
+
+        // hints after the failed segment are appended to one segment
+        assertEquals(2, segments());
+        assertEquals(0, handoff.delivered());
+        assertEquals(1, attempts.keySet().size());
+    }
+
+    @Test
+    void retriedSegmentIsCountedOnce() throws Exception {
+        available.set(false);
+        // the second hint fails on the first attempt
+        open((url, request) -> answer(request.getURI().endsWith("=2") && attempts.get(request.getURI()).get() == 1
+                ? Response.SERVICE_UNAVAILABLE : Response.CREATED));
+        for (int id = 1; id <= 3; id++) {
+            hint(id);
+        }
+        available.set(true);
+        await(() -> handoff.backlogBytes() == 0);
+
+        assertEquals(2, attempts.get("/v1/entity?id=2").get());
+        assertEquals(6, sends.get());
+        assertEquals(3, handoff.delivered());
+        assertEquals(3, handoff.stored());
+    }
+}
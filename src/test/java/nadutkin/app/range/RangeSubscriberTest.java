@@ -0,0 +1,191 @@
+package nadutkin.app.range;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.app.replicas.StoredValue;
+import nadutkin.database.impl.Cursor;
+import nadutkin.utils.UtilsClass;
+import one.nio.http.HttpSession;
+import one.nio.http.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the end of streamed ranges: complete ones, failed ones and ones with large entries.
+ */
+class RangeSubscriberTest {
+    private final RecordingSession session = new RecordingSession();
+    private final RangeSubscriber subscriber = new RangeSubscriber(session);
+    private final RecordingSubscription subscription = new RecordingSubscription();
+
+    private static final class RecordingSession extends HttpSession {
+        private final List<Response> responses = new ArrayList<>();
+        private boolean closed;
+
+        RecordingSession() {
+            super(null, null);
+        }
+
+        @Override
+        public synchronized void sendResponse(Response response) {
+            responses.add(response);
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+    }
+
+    private static final class RecordingSubscription implements Flow.Subscription {
+        private boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            // entries are pushed by the test
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    // the cursor already moved to one entry
+    private record EntryCursor(MemorySegment key, MemorySegment value) implements Cursor {
+        static EntryCursor of(String key, byte[] stored) {
+            return new EntryCursor(MemorySegment.ofArray(UtilsClass.getBytes(key)), MemorySegment.ofArray(stored));
+        }
+
+        static EntryCursor of(String key, int valueSize) {
+            return of(key, UtilsClass.valueToSegment(new StoredValue(new byte[valueSize], 1L)));
+        }
+
+        @Override
+        public boolean next() {
+            return false;
+        }
+
+        @Override
+        public MemorySegment keySegment() {
+            return key;
+        }
+
+        @Override
+        public long keyOffset() {
+            return 0;
+        }
+
+        @Override
+        public long keySize() {
+            return key.byteSize();
+        }
+
+        @Override
+        public MemorySegment valueSegment() {
+            return value;
+        }
+
+        @Override
+        public long valueOffset() {
+            return 0;
+        }
+
+        @Override
+        public long valueSize() {
+            return value.byteSize();
+        }
+
+        @Override
+        public long timestamp() {
+            return 1;
+        }
+    }
+
+    private static boolean isLastChunk(Response response) {
+        return response instanceof ChunkResponse chunk && chunk.length() == 0;
+    }
+
+    @Test
+    void completeRange() {
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(EntryCursor.of("a", 10));
+        subscriber.onComplete();
+
+        assertEquals(3, session.responses.size());
+        assertEquals(HttpURLConnection.HTTP_OK, session.responses.get(0).getStatus());
+        assertEquals("chunked", session.responses.get(0).getHeader("Transfer-Encoding: "));
+        assertEquals("a".length() + 1 + 10, ((ChunkResponse) session.responses.get(1)).length());
+        assertTrue(isLastChunk(session.responses.get(2)));
+    }
+
+    @Test
+    void emptyRange() {
+        subscriber.onSubscribe(subscription);
+        subscriber.onComplete();
+
+        assertEquals(2, session.responses.size());
+        assertEquals(HttpURLConnection.HTTP_OK, session.responses.get(0).getStatus());
+        assertTrue(isLastChunk(session.responses.get(1)));
+    }
+
+    @Test
+    void firstEntryLargerThanChunk() {
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(EntryCursor.of("a", 3000));
+        subscriber.onNext(EntryCursor.of("b", 3000));
+        subscriber.onComplete();
+
+        // only the last chunk is empty
+        assertEquals(4, session.responses.size());
+        assertFalse(isLastChunk(session.responses.get(1)));
+        assertFalse(isLastChunk(session.responses.get(2)));
+        assertTrue(isLastChunk(session.responses.get(3)));
+    }
+
+    @Test
+    void failureBeforeFirstChunk() {
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(EntryCursor.of("a", 10));
+        subscriber.onError(new IOException("Disk failure"));
+
+        assertEquals(1, session.responses.size());
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, session.responses.get(0).getStatus());
+        assertFalse(session.closed);
+    }
+
+    @Test
+    void failureAfterFirstChunk() {
+        subscriber.onSubscribe(subscription);
+        for (int i = 0; i < 10; i++) {
+            subscriber.onNext(EntryCursor.of("key" + i, 500));
+        }
+        subscriber.onError(new IOException("Disk failure"));
+
+        assertTrue(session.closed);
+        assertEquals(HttpURLConnection.HTTP_OK, session.responses.get(0).getStatus());
+        for (Response response : session.responses.subList(1, session.responses.size())) {
+            assertInstanceOf(ChunkResponse.class, response);
+            assertFalse(isLastChunk(response));
+        }
+    }
+
+    @Test
+    void malformedValue() {
+        subscriber.onSubscribe(subscription);
+        subscriber.onNext(EntryCursor.of("a", new byte[]{42, 42}));
+
+        assertTrue(subscription.cancelled);
+        assertEquals(1, session.responses.size());
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, session.responses.get(0).getStatus());
+    }
+}
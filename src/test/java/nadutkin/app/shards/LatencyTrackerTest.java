@@ -0,0 +1,45 @@
+package nadutkin.app.shards;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for latencies of cancelled requests, which are only lower bounds of the latency.
+ */
+class LatencyTrackerTest {
+    private static final String FAST = "fast";
+    private static final String SLOW = "slow";
+
+    private final LatencyTracker tracker = new LatencyTracker(List.of(FAST, SLOW), 16);
+
+    @Test
+    void lostRaceKeepsAverage() {
+        tracker.record(FAST, 1_000);
+        tracker.record(SLOW, 2_000);
+        // the fast replica answered the quorum later than the others and was cancelled
+        for (int i = 0; i < 16; i++) {
+            tracker.recordAtLeast(FAST, 100);
+        }
+
+        assertEquals(1_000, tracker.average(FAST));
+        assertEquals(1_000, tracker.percentile(FAST, 0.5));
+        assertEquals(List.of(FAST, SLOW), tracker.fastestFirst(List.of(SLOW, FAST)));
+    }
+
+    @Test
+    void tooSlowToWaitForRaisesAverage() {
+        tracker.record(FAST, 1_000);
+        tracker.record(SLOW, 2_000);
+        for (int i = 0; i < 16; i++) {
+            tracker.recordAtLeast(FAST, 1_000_000);
+        }
+
+        assertTrue(tracker.average(FAST) > tracker.average(SLOW));
+        assertEquals(1_000_000, tracker.percentile(FAST, 0.5));
+        assertEquals(List.of(SLOW, FAST), tracker.fastestFirst(List.of(FAST, SLOW)));
+    }
+}
@@ -0,0 +1,212 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the memtable of sorted writes: the appended log, the overlay of other keys and their merge.
+ */
+class AppendMemTableTest {
+    private final AppendMemTable table = new AppendMemTable();
+
+    private static Entry<MemorySegment> entry(String key, String value, long timestamp) {
+        return new BaseEntry<>(UtilsClass.getKey(key), value == null ? null : UtilsClass.getKey(value), timestamp);
+    }
+
+    private Entry<MemorySegment> put(String key, String value, long timestamp) {
+        Entry<MemorySegment> entry = entry(key, value, timestamp);
+        return table.put(entry.key(), entry);
+    }
+
+    private void assertValue(String key, String value) {
+        Entry<MemorySegment> entry = table.get(UtilsClass.getKey(key));
+        assertNotNull(entry, key);
+        assertArrayEquals(UtilsClass.getBytes(value), entry.value().toByteArray(), key);
+    }
+
+    // keys and values of the range as key=value
+    private static List<String> entries(Iterator<Entry<MemorySegment>> iterator) {
+        List<String> entries = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Entry<MemorySegment> entry = iterator.next();
+            entries.add(new String(entry.key().toByteArray(), StandardCharsets.UTF_8) + '='
+                    + (entry.value() == null ? null
+                    : new String(entry.value().toByteArray(), StandardCharsets.UTF_8)));
+        }
+        return entries;
+    }
+
+    private List<String> range(String from, String to) {
+        return entries(table.get(UtilsClass.getKey(from), to == null ? null : UtilsClass.getKey(to)));
+    }
+
+    @Test
+    void outOfOrderKeys() {
+        assertTrue(table.isEmpty());
+        assertNull(put("b", "1", 1));
+        assertNull(put("d", "1", 1));
+        // less than the last appended key
+        assertNull(put("a", "1", 1));
+        assertNull(put("c", "1", 1));
+        assertFalse(table.isEmpty());
+        assertNull(put("e", "1", 1));
+
+        assertEquals(List.of("a=1", "b=1", "c=1", "d=1", "e=1"), range("", null));
+        assertEquals(List.of("b=1", "c=1"), range("b", "d"));
+        assertEquals(List.of("c=1", "d=1", "e=1"), range("bb", null));
+        assertEquals(List.of(), range("f", null));
+        assertValue("a", "1");
+        assertValue("c", "1");
+        assertNull(table.get(UtilsClass.getKey("bb")));
+    }
+
+    @Test
+    void overlayHidesLog() {
+        put("a", "log", 1);
+        put("b", "log", 1);
+        put("c", "log", 1);
+        Entry<MemorySegment> overlay = entry("b", "overlay", 2);
+        assertNull(table.put(overlay.key(), overlay));
+        // the same timestamp as the appended entry
+        put("c", "overlay", 1);
+        put("a", null, 3);
+
+        assertValue("b", "overlay");
+        assertValue("c", "overlay");
+        assertNull(table.get(UtilsClass.getKey("a")).value());
+        assertEquals(List.of("a=null", "b=overlay", "c=overlay"), range("", null));
+        assertEquals(List.of("b=overlay"), range("b", "c"));
+
+        // the overlay entry is replaced as in any map
+        assertSame(overlay, put("b", "newer", 4));
+        assertEquals(List.of("b=newer", "c=overlay"), range("b", null));
+    }
+
+    @Test
+    void olderTimestampsRejected() {
+        put("a", "log", 10);
+        put("c", "log", 10);
+        put("b", "overlay", 10);
+
+        // against the log and against the overlay
+        Entry<MemorySegment> older = entry("a", "older", 9);
+        assertSame(older, table.put(older.key(), older));
+        older = entry("b", "older", 9);
+        assertSame(older, table.put(older.key(), older));
+        older = entry("c", null, 9);
+        assertSame(older, table.put(older.key(), older));
+
+        assertEquals(List.of("a=log", "b=overlay", "c=log"), range("", null));
+        assertValue("a", "log");
+        assertValue("b", "overlay");
+        assertValue("c", "log");
+    }
+
+    @Test
+    void valuesOnceForKey() {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                put("key%03d".formatted(i), "round" + round, round + 1);
+            }
+        }
+        assertEquals(100, table.values().size());
+        List<String> values = entries(table.values().iterator());
+        assertEquals(100, values.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("key%03d=round2".formatted(i), values.get(i));
+        }
+    }
+
+    @Test
+    void rejectedEntryIsNotCounted() {
+        DatabaseUtils.Memory memory = new DatabaseUtils.Memory(Long.MAX_VALUE, null, true);
+        Entry<MemorySegment> first = entry("a", "value", 10);
+        memory.put(first.key(), first);
+        Entry<MemorySegment> last = entry("b", "value", 10);
+        memory.put(last.key(), last);
+        long size = memory.size();
+        assertEquals(StorageMethods.getSizeOnDisk(first) + StorageMethods.getSizeOnDisk(last), size);
+
+        Entry<MemorySegment> older = entry("a", "much longer value", 9);
+        memory.put(older.key(), older);
+        assertEquals(size, memory.size());
+
+        // the appended entry stays in memory under the overlay one
+        Entry<MemorySegment> newer = entry("a", "new", 11);
+        memory.put(newer.key(), newer);
+        assertEquals(size + StorageMethods.getSizeOnDisk(newer), memory.size());
+        Entry<MemorySegment> newest = entry("a", "newest", 12);
+        memory.put(newest.key(), newest);
+        assertEquals(size + StorageMethods.getSizeOnDisk(newest), memory.size());
+    }
+
+    @Test
+    void appendWhileReading() throws Exception {
+        int keys = 200_000;
+        AtomicInteger written = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < keys; i++) {
+                put("key%09d".formatted(i * 2), "value", 1);
+                // some keys go to the overlay
+                if (i % 100 == 99) {
+                    put("key%09d".formatted(i * 2 - 1), "value", 1);
+                }
+                written.set(i + 1);
+            }
+            done.set(true);
+        });
+        List<CompletableFuture<Void>> readers = new ArrayList<>();
+        for (int reader = 0; reader < 2; reader++) {
+            readers.add(CompletableFuture.runAsync(() -> {
+                while (!done.get()) {
+                    int count = written.get();
+                    if (count == 0) {
+                        continue;
+                    }
+                    // written keys are found, ranges are sorted and hold all of them
+                    assertNotNull(table.get(UtilsClass.getKey("key%09d".formatted((count - 1) * 2))));
+                    Iterator<Entry<MemorySegment>> iterator = table.get(UtilsClass.getKey(""), null);
+                    MemorySegment previous = null;
+                    int appended = 0;
+                    while (iterator.hasNext()) {
+                        MemorySegment key = iterator.next().key();
+                        if (previous != null) {
+                            assertTrue(MemorySegmentComparator.INSTANCE.compare(previous, key) < 0);
+                        }
+                        if (key.toByteArray()[(int) key.byteSize() - 1] % 2 == 0) {
+                            appended++;
+                        }
+                        previous = key;
+                    }
+                    assertTrue(appended >= count, appended + " < " + count);
+                }
+            }));
+        }
+        writer.get(1, TimeUnit.MINUTES);
+        for (CompletableFuture<Void> reader : readers) {
+            reader.get(1, TimeUnit.MINUTES);
+        }
+        assertEquals(keys + keys / 100, table.values().size());
+    }
+}
@@ -0,0 +1,204 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for compaction in background: its progress, cancellation and flushes while it runs.
+ */
+class CompactionTest {
+    // files are made only by explicit flushes
+    private static final long FLUSH_THRESHOLD_BYTES = 256L << 20;
+    private static final int LARGE_KEYS = 100_000;
+
+    @TempDir
+    Path basePath;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+    private long timestamp;
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+        compactionExecutor.shutdownNow();
+    }
+
+    private MemorySegmentDao open() throws Exception {
+        return new MemorySegmentDao(new Config(basePath, FLUSH_THRESHOLD_BYTES), null,
+                executor, compactionExecutor, "memtable", false);
+    }
+
+    private static String key(int i) {
+        return "key%09d".formatted(i);
+    }
+
+    private static String value(int round) {
+        return "value" + round + "x".repeat(64);
+    }
+
+    private void upsert(MemorySegmentDao dao, String key, String value) {
+        dao.upsert(new BaseEntry<>(UtilsClass.getKey(key), value == null ? null : UtilsClass.getKey(value),
+                ++timestamp));
+    }
+
+    // every round is flushed into its own file, key i has the value of round min(i, rounds - 1)
+    private void write(MemorySegmentDao dao, int rounds, int keys) {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = round; i < keys; i++) {
+                upsert(dao, key(i), value(round));
+            }
+            dao.flush();
+        }
+    }
+
+    private static void assertValue(MemorySegmentDao dao, String key, String value) {
+        Entry<MemorySegment> entry = dao.get(UtilsClass.getKey(key));
+        if (value == null) {
+            assertNull(entry, key);
+        } else {
+            assertArrayEquals(UtilsClass.getBytes(value), entry.value().toByteArray(), key);
+        }
+    }
+
+    private List<String> files() throws Exception {
+        try (Stream<Path> files = Files.list(basePath)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static void awaitProgress(Compaction compaction) {
+        while (compaction.progress() == 0 && !compaction.isDone()) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    void compactedFilesKeepNewestValues() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            write(dao, 4, 1000);
+            upsert(dao, key(0), null);
+            dao.flush();
+            assertEquals(5, files().size());
+
+            Compaction compaction = dao.compact();
+            compaction.get();
+            assertEquals(1, compaction.progress());
+            assertEquals(List.of("data4.dat"), files());
+            assertValue(dao, key(0), null);
+            for (int i = 1; i < 1000; i++) {
+                assertValue(dao, key(i), value(Math.min(i, 3)));
+            }
+        }
+        try (MemorySegmentDao dao = open()) {
+            assertValue(dao, key(0), null);
+            assertValue(dao, key(999), value(3));
+        }
+    }
+
+    @Test
+    void cancelledBeforeStart() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            write(dao, 3, 1000);
+            List<String> files = files();
+
+            CountDownLatch release = new CountDownLatch(1);
+            compactionExecutor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Compaction compaction = dao.compact();
+            assertEquals(0, compaction.progress());
+            assertTrue(compaction.cancel(false));
+            release.countDown();
+            compaction.awaitFinished();
+
+            assertTrue(compaction.isCancelled());
+            assertThrows(CancellationException.class, compaction::get);
+            assertEquals(files, files());
+            assertValue(dao, key(999), value(2));
+
+            // the cancelled compaction is not returned as the running one
+            Compaction next = dao.compact();
+            assertNotSame(compaction, next);
+            next.get();
+            assertEquals(List.of("data2.dat"), files());
+        }
+    }
+
+    @Test
+    void cancelledWhileRunning() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            write(dao, 3, LARGE_KEYS);
+            List<String> files = files();
+
+            Compaction compaction = dao.compact();
+            awaitProgress(compaction);
+            double progress = compaction.progress();
+            assertTrue(progress > 0 && progress < 1, Double.toString(progress));
+            assertTrue(compaction.cancel(false));
+            compaction.awaitFinished();
+
+            // files are as they were, the compacted file is deleted
+            assertEquals(files, files());
+            assertValue(dao, key(0), value(0));
+            assertValue(dao, key(LARGE_KEYS - 1), value(2));
+        }
+    }
+
+    @Test
+    void flushDuringCompaction() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            write(dao, 3, LARGE_KEYS);
+
+            Compaction compaction = dao.compact();
+            awaitProgress(compaction);
+            assertTrue(compaction.progress() < 1);
+            for (int i = 0; i < 10; i++) {
+                upsert(dao, key(i), "new");
+            }
+            upsert(dao, key(LARGE_KEYS - 1), null);
+            dao.flush();
+            assertFalse(compaction.isDone());
+            compaction.get(1, TimeUnit.MINUTES);
+
+            // the flushed file stays newer than the compacted one
+            assertEquals(List.of("data2.dat", "data3.dat"), files());
+            assertValue(dao, key(0), "new");
+            assertValue(dao, key(10), value(2));
+            assertValue(dao, key(LARGE_KEYS - 1), null);
+        }
+        try (MemorySegmentDao dao = open()) {
+            assertValue(dao, key(9), "new");
+            assertValue(dao, key(LARGE_KEYS - 2), value(2));
+            assertValue(dao, key(LARGE_KEYS - 1), null);
+        }
+    }
+}
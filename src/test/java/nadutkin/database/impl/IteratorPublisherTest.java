@@ -0,0 +1,269 @@
+package nadutkin.database.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for subscriptions to iterators: demand, completion, cancellation and failures.
+ */
+class IteratorPublisherTest {
+    // endless iterators fail the test instead of hanging it
+    private static final int MAX_ITEMS = 10_000;
+
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        int completions;
+        // a signal after completion or an error, or signals at the same time
+        boolean violated;
+        private final AtomicBoolean signalling = new AtomicBoolean();
+        private final AtomicInteger received = new AtomicInteger();
+        Flow.Subscription subscription;
+
+        private void signal(Runnable record) {
+            if (!signalling.compareAndSet(false, true)) {
+                violated = true;
+            }
+            if (completions > 0 || !errors.isEmpty()) {
+                violated = true;
+            }
+            record.run();
+            signalling.set(false);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            if (received.incrementAndGet() > MAX_ITEMS) {
+                throw new AssertionError("More than " + MAX_ITEMS + " items");
+            }
+            signal(() -> items.add(item));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signal(() -> errors.add(throwable));
+        }
+
+        @Override
+        public void onComplete() {
+            signal(() -> completions++);
+        }
+
+        int received() {
+            return received.get();
+        }
+    }
+
+    private Supplier<Iterator<Integer>> iterators(int size) {
+        return () -> {
+            opened.incrementAndGet();
+            return IntStream.range(0, size).iterator();
+        };
+    }
+
+    private Supplier<Iterator<Integer>> endless() {
+        return () -> {
+            opened.incrementAndGet();
+            return Stream.iterate(0, i -> i + 1).iterator();
+        };
+    }
+
+    private static RecordingSubscriber subscribe(Supplier<Iterator<Integer>> iterators) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new IteratorPublisher<>(iterators, Runnable::run).subscribe(subscriber);
+        return subscriber;
+    }
+
+    @Test
+    void notMoreThanRequested() {
+        RecordingSubscriber subscriber = subscribe(endless());
+        // the iterator is opened on the first request
+        assertEquals(0, opened.get());
+        subscriber.subscription.request(3);
+        assertEquals(List.of(0, 1, 2), subscriber.items);
+        subscriber.subscription.request(2);
+        assertEquals(List.of(0, 1, 2, 3, 4), subscriber.items);
+        assertEquals(1, opened.get());
+        assertEquals(0, subscriber.completions);
+
+        subscriber = subscribe(iterators(10));
+        subscriber.subscription.request(4);
+        assertEquals(4, subscriber.items.size());
+        assertEquals(0, subscriber.completions);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(10, subscriber.items.size());
+        assertEquals(1, subscriber.completions);
+        assertFalse(subscriber.violated);
+    }
+
+    @Test
+    void nothingAfterComplete() {
+        RecordingSubscriber subscriber = subscribe(iterators(2));
+        subscriber.subscription.request(5);
+        assertEquals(List.of(0, 1), subscriber.items);
+        assertEquals(1, subscriber.completions);
+
+        subscriber.subscription.request(5);
+        subscriber.subscription.request(0);
+        subscriber.subscription.cancel();
+        assertEquals(List.of(0, 1), subscriber.items);
+        assertEquals(1, subscriber.completions);
+        assertTrue(subscriber.errors.isEmpty());
+        assertFalse(subscriber.violated);
+
+        // the empty iterator completes on the first request
+        subscriber = subscribe(iterators(0));
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.completions);
+        assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test
+    void cancelStopsDelivery() {
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(Integer item) {
+                super.onNext(item);
+                if (item == 2) {
+                    subscription.cancel();
+                }
+            }
+        };
+        new IteratorPublisher<>(endless(), Runnable::run).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of(0, 1, 2), subscriber.items);
+        subscriber.subscription.request(1);
+        assertEquals(List.of(0, 1, 2), subscriber.items);
+        assertEquals(0, subscriber.completions);
+
+        // the iterator isn't opened for the cancelled subscription
+        subscriber = subscribe(endless());
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.items.isEmpty());
+        assertEquals(1, opened.get());
+        assertFalse(subscriber.violated);
+    }
+
+    @Test
+    void nonPositiveRequestFails() {
+        for (long n : new long[]{0, -1}) {
+            RecordingSubscriber subscriber = subscribe(iterators(10));
+            subscriber.subscription.request(n);
+            subscriber.subscription.request(-5);
+            subscriber.subscription.request(1);
+            assertEquals(1, subscriber.errors.size());
+            assertInstanceOf(IllegalArgumentException.class, subscriber.errors.get(0));
+            assertTrue(subscriber.items.isEmpty());
+            assertEquals(0, subscriber.completions);
+            assertFalse(subscriber.violated);
+        }
+    }
+
+    @Test
+    void failedIteratorFailsOnce() {
+        IllegalStateException failure = new IllegalStateException("closed");
+        RecordingSubscriber subscriber = subscribe(() -> {
+            opened.incrementAndGet();
+            throw failure;
+        });
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(1);
+        assertEquals(List.of(failure), subscriber.errors);
+        assertEquals(1, opened.get());
+
+        // failures of the open iterator too
+        subscriber = subscribe(() -> new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == 2) {
+                    throw failure;
+                }
+                return next++;
+            }
+        });
+        subscriber.subscription.request(5);
+        subscriber.subscription.request(5);
+        assertEquals(List.of(0, 1), subscriber.items);
+        assertEquals(List.of(failure), subscriber.errors);
+        assertEquals(0, subscriber.completions);
+        assertFalse(subscriber.violated);
+    }
+
+    @Test
+    void concurrentRequests() throws Exception {
+        int threads = 4;
+        int requests = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            new IteratorPublisher<>(iterators(threads * requests + 1), executor).subscribe(subscriber);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> requesters = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread requester = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int j = 0; j < requests; j++) {
+                        subscriber.subscription.request(1);
+                    }
+                });
+                requester.start();
+                requesters.add(requester);
+            }
+            start.countDown();
+            for (Thread requester : requesters) {
+                requester.join();
+            }
+            for (int attempt = 0; attempt < 500 && subscriber.received() < threads * requests; attempt++) {
+                Thread.sleep(10);
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            // one item is left in the iterator, so the subscription is not complete
+            assertEquals(IntStream.range(0, threads * requests).boxed().toList(), subscriber.items);
+            assertEquals(0, subscriber.completions);
+            assertFalse(subscriber.violated);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
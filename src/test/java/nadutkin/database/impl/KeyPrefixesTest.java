@@ -0,0 +1,166 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for key prefixes: keys, which prefixes are equal, and keys outside the prefix common for the file.
+ */
+class KeyPrefixesTest {
+    // files are made only by explicit flushes
+    private static final long FLUSH_THRESHOLD_BYTES = 256L << 20;
+
+    @TempDir
+    Path basePath;
+
+    private static byte[] bytes(String key, int... tail) {
+        byte[] text = key.getBytes(StandardCharsets.UTF_8);
+        byte[] result = Arrays.copyOf(text, text.length + tail.length);
+        for (int i = 0; i < tail.length; i++) {
+            result[text.length + i] = (byte) tail[i];
+        }
+        return result;
+    }
+
+    // all keys have the common prefix "user:", many of them have equal 8 bytes after it
+    private static NavigableSet<MemorySegment> storedKeys() {
+        NavigableSet<MemorySegment> keys = new TreeSet<>(MemorySegmentComparator.INSTANCE);
+        for (byte[] key : List.of(
+                bytes("user:"),
+                bytes("user:", 0),
+                bytes("user:a"),
+                bytes("user:a", 0),
+                bytes("user:a", 0, 0),
+                bytes("user:aaaaaaaa"),
+                bytes("user:aaaaaaaa1"),
+                bytes("user:aaaaaaaa2"),
+                bytes("user:aaaaaaaa2", 0),
+                bytes("user:b"),
+                bytes("user:", 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF),
+                bytes("user:", 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF),
+                bytes("user:", 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 1))) {
+            keys.add(MemorySegment.ofArray(key));
+        }
+        return keys;
+    }
+
+    // stored keys, their neighbours and keys without the common prefix
+    private static List<MemorySegment> queries(NavigableSet<MemorySegment> stored) {
+        List<MemorySegment> queries = new ArrayList<>();
+        for (MemorySegment key : stored) {
+            byte[] data = key.toByteArray();
+            queries.add(key);
+            queries.add(MemorySegment.ofArray(Arrays.copyOf(data, data.length - 1)));
+            for (int tail : new int[]{0, 1, 0x7F, 0xFF}) {
+                byte[] longer = Arrays.copyOf(data, data.length + 1);
+                longer[data.length] = (byte) tail;
+                queries.add(MemorySegment.ofArray(longer));
+            }
+        }
+        for (byte[] key : List.of(
+                bytes(""),
+                bytes("", 0),
+                bytes("u"),
+                bytes("user"),
+                bytes("user9"),
+                bytes("user;"),
+                bytes("user;aaaaaaaa"),
+                bytes("usea", 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF),
+                bytes("user", 0xFF),
+                bytes("v"),
+                bytes("", 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF))) {
+            queries.add(MemorySegment.ofArray(key));
+        }
+        return queries;
+    }
+
+    @Test
+    void prefixesOrderKeysOrTie() {
+        NavigableSet<MemorySegment> stored = storedKeys();
+        List<MemorySegment> keys = new ArrayList<>(stored);
+        KeyPrefixes prefixes = KeyPrefixes.create(keys.get(0), keys.get(keys.size() - 1), keys.size());
+        for (MemorySegment key : keys) {
+            prefixes.add(key, 0, key.byteSize());
+        }
+
+        for (MemorySegment query : queries(stored)) {
+            long prefix = prefixes.prefix(query);
+            for (int i = 0; i < keys.size(); i++) {
+                int byPrefix = Long.compareUnsigned(prefix, prefixes.at(i));
+                int byKey = MemorySegmentComparator.INSTANCE.compare(query, keys.get(i));
+                if (byPrefix != 0) {
+                    assertEquals(Integer.signum(byKey), Integer.signum(byPrefix),
+                            Arrays.toString(query.toByteArray()) + " and " + Arrays.toString(keys.get(i).toByteArray()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void lookups() throws Exception {
+        NavigableSet<MemorySegment> stored = storedKeys();
+        List<MemorySegment> queries = queries(stored);
+        try (MemorySegmentDao dao = new MemorySegmentDao(new Config(basePath, FLUSH_THRESHOLD_BYTES, true, 0))) {
+            long timestamp = 0;
+            for (MemorySegment key : stored) {
+                dao.upsert(new BaseEntry<>(key, key, ++timestamp));
+            }
+            dao.flush();
+            // the second file has its own common prefix, the most of the keys are outside it
+            NavigableSet<MemorySegment> second = new TreeSet<>(MemorySegmentComparator.INSTANCE);
+            for (int i = 1; i < 10; i++) {
+                second.add(MemorySegment.ofArray(bytes("user:aaaaaaaa" + i, 0)));
+            }
+            for (MemorySegment key : second) {
+                dao.upsert(new BaseEntry<>(key, key, ++timestamp));
+            }
+            dao.flush();
+            stored.addAll(second);
+
+            List<Entry<MemorySegment>> batch = dao.multiGet(queries);
+            for (int i = 0; i < queries.size(); i++) {
+                MemorySegment query = queries.get(i);
+                String name = Arrays.toString(query.toByteArray());
+                if (stored.contains(query)) {
+                    assertNotNull(dao.get(query), name);
+                    assertArrayEquals(query.toByteArray(), dao.get(query).value().toByteArray(), name);
+                    assertArrayEquals(query.toByteArray(), batch.get(i).key().toByteArray(), name);
+                } else {
+                    assertNull(dao.get(query), name);
+                    assertNull(batch.get(i), name);
+                }
+
+                // ranges start and end at the first key not less than the bound
+                for (MemorySegment to : queries) {
+                    if (MemorySegmentComparator.INSTANCE.compare(query, to) > 0) {
+                        continue;
+                    }
+                    Iterator<Entry<MemorySegment>> range = dao.get(query, to);
+                    for (MemorySegment expected : stored.subSet(query, true, to, false)) {
+                        assertArrayEquals(expected.toByteArray(), range.next().key().toByteArray(), name);
+                    }
+                    assertFalse(range.hasNext(), name);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for files left by interrupted flushes and compactions, they are deleted when the dao is opened.
+ */
+class LeftoverFilesTest {
+    private static final long FLUSH_THRESHOLD_BYTES = 1 << 20;
+
+    @TempDir
+    Path basePath;
+
+    private MemorySegmentDao open() throws Exception {
+        return new MemorySegmentDao(new Config(basePath, FLUSH_THRESHOLD_BYTES), null);
+    }
+
+    private static void upsert(MemorySegmentDao dao, String key, String value) {
+        dao.upsert(new BaseEntry<>(UtilsClass.getKey(key), UtilsClass.getKey(value), 1L));
+    }
+
+    private static void assertValue(MemorySegmentDao dao, String key, String value) {
+        Entry<MemorySegment> entry = dao.get(UtilsClass.getKey(key));
+        assertArrayEquals(UtilsClass.getBytes(value), entry.value().toByteArray());
+    }
+
+    private Path leftover(String name) throws Exception {
+        return Files.write(basePath.resolve(name), new byte[]{1, 2, 3});
+    }
+
+    @Test
+    void interruptedFlush() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            upsert(dao, "key", "value");
+        }
+        // data0.dat is stored, parts of the next flush were not published
+        Path[] leftovers = {
+                leftover("data1.part"),
+                leftover("data2.part.tmp"),
+                leftover("data1.dat.tmp"),
+        };
+        Path foreign = leftover("data.part.bak");
+
+        try (MemorySegmentDao dao = open()) {
+            for (Path file : leftovers) {
+                assertFalse(Files.exists(file), file.toString());
+            }
+            assertTrue(Files.exists(foreign));
+            assertValue(dao, "key", "value");
+            upsert(dao, "next", "value");
+        }
+        try (MemorySegmentDao dao = open()) {
+            assertValue(dao, "key", "value");
+            assertValue(dao, "next", "value");
+        }
+    }
+
+    @Test
+    void interruptedCompaction() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try (MemorySegmentDao dao = open()) {
+                upsert(dao, "key", "value" + i);
+            }
+        }
+        // the compacted file replaces the newest one, data1.dat
+        Path[] leftovers = {
+                leftover("data1.compacting"),
+                leftover("data1.compacting.tmp"),
+        };
+
+        try (MemorySegmentDao dao = open()) {
+            for (Path file : leftovers) {
+                assertFalse(Files.exists(file), file.toString());
+            }
+            assertValue(dao, "key", "value1");
+            dao.compact().get();
+            assertValue(dao, "key", "value1");
+        }
+        assertTrue(Files.exists(basePath.resolve("data1.dat")));
+        assertFalse(Files.exists(basePath.resolve("data0.dat")));
+    }
+}
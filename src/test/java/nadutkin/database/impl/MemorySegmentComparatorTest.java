@@ -0,0 +1,66 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for comparison of key ranges by words, by unrolled blocks of words and by vectors.
+ */
+class MemorySegmentComparatorTest {
+    // longer than an unrolled block and than the least key compared by vectors
+    private static final int MAX_LENGTH = 300;
+
+    private static void assertCompared(byte[] key1, byte[] key2) {
+        int expected = Integer.signum(Arrays.compareUnsigned(key1, key2));
+        // keys are not at the start of the segments, as in files
+        MemorySegment s1 = MemorySegment.ofArray(concat(new byte[3], key1));
+        MemorySegment s2 = MemorySegment.ofArray(concat(new byte[5], key2));
+        String message = key1.length + " and " + key2.length + " bytes";
+        assertEquals(expected, Integer.signum(MemorySegmentComparator.compare(s1, 3, key1.length,
+                s2, 5, key2.length)), message);
+        assertEquals(expected, Integer.signum(MemorySegmentComparator.compareLookup(s1, 3, key1.length,
+                s2, 5, key2.length)), message);
+        assertEquals(expected, Integer.signum(MemorySegmentComparator.INSTANCE.compare(
+                MemorySegment.ofArray(key1), MemorySegment.ofArray(key2))), message);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    @Test
+    void everyDifferingPosition() {
+        Random random = new Random(42);
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            byte[] key = new byte[length];
+            random.nextBytes(key);
+            assertCompared(key, key.clone());
+            for (int position = 0; position < length; position++) {
+                byte[] other = key.clone();
+                // unsigned order differs from the signed one
+                other[position] = (byte) (key[position] ^ 0x80);
+                assertCompared(key, other);
+                assertCompared(other, key);
+            }
+        }
+    }
+
+    @Test
+    void prefixes() {
+        Random random = new Random(42);
+        byte[] key = new byte[MAX_LENGTH];
+        random.nextBytes(key);
+        for (int length = 0; length < MAX_LENGTH; length++) {
+            assertCompared(Arrays.copyOf(key, length), key);
+            assertCompared(key, Arrays.copyOf(key, length));
+            assertCompared(Arrays.copyOf(key, length), Arrays.copyOf(key, length + 1));
+        }
+    }
+}
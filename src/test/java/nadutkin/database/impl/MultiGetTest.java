@@ -0,0 +1,148 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for batched lookups, which must find the same entries as lookups of every key.
+ */
+class MultiGetTest {
+    // files are made only by explicit flushes
+    private static final long FLUSH_THRESHOLD_BYTES = 256L << 20;
+    // stored keys are multiples of 10, so the others are absent
+    private static final int KEYS = 20_000;
+
+    @TempDir
+    Path basePath;
+
+    private long timestamp;
+
+    private static MemorySegment key(int i) {
+        return UtilsClass.getKey("key%09d".formatted(i));
+    }
+
+    private void upsert(MemorySegmentDao dao, int key, String value) {
+        upsert(dao, key, value, ++timestamp);
+    }
+
+    private static void upsert(MemorySegmentDao dao, int key, String value, long timestamp) {
+        dao.upsert(new BaseEntry<>(key(key), value == null ? null : UtilsClass.getKey(value + key), timestamp));
+    }
+
+    // four files and the memtable: newer values, tombstones, keys only in old and only in new files,
+    // late writes of replicas, which win or lose to older files only by their timestamps
+    private MemorySegmentDao fill(boolean learnedIndex) throws Exception {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(basePath, FLUSH_THRESHOLD_BYTES, learnedIndex,
+                nadutkin.utils.Constants.PREFIX_FILTER_LENGTH), null);
+        for (int i = 0; i < KEYS; i++) {
+            upsert(dao, i * 10, "first");
+        }
+        dao.flush();
+        // newer than the first values of all keys but the last ones, older than the greatest timestamp of the file
+        long replayed = timestamp - 1;
+        for (int i = 0; i < KEYS; i += 3) {
+            upsert(dao, i * 10, "second");
+            upsert(dao, i * 10 + 10, "late", 0);
+            upsert(dao, i * 10 + 20, "replayed", replayed);
+        }
+        dao.flush();
+        for (int i = 0; i < KEYS; i += 7) {
+            upsert(dao, i * 10, null);
+        }
+        dao.flush();
+        for (int i = 0; i < KEYS; i += 49) {
+            upsert(dao, i * 10, "fourth");
+            upsert(dao, i * 10 + 5, "fourth");
+        }
+        dao.flush();
+        for (int i = 0; i < KEYS; i += 11) {
+            upsert(dao, i * 10, "memory");
+        }
+        for (int i = 0; i < KEYS; i += 13) {
+            upsert(dao, i * 10, null);
+        }
+        return dao;
+    }
+
+    private static void assertSameAsGet(MemorySegmentDao dao, List<MemorySegment> keys) {
+        List<Entry<MemorySegment>> entries = dao.multiGet(keys);
+        assertEquals(keys.size(), entries.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Entry<MemorySegment> expected = dao.get(keys.get(i));
+            Entry<MemorySegment> actual = entries.get(i);
+            String key = new String(keys.get(i).toByteArray(), StandardCharsets.UTF_8);
+            if (expected == null) {
+                assertNull(actual, key);
+            } else {
+                assertNotNull(actual, key);
+                assertArrayEquals(expected.key().toByteArray(), actual.key().toByteArray(), key);
+                assertArrayEquals(expected.value().toByteArray(), actual.value().toByteArray(), key);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void denseKeys(boolean learnedIndex) throws Exception {
+        try (MemorySegmentDao dao = fill(learnedIndex)) {
+            // stored and absent keys one by one, more keys than records / MULTI_GET_MAX_GALLOP_GAP
+            List<MemorySegment> keys = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                keys.add(key(i));
+            }
+            assertSameAsGet(dao, keys);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void sparseKeys(boolean learnedIndex) throws Exception {
+        try (MemorySegmentDao dao = fill(learnedIndex)) {
+            List<MemorySegment> keys = new ArrayList<>();
+            for (int i = 0; i < KEYS; i += 997) {
+                keys.add(key(i * 10));
+                keys.add(key(i * 10 + 1));
+                keys.add(key(i * 10 + 5));
+            }
+            keys.add(UtilsClass.getKey("a"));
+            keys.add(UtilsClass.getKey("z"));
+            keys.add(key(KEYS * 10));
+            assertSameAsGet(dao, keys);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void shuffledKeysWithDuplicates(boolean learnedIndex) throws Exception {
+        try (MemorySegmentDao dao = fill(learnedIndex)) {
+            List<MemorySegment> keys = new ArrayList<>();
+            Random random = new Random(42);
+            for (int i = 0; i < 5000; i++) {
+                keys.add(key(random.nextInt(KEYS * 10)));
+                keys.add(key(random.nextInt(KEYS) * 10));
+            }
+            keys.addAll(keys.subList(0, 100));
+            Collections.shuffle(keys, random);
+            assertSameAsGet(dao, keys);
+            assertEquals(List.of(), dao.multiGet(List.of()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for flushes of large tables, which are split into files of non overlapping key ranges.
+ */
+class PartitionedFlushTest {
+    // files are made only by explicit flushes
+    private static final long FLUSH_THRESHOLD_BYTES = 256L << 20;
+    private static final int PARTS = 4;
+    private static final int KEYS = 100_000;
+    private static final String VALUE = "v".repeat(150);
+
+    @TempDir
+    Path basePath;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(PARTS);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Config config() {
+        return new Config(basePath, FLUSH_THRESHOLD_BYTES);
+    }
+
+    private static String key(int i) {
+        return "key%09d".formatted(i);
+    }
+
+    // every tenth key is a tombstone
+    private static boolean deleted(int i) {
+        return i % 10 == 0;
+    }
+
+    private static void assertValue(MemorySegmentDao dao, String key, String value) {
+        Entry<MemorySegment> entry = dao.get(UtilsClass.getKey(key));
+        if (value == null) {
+            assertNull(entry, key);
+        } else {
+            assertArrayEquals(UtilsClass.getBytes(value), entry.value().toByteArray(), key);
+        }
+    }
+
+    private List<String> files() throws Exception {
+        try (Stream<Path> files = Files.list(basePath)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    void partsOfLargeTable() throws Exception {
+        DatabaseUtils.Memory memory = new DatabaseUtils.Memory(Long.MAX_VALUE, null, false);
+        for (int i = 0; i < KEYS; i++) {
+            MemorySegment key = UtilsClass.getKey(key(i));
+            memory.put(key, new BaseEntry<>(key, deleted(i) ? null : UtilsClass.getKey(VALUE + i), 1L));
+        }
+        assertTrue(memory.size() > Constants.FLUSH_PARTITION_MIN_BYTES * PARTS, Long.toString(memory.size()));
+        StorageMethods.save(config(), StorageMethods.load(config()), memory, executor, PARTS);
+
+        // consecutive files, all of them are published
+        assertEquals(IntStream.range(0, PARTS).mapToObj(i -> "data" + i + ".dat").toList(), files());
+        Storage storage = StorageMethods.load(config());
+        try {
+            assertEquals(PARTS, storage.sstables.size());
+            long records = 0;
+            for (int i = 0; i < PARTS; i++) {
+                SSTable sstable = storage.sstables.get(i);
+                records += sstable.recordsCount;
+                if (i > 0) {
+                    SSTable previous = storage.sstables.get(i - 1);
+                    assertTrue(MemorySegmentComparator.INSTANCE.compare(previous.keyAt(previous.recordsCount - 1),
+                            sstable.keyAt(0)) < 0, "files " + (i - 1) + " and " + i + " overlap");
+                }
+            }
+            assertEquals(KEYS, records);
+        } finally {
+            storage.close();
+        }
+
+        try (MemorySegmentDao dao = new MemorySegmentDao(config())) {
+            for (int i = 0; i < KEYS; i++) {
+                assertValue(dao, key(i), deleted(i) ? null : VALUE + i);
+            }
+            Iterator<Entry<MemorySegment>> range = dao.get(UtilsClass.getKey(""), null);
+            for (int i = 0; i < KEYS; i++) {
+                if (!deleted(i)) {
+                    assertArrayEquals(UtilsClass.getBytes(key(i)), range.next().key().toByteArray());
+                }
+            }
+            assertFalse(range.hasNext());
+
+            // keys of the first, a middle and the last part
+            for (int i : new int[]{1, KEYS / 2 + 1, KEYS - 1}) {
+                dao.upsert(new BaseEntry<>(UtilsClass.getKey(key(i)), UtilsClass.getKey("new"), 2L));
+                assertValue(dao, key(i), "new");
+            }
+            dao.flush();
+            assertValue(dao, key(KEYS / 2 + 1), "new");
+            assertValue(dao, key(KEYS / 2 + 3), VALUE + (KEYS / 2 + 3));
+        }
+        try (MemorySegmentDao dao = new MemorySegmentDao(config())) {
+            for (int i : new int[]{1, KEYS / 2 + 1, KEYS - 1}) {
+                assertValue(dao, key(i), "new");
+            }
+            assertValue(dao, key(KEYS / 2), null);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package nadutkin.database.impl;
+
+import jdk.incubator.foreign.MemorySegment;
+import nadutkin.database.BaseEntry;
+import nadutkin.database.Config;
+import nadutkin.database.Entry;
+import nadutkin.utils.UtilsClass;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for newer files, which hold older timestamps than older files, as late writes of replicas do.
+ */
+class StaleTimestampTest {
+    // files are made only by explicit flushes
+    private static final long FLUSH_THRESHOLD_BYTES = 256L << 20;
+
+    @TempDir
+    Path basePath;
+
+    // the value of the key, which is read after all writes, null for deleted keys
+    private final Map<String, String> expected = new TreeMap<>();
+
+    private MemorySegmentDao open() throws Exception {
+        return new MemorySegmentDao(new Config(basePath, FLUSH_THRESHOLD_BYTES));
+    }
+
+    private static void upsert(MemorySegmentDao dao, String key, String value, long timestamp) {
+        dao.upsert(new BaseEntry<>(UtilsClass.getKey(key), value == null ? null : UtilsClass.getKey(value),
+                timestamp));
+    }
+
+    private long files() throws Exception {
+        try (Stream<Path> files = Files.list(basePath)) {
+            return files.count();
+        }
+    }
+
+    private void write(MemorySegmentDao dao) {
+        // the first file
+        upsert(dao, "a", "a10", 10);
+        upsert(dao, "b", "b10", 10);
+        upsert(dao, "c", null, 10);
+        upsert(dao, "d", "d10", 10);
+        upsert(dao, "e", "e-first", 10);
+        upsert(dao, "g", "g10", 10);
+        dao.flush();
+
+        // the second one, late writes with older timestamps lose to the first file
+        upsert(dao, "a", "a5", 5);
+        upsert(dao, "b", null, 5);
+        upsert(dao, "c", "c5", 5);
+        upsert(dao, "d", "d20", 20);
+        // the newer file wins for equal timestamps
+        upsert(dao, "e", "e-second", 10);
+        upsert(dao, "f", "f5", 5);
+        dao.flush();
+
+        // in memory
+        upsert(dao, "g", "g5", 5);
+
+        expected.put("a", "a10");
+        expected.put("b", "b10");
+        expected.put("c", null);
+        expected.put("d", "d20");
+        expected.put("e", "e-second");
+        expected.put("f", "f5");
+        expected.put("g", "g10");
+    }
+
+    private void assertNewest(MemorySegmentDao dao) {
+        List<MemorySegment> keys = new ArrayList<>();
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            keys.add(UtilsClass.getKey(entry.getKey()));
+        }
+        List<Entry<MemorySegment>> batch = dao.multiGet(keys);
+        int i = 0;
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            String key = entry.getKey();
+            Entry<MemorySegment> found = dao.get(UtilsClass.getKey(key));
+            if (entry.getValue() == null) {
+                assertNull(found, key);
+                assertNull(batch.get(i), key);
+            } else {
+                assertArrayEquals(UtilsClass.getBytes(entry.getValue()), found.value().toByteArray(), key);
+                assertArrayEquals(UtilsClass.getBytes(entry.getValue()), batch.get(i).value().toByteArray(), key);
+            }
+            i++;
+        }
+
+        Iterator<Entry<MemorySegment>> range = dao.get(UtilsClass.getKey("a"), UtilsClass.getKey("z"));
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            if (entry.getValue() != null) {
+                Entry<MemorySegment> next = range.next();
+                assertArrayEquals(UtilsClass.getBytes(entry.getKey()), next.key().toByteArray());
+                assertArrayEquals(UtilsClass.getBytes(entry.getValue()), next.value().toByteArray(),
+                        entry.getKey());
+            }
+        }
+        assertFalse(range.hasNext());
+    }
+
+    @Test
+    void olderFilesWinWithNewerTimestamps() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            write(dao);
+            assertEquals(2, files());
+            assertNewest(dao);
+
+            dao.flush();
+            assertEquals(3, files());
+            assertNewest(dao);
+
+            dao.compact().get();
+            assertEquals(1, files());
+            assertNewest(dao);
+        }
+        try (MemorySegmentDao dao = open()) {
+            assertNewest(dao);
+            // the stale write is not stored, the value of the first file is
+            upsert(dao, "g", "g7", 7);
+            assertNewest(dao);
+        }
+    }
+
+    @Test
+    void compactionKeepsWinningTimestamps() throws Exception {
+        try (MemorySegmentDao dao = open()) {
+            write(dao);
+            dao.flush();
+            dao.compact().get();
+        }
+        Storage storage = StorageMethods.load(new Config(basePath, FLUSH_THRESHOLD_BYTES));
+        try {
+            assertEquals(1, storage.sstables.size());
+            SSTable sstable = storage.sstables.get(0);
+            assertEquals(20, sstable.maxTimestamp);
+            // the compacted file keeps the winning timestamps, so later stale writes still lose
+            for (Map.Entry<String, Long> timestamp : Map.of("a", 10L, "b", 10L, "d", 20L, "e", 10L, "f", 5L,
+                    "g", 10L).entrySet()) {
+                Entry<MemorySegment> entry = storage.get(UtilsClass.getKey(timestamp.getKey()), null);
+                assertEquals(timestamp.getValue(), entry.timestamp(), timestamp.getKey());
+                assertArrayEquals(UtilsClass.getBytes(expected.get(timestamp.getKey())), entry.value().toByteArray());
+            }
+            Entry<MemorySegment> deleted = storage.get(UtilsClass.getKey("c"), null);
+            assertTrue(deleted == null || deleted.isTombstone() && deleted.timestamp() == 10);
+        } finally {
+            storage.close();
+        }
+    }
+}